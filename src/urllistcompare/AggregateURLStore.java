@@ -0,0 +1,39 @@
+/**
+ *
+ */
+package urllistcompare;
+
+import urllistcompare.util.ByteKey;
+
+/**
+ * A storage engine that only keeps the page impressions of each normalised
+ * url, without the URLElement instances: the impressions can also be added
+ * without an element.
+ *
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ */
+interface AggregateURLStore extends URLStore {
+
+	/**
+	 * Adds page impressions to a normalised url, creating its entry if needed.
+	 *
+	 * @param key the normalised url
+	 * @param impressions the page impressions to add
+	 * @param pos the position of the format
+	 */
+	public void
+		addImpressions(String key, long impressions, int pos);
+
+	/**
+	 * The same as addImpressions(String, long, int), for a normalised url
+	 * that is already encoded in UTF-8.
+	 *
+	 * @param key the normalised url, which is copied if a new entry is needed
+	 * @param impressions the page impressions to add
+	 * @param pos the position of the format
+	 */
+	public void
+		addImpressions(ByteKey key, long impressions, int pos);
+
+}
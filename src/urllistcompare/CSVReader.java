@@ -3,14 +3,55 @@
  */
 package urllistcompare;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
 import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
-import urllistcompare.util.Parser;
+import urllistcompare.util.ByteScanner;
+import urllistcompare.util.CSVLineSplitter;
+import urllistcompare.util.MappedLineReader;
+import urllistcompare.util.NumberParser;
+import urllistcompare.util.ParallelGzipInputStream;
+import urllistcompare.util.QuarantineWriter;
+import urllistcompare.util.StageStats;
 
 /**
  * 
@@ -26,6 +67,10 @@ import urllistcompare.util.Parser;
  * <p>
  * In case this class is used with a GUI, those values should be set in the constructor or with accessor
  * functions before the class start reading the file.
+ * <p>
+ * The file can be read by different engines (see CSVReader.Engine), which produce exactly the same
+ * URLElements: the default one is SCANNER. Every engine hands the rows to the destination in URLBatch
+ * instances.
  * 
  * @see CSVReaderBuilder
  * 
@@ -44,14 +89,69 @@ public class CSVReader {
 	private int urlI, impI;
 	// bom values (needed to interpret and remove the bom at the start of the file, if present)
 	private enum bom{
-		UNICODE(new String(new byte[] {(byte) 0xef, (byte) 0xbb, (byte) 0xbf}), 3);
+		UNICODE(new byte[] {(byte) 0xef, (byte) 0xbb, (byte) 0xbf});
+		public final byte[] bomBytes;
 		public final String bomString;		
-		public final int bomLength;
-		private bom(String bomString, int bomLength){
-			this.bomString = bomString;
-			this.bomLength = bomLength;
+		public final int bomLength; // Length of the decoded bom
+		private bom(byte[] bomBytes){
+			this.bomBytes = bomBytes;
+			this.bomString = new String(bomBytes);
+			this.bomLength = bomString.length();
 		}
 	}
+	/**
+	 * The engines that can be used to read the source file.
+	 * <ul>
+	 * <li>SCANNER reads the file line by line with a java.util.Scanner;
+	 * <li>MAPPED maps the file in memory and scans its bytes directly for line and value separators,
+	 * decoding only the url and impressions columns (the file must use an ASCII-compatible charset);
+	 * <li>PARALLEL works like MAPPED, but it splits the file into chunks aligned on line boundaries and
+	 * parses them on a ForkJoinPool, merging the results into the destination in their original order;
+	 * <li>PIPELINE reads the file through separate stages (I/O, parsing, normalisation and aggregation into
+	 * the destination) connected by bounded queues, each with its own threads: the statistics of each stage
+	 * are available from getPipelineStats() once the file has been read.
+	 * </ul>
+	 * A gzip or zlib compressed file is recognised from its first bytes and always read by the PIPELINE engine,
+	 * which decompresses it on its I/O stage: the members of a gzip file are decompressed in parallel.
+	 * The entries of a zip archive are read in parallel, each by the PIPELINE engine, into the same position.
+	 * A stream (the standard input or a named pipe) can only be read once and from the start, so it's always
+	 * read by the PIPELINE engine too.
+	 * With checkpoints, a plain file is always read by the MAPPED engine, which reads its lines in order.
+	 * With byte keys (see setByteKeys), the MAPPED, PARALLEL and PIPELINE engines normalise the urls straight
+	 * from the bytes of the file.
+	 */
+	public enum Engine {
+		SCANNER,
+		MAPPED,
+		PARALLEL,
+		PIPELINE
+	}
+	/**
+	 * The name of the source that stands for the standard input.
+	 */
+	public static final String STDIN = "-";
+	// The stream read when the source is STDIN, null for System.in
+	private static InputStream standardInput = null;
+	/**
+	 * Appended to the name of the source to get the name of its quarantine file.
+	 */
+	public static final String QUARANTINE_SUFFIX = ".rejected";
+	// The lines read before the error rate of the quarantine is checked
+	private static final int MIN_QUARANTINE_ROWS = 1000;
+	// Rows added to the destination at once by the SCANNER and MAPPED engines (and by a PARALLEL chunk that
+	// fills a CONCURRENT destination)
+	private static final int BATCH = 4096;
+	// Minimum size of a chunk for the PARALLEL engine
+	private static final long MIN_CHUNK = 1L << 20;
+	// Initial size of a block and capacity of the last queue of the PIPELINE engine
+	private static final int PIPELINE_BLOCK = 1 << 20;
+	private static final int PIPELINE_QUEUE = 4;
+	// The engine used to read the file
+	private Engine engine;
+	// The number of threads used by the PARALLEL and PIPELINE engines
+	private int parallelism;
+	// The statistics of the last PIPELINE reading
+	private StageStats[] pipelineStats;
 	// File to be read
 	private File source;
 	// URL Format
@@ -60,6 +160,28 @@ public class CSVReader {
 	private URLList destination;
 	// the position at the destination
 	private int position;
+	// Set by another thread to stop the reading
+	private volatile boolean cancelled;
+	// The number of rows read by the last successful reading
+	private long rows;
+	// The entries that should be read if the source is a zip archive (glob pattern, null for all)
+	private String entries;
+	// The entry of the zip archive read by this instance, null if it reads the whole source
+	private String entry;
+	// The number of rows between two checkpoints, 0 for no checkpoints
+	private long checkpoint;
+	// The largest fraction of the rows that can be quarantined, -1 to stop at the first row that can't be read
+	private double quarantine;
+	// Writes the rows that can't be read, shared with the readers of the entries of an archive
+	private QuarantineWriter quarantineWriter;
+	// The rows quarantined by the last reading
+	private final AtomicLong rejected = new AtomicLong();
+	// True if the urls should be normalised to bytes, without creating a URLElement
+	private boolean byteKeys;
+	// True if the current reading normalises the urls to bytes
+	private boolean bytePath;
+	// The normalised urls shared with the other readers, null for none
+	private KeyCache keyCache;
 
 	/**
 	 * Default constructor, the CSVReader instance is not set and can't be used unless all variables are set correctly.
@@ -77,6 +199,9 @@ public class CSVReader {
 		destination = null;
 		set = false;
 		position = -1; // default: invalid position
+		engine = Engine.SCANNER; // default
+		parallelism = Runtime.getRuntime().availableProcessors(); // default
+		quarantine = -1; // default: no quarantine
 	}
 	
 	private CSVReader(CSVReaderBuilder builder) {
@@ -91,6 +216,13 @@ public class CSVReader {
 		this.format = builder.format;
 		this.destination = builder.destination;
 		this.position = builder.position;
+		this.engine = builder.engine;
+		this.parallelism = builder.parallelism;
+		this.entries = builder.entries;
+		this.checkpoint = builder.checkpoint;
+		this.quarantine = builder.quarantine;
+		this.byteKeys = builder.byteKeys;
+		this.keyCache = builder.keyCache;
 	}
 	
 	public URLFormat getFormat(){
@@ -98,7 +230,89 @@ public class CSVReader {
 	}
 	
 	public String getName(){
-		return source.getName();
+		if(isStandardInput(source))
+			return "stdin";
+		return entry == null ? source.getName() : source.getName() + "!" + entry;
+	}
+	
+	// The path of the source for the messages
+	private String describe(){
+		if(isStandardInput(source))
+			return "stdin";
+		return entry == null ? source.toString() : source + "!" + entry;
+	}
+	
+	/**
+	 * 
+	 * @param file a source file
+	 * @return true if the file stands for the standard input
+	 */
+	public static boolean isStandardInput(File file){
+		return file != null && STDIN.equals(file.getPath());
+	}
+	
+	/**
+	 * Sets the stream that is read when the source is STDIN, e.g. because System.in has been redirected
+	 * to the terminal for the prompts.
+	 * 
+	 * @param in the stream, or null for System.in
+	 */
+	public static void setStandardInput(InputStream in){
+		standardInput = in;
+	}
+	
+	/**
+	 * 
+	 * @param file a source file
+	 * @return true if the file exists (or stands for the standard input) and can be read
+	 */
+	public static boolean canRead(File file){
+		return isStandardInput(file) || (file.exists() && !file.isDirectory() && file.canRead());
+	}
+	
+	/*
+	 * Checks if the source can only be read once and from the start: the standard input or a named pipe.
+	 */
+	private boolean isStream(){
+		return isStandardInput(source) || (entry == null && !Files.isRegularFile(source.toPath()));
+	}
+	
+	/**
+	 * 
+	 * @return the number of rows (header excluded) read by the last successful reading, 0 if there was none,
+	 * including the rows that were quarantined
+	 */
+	public long getRows(){
+		return rows;
+	}
+	
+	/**
+	 * Creates a CSVReader instance for another file with the same settings, destination and position,
+	 * e.g. for one more file of the same export.
+	 * 
+	 * @param source the file that the new instance should read
+	 * @return a new CSVReader instance
+	 */
+	public CSVReader withSource(File source){
+		return new CSVReaderBuilder(source)
+				.headers(headers)
+				.isTSep(isTSep)
+				.tSep(tSep)
+				.dSep(dSep)
+				.vSep(vSep)
+				.urlI(urlI)
+				.impI(impI)
+				.format(format)
+				.destination(destination)
+				.position(position)
+				.engine(engine)
+				.parallelism(parallelism)
+				.entries(entries)
+				.checkpoint(checkpoint)
+				.quarantine(quarantine)
+				.byteKeys(byteKeys)
+				.keyCache(keyCache)
+				.build();
 	}
 	
 	/**
@@ -109,25 +323,51 @@ public class CSVReader {
 		return set;
 	}
 	
+	/**
+	 * Stops the reading as soon as possible: it can be called by any thread, read() then returns false.
+	 * The elements that were already added to the destination are not removed.
+	 * A cancelled CSVReader instance can't read anything anymore.
+	 */
+	public void cancel(){
+		cancelled = true;
+	}
+	
+	/**
+	 * 
+	 * @return true if the CSVReader instance has been cancelled
+	 */
+	public boolean isCancelled(){
+		return cancelled;
+	}
+	
+	/**
+	 * 
+	 * @return the statistics of each stage of the last reading with the PIPELINE engine (I/O, parser,
+	 * normaliser and aggregator), or null if the PIPELINE engine has never been used
+	 */
+	public StageStats[] getPipelineStats(){
+		return pipelineStats;
+	}
+	
 	/*
 	 * Checks and updates the set status of the CSVReader instance.
 	 * It returns true if the CSVReader instance is set up and can be used, false otherwise
 	 */
 	private boolean checkSet(){
 		set = ((!isTSep || tSep != 0) && dSep != 0 && vSep != 0) && urlI > -1 && impI > -1 && urlI != impI;
-		set = set && format != null && destination != null;
-		set = set && source != null && source.exists() && source.canRead();
+		set = set && format != null && destination != null && parallelism > 0 && checkpoint >= 0 && quarantine <= 1;
+		set = set && source != null && canRead(source);
 		return set;
 	}
 	
 	/**
 	 * 
-	 * @param file the file that needs to be read
+	 * @param file the file that needs to be read, a named pipe or STDIN for the standard input
 	 * @return true if the file exists and can be read
 	 */
 	public boolean setFile(File file){
 		source = file;
-		return source.exists() && source.canRead();
+		return canRead(source);
 	}
 	
 	/**
@@ -146,6 +386,70 @@ public class CSVReader {
 		this.position = position;
 	}
 	
+	/**
+	 * Sets how often the reading is checkpointed: a reading that fails or is interrupted resumes from the last
+	 * checkpoint the next time the same file is read with the same settings. The checkpoints are kept in a file
+	 * next to the source, which is deleted once the source has been read completely.
+	 * The checkpoint file keeps a copy of every row read (its raw url and its page impressions), so a reading
+	 * with checkpoints writes about as many bytes as the source again; each checkpoint also waits until the
+	 * rows written since the previous one are on the disk. The number of rows between two checkpoints only
+	 * changes how often the reading waits for the disk, not how much is written: a few million rows keep the
+	 * waits rare.
+	 * Only a plain file can be checkpointed (not a compressed file, an archive or a stream), and only by the
+	 * MAPPED engine: with checkpoints a plain file is read by the MAPPED engine whatever engine was set, and a
+	 * notice is printed if it was another one.
+	 * 
+	 * @param checkpoint the number of rows between two checkpoints, 0 for no checkpoints
+	 */
+	public void setCheckpoint(long checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+	
+	/**
+	 * Sets the tolerant mode: the rows that can't be read are written to a quarantine file next to the source
+	 * (its name followed by QUARANTINE_SUFFIX), with their line number and the reason, and the reading goes on.
+	 * The reading still fails if the rejected rows are more than maxErrorRate of the rows read.
+	 * 
+	 * @param maxErrorRate the largest fraction of the rows that can be rejected (e.g. 0.01 for 1%), -1 to stop
+	 * at the first row that can't be read
+	 */
+	public void setQuarantine(double maxErrorRate) {
+		this.quarantine = maxErrorRate;
+	}
+	
+	/**
+	 * Sets the byte keys: the url of each row is normalised straight from the bytes of the file and its
+	 * impressions are added to the destination without creating a URLElement or any String, which gives the
+	 * same results with much less garbage. A url that is not plain ASCII or that contains escaped double quotes
+	 * still goes through a URLElement.
+	 * Only an AGGREGATE destination can be filled this way, since the other ones keep the URLElements, and only
+	 * by the MAPPED, PARALLEL and PIPELINE engines without checkpoints: otherwise the urls are read as Strings.
+	 * 
+	 * @param byteKeys true to normalise the urls to bytes
+	 */
+	public void setByteKeys(boolean byteKeys) {
+		this.byteKeys = byteKeys;
+	}
+	
+	/**
+	 * Sets the cache of the normalised urls: a url that was already normalised by any reader that shares the
+	 * same cache is not normalised again, and its elements share the same key. The readers of the entries of an
+	 * archive use the same cache. The urls normalised to bytes don't need the cache.
+	 * 
+	 * @param keyCache the cache, null for none
+	 */
+	public void setKeyCache(KeyCache keyCache) {
+		this.keyCache = keyCache;
+	}
+	
+	/**
+	 * 
+	 * @return the number of rows quarantined by the last reading
+	 */
+	public long getRejected(){
+		return rejected.get();
+	}
+	
 	/**
 	 * 
 	 * @param headers true if there is a header line
@@ -202,166 +506,1229 @@ public class CSVReader {
 		this.impI = impI;
 	}
 	
+	/**
+	 * 
+	 * @param engine the engine that should be used to read the file
+	 */
+	public void setEngine(Engine engine) {
+		this.engine = engine;
+	}
+	
+	/**
+	 * 
+	 * @param parallelism the number of threads used by the PARALLEL engine, and by the parser and normaliser
+	 * stages of the PIPELINE engine
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+	
 	/**
 	 * Read the source file's contents into the destination URLList
 	 * @return true if successful, false otherwise
 	 */
 	public boolean read(){
 		boolean output = false;
-		Scanner inputStream;
-		int impressions = 0;
-		int columns = 0; // To perform a consistency check based on the first line
-		String [] line = null; // To temporarily save the line as a String array
-		String row; // To store the row as it is received from the file 
-		String impString;
-		String page;
-		URLElement element;
-		int k = 0;
-		// First check if everything is fine and set the BufferedReader object
+		boolean owner = false; // True if this instance opened the quarantine file
+		rows = 0;
+		rejected.set(0);
+		// First check if everything is fine
 		set = checkSet();
 		if(isSet()){
-			try {
-				inputStream = new Scanner(source); 
-			} catch (FileNotFoundException e) {
-				System.err.println("Problema nell'apertura del file " + source.getName());
-				return false;
+			if(quarantine >= 0 && quarantineWriter == null){
+				try{
+					// A reading that resumes from a checkpoint keeps the rows quarantined before it
+					quarantineWriter = new QuarantineWriter(quarantineFile(), checkpoint > 0 && new File(source.getPath() + CheckpointLog.SUFFIX).isFile());
+					owner = true;
+				} catch (IOException e) {
+					System.err.println("Problema nell'apertura del file " + quarantineFile());
+					return false;
+				}
 			}
 			try{
-				while(true){
-					if(!inputStream.hasNextLine())
-						throw new EOFException("End of file reached!");
-					row = inputStream.nextLine();
-					if(k == 0){ // First line
-						// Find and delete the bom, if present
-						for(bom e : bom.values()){
-							if(row.startsWith(e.bomString)){
-								row = row.substring(e.bomLength);
-								break;
-							}
+				output = readSource();
+				if(output && rejected.get() > 0){
+					if(owner)
+						System.out.println(rejected + " righe di " + describe() + " scartate (" + quarantineWriter.getFile() + ")");
+					if(rejected.get() > quarantine * rows)
+						throw new RuntimeException("Unrecoverable error while reading " + describe() + ": " + rejected + " rows rejected out of " + rows);
+				}
+			} finally {
+				if(owner){
+					try{
+						quarantineWriter.close();
+					} catch (IOException e) {
+						System.out.println("Errore nella scrittura di " + quarantineWriter.getFile() + ": " + e.getMessage());
+					}
+					quarantineWriter = null;
+				}
+			}
+		}
+		return output;
+	}
+	
+	// Reads the source with the engine that fits it
+	private boolean readSource(){
+		boolean output;
+		boolean stream = isStream();
+		Compression compression = entry == null && !stream ? sourceCompression() : Compression.NONE;
+		if(compression == Compression.ZIP)
+			return readZip();
+		boolean plain = compression == Compression.NONE && entry == null && !stream;
+		if(checkpoint > 0 && !plain)
+			System.out.println("Checkpoint non disponibili per " + describe() + ": la lettura riparte sempre dall'inizio");
+		if(checkpoint > 0 && plain && engine != Engine.MAPPED)
+			System.out.println("Con i checkpoint " + describe() + " viene letto dal motore MAPPED invece che da " + engine);
+		// Only the PIPELINE engine can read a compressed file, an entry of an archive or a stream,
+		// only the MAPPED engine can checkpoint the reading
+		Engine selected = !plain ? Engine.PIPELINE : checkpoint > 0 ? Engine.MAPPED : engine;
+		// The checkpoints log the URLElements, the other storages keep them
+		bytePath = byteKeys && selected != Engine.SCANNER && checkpoint == 0 && destination.getStorage() == URLList.Storage.AGGREGATE;
+		if(byteKeys && !bytePath)
+			System.out.println("Chiavi in byte non disponibili per " + describe() + ": gli url vengono letti come stringhe");
+		switch(selected){
+		case MAPPED:
+			output = readMapped();
+			break;
+		case PARALLEL:
+			output = readParallel();
+			break;
+		case PIPELINE:
+			output = readPipeline();
+			break;
+		default:
+			output = readScanner();
+		}
+		return output;
+	}
+	
+	// The file where the rows that can't be read are quarantined
+	private File quarantineFile(){
+		return new File((isStandardInput(source) ? "stdin" : source.getPath()) + QUARANTINE_SUFFIX);
+	}
+	
+	/*
+	 * Quarantines a row that can't be read, or throws its error if the rows are not quarantined or if there
+	 * are too many of them: the error rate is only checked after the first MIN_QUARANTINE_ROWS lines.
+	 */
+	private void reject(int k, String row, Exception e) throws Exception{
+		if(quarantineWriter == null)
+			throw e;
+		quarantineWriter.reject(k, row, entry == null ? e.getMessage() : entry + ": " + e.getMessage());
+		long n = rejected.incrementAndGet();
+		if(n > quarantine * Math.max(k, MIN_QUARANTINE_ROWS))
+			throw new Exception("Too many rows rejected: " + n + " in the first " + k + " lines");
+	}
+	
+	/*
+	 * Splits a line like splitLine, but quarantines the line if it can't be read: then it returns -1.
+	 */
+	private long splitOrReject(CSVLineSplitter splitter, NumberParser numbers, ByteBuffer buffer, int from, int to, int columns, Charset charset, int k) throws Exception{
+		try{
+			return splitLine(splitter, numbers, buffer, from, to, columns, charset, k);
+		} catch (Exception e) {
+			reject(k, row(buffer, from, to, charset), e);
+			return -1;
+		}
+	}
+	
+	// Decodes a whole line, to quarantine it
+	private static String row(ByteBuffer buffer, int from, int to, Charset charset){
+		ByteBuffer line = buffer.duplicate();
+		byte[] bytes = new byte[to - from];
+		line.position(from);
+		line.get(bytes);
+		return new String(bytes, charset);
+	}
+	
+	// Checks if the source file is compressed
+	private Compression sourceCompression(){
+		FileChannel channel = null;
+		try{
+			channel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+			return compression(channel);
+		} catch (IOException e) {
+			return Compression.NONE; // The engine reports the error
+		} finally {
+			try{
+				if(channel != null)
+					channel.close();
+			} catch (IOException e) {
+				// Nothing left to do with the channel
+			}
+		}
+	}
+	
+	/*
+	 * Reads the file line by line with a Scanner
+	 */
+	private boolean readScanner(){
+		Scanner inputStream;
+		CSVLineSplitter splitter = new CSVLineSplitter(vSep); // Reused for all lines
+		NumberParser numbers = newNumberParser(); // Reused for all lines
+		int columns = 0; // To perform a consistency check based on the first line
+		String row; // To store the row as it is received from the file 
+		URLBatch batch = newBatch(Charset.defaultCharset(), BATCH);
+		long impressions;
+		int k = 0;
+		try {
+			inputStream = new Scanner(source); 
+		} catch (FileNotFoundException e) {
+			System.err.println("Problema nell'apertura del file " + source.getName());
+			return false;
+		}
+		try{
+			while(true){
+				if(cancelled){
+					System.out.println("Lettura di " + source + " interrotta");
+					return false;
+				}
+				if(!inputStream.hasNextLine()){
+					flush(batch, null);
+					throw new EOFException("End of file reached!");
+				}
+				row = inputStream.nextLine();
+				if(k == 0){ // First line
+					// Find and delete the bom, if present
+					for(bom e : bom.values()){
+						if(row.startsWith(e.bomString)){
+							row = row.substring(e.bomLength);
+							break;
 						}
-						// Count the number of columns that are to be expected
-						columns = readCSVLine(row, vSep).length;
 					}
-					// If there are no headers, parse the first line
-					// All other lines are parsed
-					if(k > 0 || !headers){
+					// Count the number of columns that are to be expected
+					columns = splitter.split(row);
+				}
+				// If there are no headers, parse the first line
+				// All other lines are parsed
+				if(k > 0 || !headers){
+					try{
 						try{
-							line = readCSVLine(row, vSep);
+							splitter.split(row);
 						} catch (Exception e) {
 							throw new Exception("Consistency error within the file " + source + " at line " + k + ": " + e.getMessage());
 						}
-						if(line.length != columns)
+						if(splitter.getCount() != columns)
 							throw new Exception ("Wrong number of columns at line " + k);
-						page = line[urlI];
-						impString = line[impI];
-						try{
-							impressions = Parser.parseInt(impString, isTSep ? tSep : 0, dSep);
-						} catch (Exception e) {
-							throw new Exception("Error parsing the impressions at line " + k + ": " + e.getMessage());
+						// Only the url is extracted from the row, the impressions are parsed in place
+						impressions = checkImpressions(splitter.isEscaped(impI) ? numbers.parse(splitter.column(row, impI))
+										: numbers.parse(row, splitter.start(impI), splitter.end(impI)),
+								numbers, k);
+						batch.add(splitter.column(row, urlI), impressions);
+					} catch (Exception e) {
+						reject(k, row, e);
+					}
+					if(batch.size() == BATCH)
+						flush(batch, null);
+				}
+				k++;
+			}
+		} catch(EOFException e){
+			rows = headers ? Math.max(0, k - 1) : k;
+			System.out.println("File " + source + " letto correttamente! (" + rows + " righe)");
+		} catch (IOException e) {
+			System.out.println("Errore nella lettura da " + source);
+		} catch (Exception e) {
+			// Close the input stream
+			inputStream.close();
+			// Stop all engines, but in a way that can be catched
+			throw new RuntimeException("Unrecoverable error while reading " + source + ": " + e.getMessage());
+		} finally {
+			inputStream.close();
+		}
+		return true;
+	}
+	
+	/*
+	 * Maps the file in memory and scans its bytes directly, decoding only the url and impressions
+	 * columns with the default charset (the same one used by the Scanner).
+	 */
+	private boolean readMapped(){
+		FileChannel channel;
+		MappedLineReader lines;
+		CSVLineSplitter splitter = new CSVLineSplitter(vSep);
+		NumberParser numbers = newNumberParser();
+		Charset charset = Charset.defaultCharset();
+		ByteBuffer buffer;
+		int columns = 0; // To perform a consistency check based on the first line
+		int from, to; // Bounds of the current line
+		int k = 0;
+		CheckpointLog log = checkpoint > 0 ? new CheckpointLog(source, settings()) : null;
+		long start = 0, done = 0; // Offsets of the first line and of the first line that is not read yet
+		URLBatch batch = newBatch(charset, BATCH);
+		long impressions;
+		try {
+			channel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+		} catch (IOException e) {
+			System.err.println("Problema nell'apertura del file " + source.getName());
+			return false;
+		}
+		try{
+			if(log != null){
+				if(log.resume(channel, format, destination, position)){
+					start = done = log.getOffset();
+					k = log.getLine();
+					columns = log.getColumns();
+					System.out.println("Lettura di " + source + " ripresa dalla riga " + k);
+				}
+				log.open();
+			}
+			lines = new MappedLineReader(channel, start, channel.size());
+			while(!cancelled && lines.nextLine()){
+				buffer = lines.buffer();
+				from = lines.lineStart();
+				to = lines.lineEnd();
+				if(k == 0){ // First line
+					// Skip the bom, if present
+					for(bom e : bom.values()){
+						if(startsWith(buffer, from, to, e.bomBytes)){
+							from += e.bomBytes.length;
+							break;
 						}
-						element = new URLElement(page, format, impressions);
-						destination.add(element, position);
 					}
-					k++;
+					// Count the number of columns that are to be expected
+					columns = splitter.split(buffer, from, to);
+				}
+				// If there are no headers, parse the first line
+				// All other lines are parsed
+				if(k > 0 || !headers){
+					impressions = splitOrReject(splitter, numbers, buffer, from, to, columns, charset, k);
+					if(impressions >= 0){
+						addRow(batch, splitter, buffer, charset, impressions);
+						if(batch.size() == BATCH)
+							flush(batch, log);
+					}
+				}
+				k++;
+				done = lines.offset();
+				if(log != null && k % checkpoint == 0){
+					flush(batch, log);
+					log.checkpoint(channel, done, k, columns);
+				}
+			}
+			if(cancelled){
+				checkpoint(log, batch, channel, done, k, columns);
+				System.out.println("Lettura di " + source + " interrotta");
+				return false;
+			}
+			flush(batch, log);
+			rows = headers ? Math.max(0, k - 1) : k;
+			if(log != null)
+				log.delete();
+			System.out.println("File " + source + " letto correttamente! (" + rows + " righe)");
+		} catch (IOException e) {
+			checkpoint(log, batch, channel, done, k, columns);
+			System.out.println("Errore nella lettura da " + source + ": " + e.getMessage());
+			return false;
+		} catch (Exception e) {
+			checkpoint(log, batch, channel, done, k, columns);
+			// Stop all engines, but in a way that can be catched
+			throw new RuntimeException("Unrecoverable error while reading " + source + ": " + e.getMessage());
+		} finally {
+			try {
+				if(log != null)
+					log.close();
+			} catch (IOException e) {
+				// The last checkpoint is already on the disk
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// Nothing left to do with the channel
+			}
+		}
+		return true;
+	}
+	
+	// Checks if the line between from and to starts with the bytes in prefix
+	private static boolean startsWith(ByteBuffer buffer, int from, int to, byte[] prefix){
+		if(to - from < prefix.length)
+			return false;
+		for(int i = 0; i < prefix.length; i++){
+			if(buffer.get(from + i) != prefix[i])
+				return false;
+		}
+		return true;
+	}
+	
+	/*
+	 * Splits the file into chunks aligned on line boundaries and parses them on a ForkJoinPool.
+	 * Records can't span multiple lines, so a line boundary is always a record boundary.
+	 * At most 2 chunks per thread are in flight at the same time: the results of each chunk are
+	 * added to the destination by the calling thread, in the same order as the file.
+	 * A CONCURRENT destination is filled directly by the chunks instead: if a line can't be parsed,
+	 * the lines that follow it in other chunks might have been added already.
+	 * Each chunk normalises its own batch, so that the calling thread only inserts it.
+	 */
+	private boolean readParallel(){
+		FileChannel channel;
+		MappedLineReader lines;
+		CSVLineSplitter splitter = new CSVLineSplitter(vSep);
+		NumberParser numbers = newNumberParser();
+		Charset charset = Charset.defaultCharset();
+		ForkJoinPool pool = null;
+		ArrayDeque<ChunkTask> inFlight = new ArrayDeque<ChunkTask>();
+		ChunkTask chunk;
+		ByteBuffer buffer;
+		long impressions;
+		int columns = 0; // To perform a consistency check based on the first line
+		int from, to; // Bounds of the first line
+		int k = 0; // Number of lines already merged
+		long size, next, chunkSize;
+		try {
+			channel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+		} catch (IOException e) {
+			System.err.println("Problema nell'apertura del file " + source.getName());
+			return false;
+		}
+		try{
+			size = channel.size();
+			// The first line is read here: it defines the number of columns and it might be a header
+			lines = new MappedLineReader(channel, 0, size);
+			next = size;
+			if(lines.nextLine()){
+				buffer = lines.buffer();
+				from = lines.lineStart();
+				to = lines.lineEnd();
+				// Skip the bom, if present
+				for(bom e : bom.values()){
+					if(startsWith(buffer, from, to, e.bomBytes)){
+						from += e.bomBytes.length;
+						break;
+					}
+				}
+				columns = splitter.split(buffer, from, to);
+				if(!headers){
+					impressions = splitOrReject(splitter, numbers, buffer, from, to, columns, charset, k);
+					if(impressions >= 0){
+						URLBatch first = newBatch(charset, 1);
+						addRow(first, splitter, buffer, charset, impressions);
+						flush(first, null);
+					}
 				}
-			} catch(EOFException e){
-				System.out.println("File " + source + " letto correttamente!");
+				next = lines.offset();
+				k++;
+			}
+			// Parse the rest of the file in chunks
+			pool = new ForkJoinPool(parallelism);
+			chunkSize = Math.max(MIN_CHUNK, (size - next) / (parallelism * 4L) + 1);
+			while(!cancelled && (next < size || !inFlight.isEmpty())){
+				while(next < size && inFlight.size() < parallelism * 2){
+					chunk = new ChunkTask(channel, next, alignToLine(channel, next + chunkSize, size), columns, charset);
+					pool.execute(chunk);
+					inFlight.add(chunk);
+					next = chunk.to;
+				}
+				chunk = inFlight.poll();
+				chunk.join();
+				if(chunk.failed){
+					// Parse the line again here, where its number is known, to report the error
+					k += chunk.lines;
+					if(chunk.failedIO)
+						throw new IOException(chunk.message);
+					buffer = channel.map(FileChannel.MapMode.READ_ONLY, chunk.failedFrom, chunk.failedLength);
+					splitLine(splitter, numbers, buffer, 0, (int) chunk.failedLength, columns, charset, k);
+					throw new Exception(chunk.message);
+				}
+				// Parse the quarantined lines again here too, to report them with their numbers
+				for(int i = 0; i < chunk.rejectedLines.size(); i++){
+					long[] line = chunk.rejectedLines.get(i);
+					buffer = channel.map(FileChannel.MapMode.READ_ONLY, line[1], line[2]);
+					splitOrReject(splitter, numbers, buffer, 0, (int) line[2], columns, charset, k + (int) line[0]);
+				}
+				if(chunk.batch.size() > 0) // Empty if the chunk filled the destination
+					destination.addAll(chunk.batch);
+				k += chunk.lines;
+			}
+			if(cancelled){
+				System.out.println("Lettura di " + source + " interrotta");
+				return false;
+			}
+			rows = headers ? Math.max(0, k - 1) : k;
+			System.out.println("File " + source + " letto correttamente! (" + rows + " righe)");
+		} catch (IOException e) {
+			System.out.println("Errore nella lettura da " + source + ": " + e.getMessage());
+			return false;
+		} catch (Exception e) {
+			// Stop all engines, but in a way that can be catched
+			throw new RuntimeException("Unrecoverable error while reading " + source + ": " + e.getMessage());
+		} finally {
+			if(pool != null)
+				pool.shutdownNow();
+			try {
+				channel.close();
 			} catch (IOException e) {
-				System.out.println("Errore nella lettura da " + source);
-			} catch (Exception e) {
-				// Close the input stream
-				inputStream.close();
-				// Stop all engines, but in a way that can be catched
-				throw new RuntimeException("Unrecoverable error while reading " + source + ": " + e.getMessage());
+				// Nothing left to do with the channel
+			}
+		}
+		return true;
+	}
+	
+	/*
+	 * Checkpoints a reading that stopped before the end, so that it resumes from the first line that was not read.
+	 * The rows still in the batch were read before that line, so they are added first.
+	 */
+	private void checkpoint(CheckpointLog log, URLBatch batch, FileChannel channel, long done, int k, int columns){
+		if(log == null || k == 0)
+			return; // Nothing to resume
+		try{
+			flush(batch, log);
+			log.checkpoint(channel, done, k, columns);
+			System.out.println("La prossima lettura di " + source + " riprender\u00e0 dalla riga " + k + " (" + log.getFile() + ")");
+		} catch (IOException e) {
+			System.out.println("Impossibile salvare il checkpoint di " + source + ": " + e.getMessage());
+		}
+	}
+	
+	// The settings that must not change between a reading and the one that resumes it
+	private String settings(){
+		return source.getAbsolutePath() + ";" + format + ";" + headers + ";" + urlI + ";" + impI + ";" + (int) vSep
+				+ ";" + (int) dSep + ";" + isTSep + ";" + (int) tSep + ";" + position;
+	}
+	
+	/*
+	 * Returns the offset of the first line that starts at or after position, or end if there is none.
+	 */
+	private static long alignToLine(FileChannel channel, long position, long end) throws IOException{
+		ByteBuffer block = ByteBuffer.allocate(8192);
+		long offset = position - 1; // A line starts right after a terminator
+		int n;
+		byte b;
+		while(offset < end - 1){
+			block.clear();
+			n = channel.read(block, offset);
+			if(n <= 0)
+				break;
+			// The last byte of the block is only checked with the next block, where the byte that follows it is available
+			for(int i = 0; i < n - 1 && offset + i < end - 1; i++){
+				b = block.get(i);
+				// A single \r is a terminator, but a line does not start between \r and \n
+				if(b == '\n' || (b == '\r' && block.get(i + 1) != '\n'))
+					return offset + i + 1;
+			}
+			offset += Math.max(1, n - 1);
+		}
+		return end;
+	}
+	
+	/*
+	 * Reads the file through a pipeline of stages connected by bounded queues:
+	 * - the I/O stage reads blocks of whole lines from the file (decompressing it, if needed) and counts them;
+	 * - the parser stage splits the lines of each block into a URLBatch;
+	 * - the normaliser stage normalises each batch, to byte keys or to URLElements and their normalised urls;
+	 * - the calling thread adds the batches to the destination, then hands them back to the parsers to be reused.
+	 * A full queue blocks the stage that fills it, so a slow stage slows down the ones before it instead of
+	 * filling the memory. The statistics of each stage are kept in pipelineStats.
+	 * The blocks are parsed in any order: if a line can't be parsed, the lines that follow it might have
+	 * been added already.
+	 */
+	private boolean readPipeline(){
+		ReadableByteChannel channel;
+		int parsers = Math.max(1, parallelism / 2);
+		int normalisers = Math.max(1, parallelism - parsers);
+		ExecutorService pool = null;
+		Pipeline pipeline;
+		URLBatch batch;
+		long start;
+		try {
+			channel = openChannel();
+		} catch (IOException e) {
+			System.err.println("Problema nell'apertura del file " + getName());
+			return false;
+		}
+		try{
+			// Start the stages
+			pipeline = new Pipeline(channel, Charset.defaultCharset(), parsers, normalisers);
+			pipelineStats = pipeline.stats;
+			pool = Executors.newFixedThreadPool(1 + parsers + normalisers);
+			pool.execute(pipeline.reader());
+			for(int i = 0; i < parsers; i++)
+				pool.execute(pipeline.parser());
+			for(int i = 0; i < normalisers; i++)
+				pool.execute(pipeline.normaliser());
+			// Aggregate the results
+			while(!cancelled){
+				start = System.nanoTime();
+				batch = pipeline.normalised.poll(50, TimeUnit.MILLISECONDS);
+				pipeline.stats[3].starved(System.nanoTime() - start);
+				if(batch == null)
+					continue; // Check again if the reading was cancelled
+				if(batch == BATCH_END || batch == BATCH_FAILED)
+					break;
+				start = System.nanoTime();
+				destination.addAll(batch);
+				pipeline.stats[3].processed(batch.size(), System.nanoTime() - start);
+				batch.clear();
+				pipeline.free.offer(batch);
+			}
+			pool.shutdownNow(); // Stops the stages that are still running
+			if(pipeline.failure != null){
+				if(pipeline.failure.io)
+					throw new IOException(pipeline.failure.message);
+				throw new Exception(pipeline.failure.message);
+			}
+			if(cancelled){
+				System.out.println("Lettura di " + describe() + " interrotta");
+				return false;
+			}
+			rows = pipeline.stats[1].getItems() + rejected.get();
+			System.out.println("File " + describe() + " letto correttamente! (" + rows + " righe)");
+		} catch (IOException e) {
+			System.out.println("Errore nella lettura da " + describe() + ": " + e.getMessage());
+			return false;
+		} catch (Exception e) {
+			// Stop all engines, but in a way that can be catched
+			throw new RuntimeException("Unrecoverable error while reading " + describe() + ": " + e.getMessage());
+		} finally {
+			if(pool != null)
+				pool.shutdownNow();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// Nothing left to do with the channel
+			}
+		}
+		return true;
+	}
+	
+	/*
+	 * Opens the source file: a gzip or zlib compressed file is decompressed while it's read, an entry is read
+	 * straight from its archive.
+	 */
+	private ReadableByteChannel openChannel() throws IOException{
+		if(entry != null)
+			return openEntry();
+		if(isStream())
+			return openStream();
+		FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+		try{
+			switch(compression(channel)){
+			case GZIP:
+				return Channels.newChannel(new ParallelGzipInputStream(channel, parallelism));
+			case ZLIB:
+				return Channels.newChannel(new InflaterInputStream(Channels.newInputStream(channel), new Inflater(), 1 << 16));
+			default:
+				return channel;
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/*
+	 * Opens the standard input or a named pipe. The compression is recognised from the first bytes, which are
+	 * then read again: a gzip stream is decompressed by a single thread, since its members can't be found
+	 * ahead of the reading, and a zip archive can't be read at all.
+	 * Closing the channel never closes the standard input of the process.
+	 */
+	private ReadableByteChannel openStream() throws IOException{
+		InputStream in;
+		if(isStandardInput(source)){
+			in = new FilterInputStream(standardInput == null ? System.in : standardInput){
+				@Override
+				public void close(){
+					// The standard input stays open
+				}
+			};
+		} else {
+			in = new FileInputStream(source);
+		}
+		try{
+			BufferedInputStream buffered = new BufferedInputStream(in, 1 << 16);
+			byte[] magic = new byte[4];
+			int length = 0, n;
+			buffered.mark(magic.length);
+			while(length < magic.length && (n = buffered.read(magic, length, magic.length - length)) > 0){
+				length += n;
+			}
+			buffered.reset();
+			switch(compression(magic, length)){
+			case GZIP:
+				return Channels.newChannel(new GZIPInputStream(buffered, 1 << 16));
+			case ZLIB:
+				return Channels.newChannel(new InflaterInputStream(buffered, new Inflater(), 1 << 16));
+			case ZIP:
+				throw new IOException("A zip archive can't be read from a stream");
+			default:
+				return Channels.newChannel(buffered);
+			}
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+	
+	// Opens the entry of the archive: the archive is closed with the channel
+	private ReadableByteChannel openEntry() throws IOException{
+		final ZipFile zip = new ZipFile(source);
+		try{
+			ZipEntry e = zip.getEntry(entry);
+			if(e == null)
+				throw new FileNotFoundException("No entry " + entry + " in " + source);
+			return Channels.newChannel(new FilterInputStream(zip.getInputStream(e)){
+				@Override
+				public void close() throws IOException{
+					try{
+						super.close();
+					} finally {
+						zip.close();
+					}
+				}
+			});
+		} catch (IOException e) {
+			zip.close();
+			throw e;
+		}
+	}
+	
+	/*
+	 * Reads the entries of a zip archive that match the entries pattern, several at the same time, straight
+	 * from the archive: each one is read by its own CSVReader instance with the same settings, through the
+	 * PIPELINE engine. The directories, the hidden files and the metadata added by macOS are skipped.
+	 * If an entry can't be read, the other ones are cancelled.
+	 */
+	private boolean readZip(){
+		ArrayList<CSVReader> readers = new ArrayList<CSVReader>();
+		ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		ExecutorService pool = null;
+		RuntimeException failure = null;
+		boolean output = true;
+		int threads;
+		try{
+			ZipFile zip = new ZipFile(source);
+			try{
+				PathMatcher matcher = entries == null ? null : FileSystems.getDefault().getPathMatcher("glob:" + entries);
+				Enumeration<? extends ZipEntry> all = zip.entries();
+				while(all.hasMoreElements()){
+					ZipEntry e = all.nextElement();
+					String name = e.getName().substring(e.getName().lastIndexOf('/') + 1);
+					if(e.isDirectory() || name.startsWith(".") || e.getName().startsWith("__MACOSX/"))
+						continue;
+					if(matcher == null || matcher.matches(Paths.get(e.getName())) || matcher.matches(Paths.get(name))){
+						CSVReader reader = withSource(source);
+						reader.entry = e.getName();
+						reader.quarantineWriter = quarantineWriter;
+						readers.add(reader);
+					}
+				}
 			} finally {
-				inputStream.close();
+				zip.close();
 			}
-			output = true;
+		} catch (IOException e) {
+			System.err.println("Problema nell'apertura del file " + source.getName());
+			return false;
+		}
+		if(readers.isEmpty()){
+			System.out.println("Nessun file da leggere in " + source);
+			return false;
+		}
+		// Split the threads between the entries that are read at the same time
+		threads = Math.min(readers.size(), Math.max(1, parallelism));
+		try{
+			pool = Executors.newFixedThreadPool(threads);
+			for(final CSVReader reader : readers){
+				reader.parallelism = Math.max(1, parallelism / threads);
+				results.add(pool.submit(new Callable<Boolean>(){
+					public Boolean call(){
+						return reader.read();
+					}
+				}));
+			}
+			for(int i = 0; i < results.size(); i++){
+				try{
+					if(!results.get(i).get(50, TimeUnit.MILLISECONDS))
+						output = false;
+				} catch (TimeoutException e) {
+					i--; // Check if the reading was cancelled, then wait again
+				} catch (ExecutionException e) {
+					output = false;
+					if(failure == null)
+						failure = new RuntimeException(e.getCause().getMessage(), e.getCause());
+				}
+				if(!output || cancelled){
+					for(CSVReader reader : readers)
+						reader.cancel();
+				}
+			}
+		} catch (InterruptedException e) {
+			for(CSVReader reader : readers)
+				reader.cancel();
+			Thread.currentThread().interrupt();
+			output = false;
+		} finally {
+			if(pool != null)
+				pool.shutdown();
+		}
+		if(failure != null)
+			throw failure;
+		if(cancelled){
+			System.out.println("Lettura di " + source + " interrotta");
+			return false;
+		}
+		if(output){
+			for(CSVReader reader : readers){
+				rows += reader.rows;
+				rejected.addAndGet(reader.rejected.get());
+			}
+			System.out.println("File " + source + " letto correttamente! (" + rows + " righe in " + readers.size() + " file)");
 		}
 		return output;
 	}
 	
-	/**
-	 * Parses a line of the input file and returns a String array with each column.
-	 * After the line has been parsed, the program should check that the number of columns is coherent with the document.
-	 * 
-	 * @param line the line from the input file
-	 * @param vSep the value separator for the file
-	 * @return a String array with the columns
-	 */
-	private String[] readCSVLine(String line, char vSep) throws Exception{
-		StringBuilder tempCol = new StringBuilder();
-		ArrayList <String> output = new ArrayList <String> ();
-		boolean dQuote = false; // Flag: a doublequote has been opened.
-		char [] input = line.toCharArray();
-		for(int c = 0; c < input.length; c++){
-			if(dQuote){
-				// If there is an open double quote
-				if(input[c] == '"'){
-					// If another doublequote is encountered
-					if (input.length == c || input[c+ 1] == vSep) {
-						// If it's the last character in the input or the next one is a vSep
-						// Unflag dQuote
-						dQuote = false;
-						// If it is not the last character in the input, move one additional character forward
-						if(input.length > c)
-							c++;
-						// Add tempCol to the output
-						output.add(tempCol.toString());
-						// Reset tempCol
-						tempCol.delete(0, tempCol.length());
-					} else if(input[c+ 1] == '"'){
-						// If the next character is a doublequote read one of them and add 1 to c
-						tempCol.append('"');
-						c++;
-					} else {
-						// Otherwise, there's something wrong with the file
-						throw new Exception ("Unescaped doublequote at character " + c + " of a doublequoted sequence!");
+	/*
+	 * Recognises a compressed file from its first bytes. A zlib stream starts with 0x78 and a byte that is not
+	 * printable, so that it can't be confused with a plain text file that starts with an x.
+	 */
+	private static Compression compression(FileChannel channel) throws IOException{
+		byte[] magic = new byte[4];
+		ByteBuffer buffer = ByteBuffer.wrap(magic);
+		while(buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0){
+			// Read until the buffer is full or the file is over
+		}
+		return compression(magic, buffer.position());
+	}
+	
+	// Recognises the compression from the first length bytes of a source
+	private static Compression compression(byte[] magic, int length){
+		if(ParallelGzipInputStream.isGzip(magic, length))
+			return Compression.GZIP;
+		if(length == 4 && magic[0] == 'P' && magic[1] == 'K' && magic[2] == 3 && magic[3] == 4)
+			return Compression.ZIP;
+		if(length >= 2 && (magic[0] & 0xff) == 0x78
+				&& ((magic[1] & 0xff) == 0x01 || (magic[1] & 0xff) == 0x9c || (magic[1] & 0xff) == 0xda))
+			return Compression.ZLIB;
+		return Compression.NONE;
+	}
+	
+	// The compressed formats that can be read
+	private enum Compression {
+		NONE,
+		GZIP,
+		ZLIB,
+		ZIP
+	}
+	
+	/*
+	 * A block of whole lines read by the I/O stage of the pipeline.
+	 */
+	private static final class Block {
+		private static final Block END = new Block(null, 0, 0, 0);
+		private final byte[] data;
+		private final int from, to; // The lines of the block
+		private final int line; // The number of the first line
+		
+		private Block(byte[] data, int from, int to, int line){
+			this.data = data;
+			this.from = from;
+			this.to = to;
+			this.line = line;
+		}
+	}
+	
+	// The markers sent through the queues of batches of the pipeline
+	private static final URLBatch BATCH_END = new URLBatch(null, -1, null, 0);
+	private static final URLBatch BATCH_FAILED = new URLBatch(null, -1, null, 0);
+	
+	/*
+	 * The first failure of a stage of the pipeline.
+	 */
+	private static final class Failure {
+		private final boolean io;
+		private final String message;
+		
+		private Failure(boolean io, String message){
+			this.io = io;
+			this.message = message;
+		}
+	}
+	
+	/*
+	 * The queues and the workers of the PIPELINE engine.
+	 * Each stage that ends forwards an end marker for each worker of the following stage, once all of its
+	 * own workers are done. A stage that fails sends a failure marker straight to the last queue: the
+	 * calling thread always drains it, and stops the other stages when it finds the marker.
+	 */
+	private class Pipeline {
+		private final ReadableByteChannel channel;
+		private final Charset charset;
+		private final boolean noExtension;
+		private final BlockingQueue<Block> blocks;
+		private final BlockingQueue<URLBatch> parsed;
+		private final BlockingQueue<URLBatch> normalised;
+		private final BlockingQueue<URLBatch> free; // The batches that can be reused by the parsers
+		private final AtomicInteger parsing, normalising; // Workers still running
+		private final int normalisers;
+		private final StageStats[] stats;
+		private int columns; // Set by the I/O stage before the first block is queued
+		private volatile Failure failure;
+		
+		private Pipeline(ReadableByteChannel channel, Charset charset, int parsers, int normalisers){
+			this.channel = channel;
+			this.charset = charset;
+			this.normalisers = normalisers;
+			noExtension = destination.removesExtension();
+			blocks = new ArrayBlockingQueue<Block>(parsers * 2);
+			parsed = new ArrayBlockingQueue<URLBatch>(normalisers * 2);
+			normalised = new ArrayBlockingQueue<URLBatch>(PIPELINE_QUEUE);
+			free = new ArrayBlockingQueue<URLBatch>(parsers + normalisers * 2 + PIPELINE_QUEUE);
+			parsing = new AtomicInteger(parsers);
+			normalising = new AtomicInteger(normalisers);
+			stats = new StageStats[] {
+					new StageStats("I/O", "bytes", 1, null),
+					new StageStats("Parser", "lines", parsers, blocks),
+					new StageStats("Normaliser", "lines", normalisers, parsed),
+					new StageStats("Aggregator", "lines", 1, normalised)};
+		}
+		
+		// Records the first failure and wakes up the calling thread
+		private void fail(Failure f) throws InterruptedException{
+			synchronized(this){
+				if(failure != null)
+					return;
+				failure = f;
+			}
+			normalised.put(BATCH_FAILED);
+		}
+		
+		/*
+		 * Reads blocks of whole lines: a block ends after the last line terminator it contains, the rest
+		 * is moved to the next block. A block grows if a single line doesn't fit into it.
+		 * The first line is checked here, since it defines the number of columns and it might be a header.
+		 */
+		private Runnable reader(){
+			return new Runnable(){
+				public void run(){
+					byte[] data = new byte[PIPELINE_BLOCK], rest;
+					ByteBuffer buffer;
+					int length = 0, cut, from, n, line = 0;
+					long busy = 0, start;
+					boolean eof = false, first = true;
+					try{
+						while(!eof){
+							start = System.nanoTime();
+							if(length == data.length)
+								data = Arrays.copyOf(data, data.length * 2); // A line longer than the block
+							n = channel.read(ByteBuffer.wrap(data, length, data.length - length));
+							if(n < 0)
+								eof = true;
+							else
+								length += n;
+							busy += System.nanoTime() - start;
+							if(!eof && length < data.length)
+								continue; // Fill the block first
+							start = System.nanoTime();
+							cut = eof ? length : lastLineEnd(data, length);
+							if(cut == 0)
+								continue;
+							buffer = ByteBuffer.wrap(data);
+							from = 0;
+							if(first){
+								from = firstLine(buffer, cut);
+								if(headers)
+									line = 1;
+								first = false;
+							}
+							rest = new byte[Math.max(PIPELINE_BLOCK, length - cut)];
+							System.arraycopy(data, cut, rest, 0, length - cut);
+							n = countLines(buffer, from, cut);
+							stats[0].processed(cut, busy + System.nanoTime() - start);
+							busy = 0;
+							start = System.nanoTime();
+							blocks.put(new Block(data, from, cut, line));
+							stats[0].blocked(System.nanoTime() - start);
+							line += n;
+							data = rest;
+							length -= cut;
+						}
+						for(int i = 0; i < stats[1].getWorkers(); i++)
+							blocks.put(Block.END);
+					} catch (IOException e) {
+						try{
+							fail(new Failure(true, e.getMessage()));
+						} catch (InterruptedException e1) {
+							// Stopped by the calling thread
+						}
+					} catch (InterruptedException e) {
+						// Stopped by the calling thread
+					} catch (Exception e) {
+						try{
+							fail(new Failure(false, e.getMessage()));
+						} catch (InterruptedException e1) {
+							// Stopped by the calling thread
+						}
 					}
-				} else if(input.length == c + 1){
-					// If this is the last character in the line and it is not a doublequote
-					// Then something is wrong with the file
-					throw new Exception ("Double quoted sequence not closed at the end of the line!");
-				} else {
-					// Otherwise just read the character and move on
-					tempCol.append(input[c]);
 				}
-			} else {
-				// If there is not an open double quote
-				if (input[c] == vSep){
-					// If the current char is a vSep
-					// Otherwise add tempCol to the output
-					output.add(tempCol.toString());
-					if(input.length == c + 1){
-						// If this was the last character in the line
-						// Add an empty string to the output
-						output.add("");
-					} else if (input[c + 1] == '"'){
-						// If the new column starts with a double quote
-						// Flag dQuote and jump one character farther
-						dQuote = true;
-						c++;
+			};
+		}
+		
+		/*
+		 * Skips the bom and counts the columns of the first line of the file, which starts the data.
+		 * Returns the index where the lines that must be parsed start: after the first line, if it's a header.
+		 */
+		private int firstLine(ByteBuffer data, int to) throws Exception{
+			int from = 0, end;
+			for(bom e : bom.values()){
+				if(startsWith(data, 0, to, e.bomBytes)){
+					from = e.bomBytes.length;
+					break;
+				}
+			}
+			end = ByteScanner.indexOfLineEnd(data, from, to);
+			columns = new CSVLineSplitter(vSep).split(data, from, end);
+			if(!headers)
+				return from;
+			if(end < to)
+				end += data.get(end) == '\r' && end + 1 < to && data.get(end + 1) == '\n' ? 2 : 1;
+			return end;
+		}
+		
+		/*
+		 * Splits the lines of each block, terminated by \n, \r\n or a single \r, into a batch.
+		 */
+		private Runnable parser(){
+			return new Runnable(){
+				public void run(){
+					CSVLineSplitter splitter = new CSVLineSplitter(vSep);
+					NumberParser numbers = newNumberParser();
+					Block block;
+					URLBatch batch;
+					ByteBuffer buffer;
+					int i, lineStart, lineEnd, k;
+					long start;
+					try{
+						while(true){
+							start = System.nanoTime();
+							block = blocks.take();
+							stats[1].starved(System.nanoTime() - start);
+							if(block == Block.END)
+								break;
+							start = System.nanoTime();
+							buffer = ByteBuffer.wrap(block.data);
+							batch = free.poll();
+							if(batch == null)
+								batch = newBatch(charset, BATCH);
+							i = block.from;
+							k = block.line;
+							while(i < block.to){
+								lineStart = i;
+								i = ByteScanner.indexOfLineEnd(buffer, i, block.to);
+								lineEnd = i;
+								if(i < block.to)
+									i += block.data[i] == '\r' && i + 1 < block.to && block.data[i + 1] == '\n' ? 2 : 1;
+								try{
+									long impressions = splitOrReject(splitter, numbers, buffer, lineStart, lineEnd, columns, charset, k);
+									if(impressions >= 0)
+										addRow(batch, splitter, buffer, charset, impressions);
+								} catch (Exception e) {
+									fail(new Failure(false, e.getMessage()));
+									return;
+								}
+								k++;
+							}
+							stats[1].processed(batch.size(), System.nanoTime() - start);
+							start = System.nanoTime();
+							parsed.put(batch);
+							stats[1].blocked(System.nanoTime() - start);
+						}
+						if(parsing.decrementAndGet() == 0){
+							for(int j = 0; j < normalisers; j++)
+								parsed.put(BATCH_END);
+						}
+					} catch (InterruptedException e) {
+						// Stopped by the calling thread
 					}
-					// Reset tempCol
-					tempCol.delete(0, tempCol.length());
-				} else {
-					// if it's a first character and a double quote
-					if (c == 0 && input[c] == '"') {
-						// flag dQuote
-						dQuote = true;
-					} else {
-						// In any other case, just read the character
-						tempCol.append(input[c]);
-						if(input.length == c + 1){
-							// If this was the last character in the line
-							// Add tempCol to the output
-							output.add(tempCol.toString());
+				}
+			};
+		}
+		
+		/*
+		 * Normalises each batch, so that the calling thread only has to insert it into the destination.
+		 */
+		private Runnable normaliser(){
+			return new Runnable(){
+				public void run(){
+					URLBatch batch;
+					long start;
+					try{
+						while(true){
+							start = System.nanoTime();
+							batch = parsed.take();
+							stats[2].starved(System.nanoTime() - start);
+							if(batch == BATCH_END)
+								break;
+							start = System.nanoTime();
+							batch.normalise(noExtension, bytePath, keyCache);
+							stats[2].processed(batch.size(), System.nanoTime() - start);
+							start = System.nanoTime();
+							normalised.put(batch);
+							stats[2].blocked(System.nanoTime() - start);
 						}
+						if(normalising.decrementAndGet() == 0)
+							normalised.put(BATCH_END);
+					} catch (InterruptedException e) {
+						// Stopped by the calling thread
 					}
 				}
+			};
+		}
+	}
+	
+	/*
+	 * Returns the length of the data up to the end of its last line terminator, 0 if there is none.
+	 * A \r in the last byte doesn't count: it could be followed by a \n that hasn't been read yet.
+	 */
+	private static int lastLineEnd(byte[] data, int length){
+		for(int i = length - 1; i >= 0; i--){
+			if(data[i] == '\n' || (data[i] == '\r' && i < length - 1))
+				return i + 1;
+		}
+		return 0;
+	}
+	
+	/*
+	 * Counts the line terminators between from and to, with \r\n counted once.
+	 */
+	private static int countLines(ByteBuffer data, int from, int to){
+		int count = 0;
+		for(int i = ByteScanner.indexOfLineEnd(data, from, to); i < to; i = ByteScanner.indexOfLineEnd(data, i, to)){
+			count++;
+			i += data.get(i) == '\r' && i + 1 < to && data.get(i + 1) == '\n' ? 2 : 1;
+		}
+		return count;
+	}
+	
+	/*
+	 * Parses a chunk of lines of the file into a normalised batch.
+	 * If a line can't be parsed, the chunk stops and records the position of that line.
+	 */
+	private class ChunkTask extends RecursiveAction {
+		private static final long serialVersionUID = 2319645830213946401L;
+		private final FileChannel channel;
+		private final long from, to;
+		private final int columns;
+		private final Charset charset;
+		private final URLBatch batch;
+		private final boolean direct; // True if the rows are added to the destination by the task
+		private int lines; // Lines parsed successfully or quarantined
+		private final ArrayList<long[]> rejectedLines; // Number within the chunk, offset and length of each line to quarantine
+		private boolean failed, failedIO;
+		private long failedFrom, failedLength;
+		private String message;
+		
+		private ChunkTask(FileChannel channel, long from, long to, int columns, Charset charset){
+			this.channel = channel;
+			this.from = from;
+			this.to = to;
+			this.columns = columns;
+			this.charset = charset;
+			this.batch = newBatch(charset, BATCH);
+			this.rejectedLines = new ArrayList<long[]>();
+			direct = destination.getStorage() == URLList.Storage.CONCURRENT;
+			lines = 0;
+			failed = false;
+			failedIO = false;
+		}
+		
+		@Override
+		protected void compute(){
+			CSVLineSplitter splitter = new CSVLineSplitter(vSep);
+			NumberParser numbers = newNumberParser();
+			MappedLineReader reader;
+			try{
+				reader = new MappedLineReader(channel, from, to);
+				while(!cancelled && reader.nextLine()){
+					try{
+						long impressions = splitLine(splitter, numbers, reader.buffer(), reader.lineStart(), reader.lineEnd(), columns, charset, lines);
+						addRow(batch, splitter, reader.buffer(), charset, impressions);
+					} catch (Exception e) {
+						if(quarantineWriter != null){
+							rejectedLines.add(new long[]{lines, reader.lineOffset(), reader.lineEnd() - reader.lineStart()});
+						} else {
+							failed = true;
+							failedFrom = reader.lineOffset();
+							failedLength = reader.lineEnd() - reader.lineStart();
+							message = e.getMessage();
+							return;
+						}
+					}
+					lines++;
+					if(direct && batch.size() == BATCH)
+						flush(batch, null);
+				}
+				if(direct)
+					flush(batch, null);
+				else
+					batch.normalise(destination.removesExtension(), bytePath, keyCache);
+			} catch (IOException e) {
+				failed = true;
+				failedIO = true;
+				message = e.getMessage();
 			}
 		}
-		return output.toArray(new String[0]);
+	}
+	
+	/*
+	 * Splits a line of bytes and parses its impressions: the bounds of the url are left in the splitter.
+	 * The line number is only used to report errors.
+	 */
+	private long splitLine(CSVLineSplitter splitter, NumberParser numbers, ByteBuffer buffer, int from, int to, int columns, Charset charset, int k) throws Exception{
+		long impressions;
+		try{
+			splitter.split(buffer, from, to);
+		} catch (Exception e) {
+			throw new Exception("Consistency error within the file " + source + " at line " + k + ": " + e.getMessage());
+		}
+		if(splitter.getCount() != columns)
+			throw new Exception ("Wrong number of columns at line " + k);
+		impressions = splitter.isEscaped(impI) ? numbers.parse(splitter.column(buffer, impI, charset))
+				: numbers.parse(buffer, splitter.start(impI), splitter.end(impI), charset);
+		return checkImpressions(impressions, numbers, k);
+	}
+	
+	/*
+	 * Adds the url of the last line split to a batch, as bytes unless it must be decoded to resolve its
+	 * escaped double quotes.
+	 */
+	private void addRow(URLBatch batch, CSVLineSplitter splitter, ByteBuffer buffer, Charset charset, long impressions){
+		if(splitter.isEscaped(urlI))
+			batch.add(splitter.column(buffer, urlI, charset), impressions);
+		else
+			batch.add(buffer, splitter.start(urlI), splitter.end(urlI), impressions);
+	}
+	
+	/*
+	 * Normalises a batch and adds it to the destination (and to the checkpoint log, if any), then empties it.
+	 */
+	private void flush(URLBatch batch, CheckpointLog log) throws IOException{
+		if(batch.size() == 0)
+			return;
+		batch.normalise(destination.removesExtension(), bytePath, keyCache);
+		destination.addAll(batch);
+		if(log != null){
+			for(int i = 0; i < batch.size(); i++)
+				log.add(batch.getElement(i)); // Never a byte key with checkpoints
+		}
+		batch.clear();
+	}
+	
+	private URLBatch newBatch(Charset charset, int capacity){
+		return new URLBatch(format, position, charset, capacity);
+	}
+	
+	/*
+	 * Returns the impressions, unless they could not be parsed.
+	 * The line number is only used to report errors.
+	 */
+	private static long checkImpressions(long impressions, NumberParser numbers, int k) throws Exception{
+		if(impressions < 0)
+			throw new Exception("Error parsing the impressions at line " + k + ": " + numbers.getError());
+		return impressions;
+	}
+	
+	// Each thread that parses the file needs its own NumberParser
+	private NumberParser newNumberParser(){
+		return new NumberParser(isTSep ? tSep : 0, dSep);
 	}
 	
 	/**
@@ -400,6 +1767,13 @@ public class CSVReader {
 		private final File source;
 		private int position;
 		private URLList destination;
+		private Engine engine;
+		private int parallelism;
+		private String entries;
+		private long checkpoint;
+		private double quarantine;
+		private boolean byteKeys;
+		private KeyCache keyCache;
 		
 		public CSVReaderBuilder (File source) {
 			this.source = source;
@@ -413,6 +1787,13 @@ public class CSVReader {
 			this.format = null; // default
 			this.destination = null; // default
 			this.position = -1;
+			this.engine = Engine.SCANNER; // default
+			this.parallelism = Runtime.getRuntime().availableProcessors(); // default
+			this.entries = null; // default: all the entries
+			this.checkpoint = 0; // default: no checkpoints
+			this.quarantine = -1; // default: no quarantine
+			this.byteKeys = false; // default: the urls are read as Strings
+			this.keyCache = null; // default: no cache
 		}
 		
 		public CSVReaderBuilder headers(boolean headers) {
@@ -465,6 +1846,71 @@ public class CSVReader {
 			return this;
 		}
 		
+		public CSVReaderBuilder engine(Engine engine) {
+			this.engine = engine;
+			return this;
+		}
+		
+		public CSVReaderBuilder parallelism(int parallelism) {
+			this.parallelism = parallelism;
+			return this;
+		}
+		
+		/**
+		 * Sets the entries that are read when the source is a zip archive.
+		 * 
+		 * @param entries a glob pattern for the names of the entries (e.g. "*.csv"), null for all of them
+		 * @return the builder
+		 */
+		public CSVReaderBuilder entries(String entries) {
+			this.entries = entries;
+			return this;
+		}
+		
+		/**
+		 * Checkpoints the reading of a plain file, see CSVReader.setCheckpoint(long).
+		 * 
+		 * @param checkpoint the number of rows between two checkpoints, 0 for no checkpoints
+		 * @return the builder
+		 */
+		public CSVReaderBuilder checkpoint(long checkpoint) {
+			this.checkpoint = checkpoint;
+			return this;
+		}
+		
+		/**
+		 * Quarantines the rows that can't be read, see CSVReader.setQuarantine(double).
+		 * 
+		 * @param maxErrorRate the largest fraction of the rows that can be rejected, -1 for no quarantine
+		 * @return the builder
+		 */
+		public CSVReaderBuilder quarantine(double maxErrorRate) {
+			this.quarantine = maxErrorRate;
+			return this;
+		}
+		
+		/**
+		 * Normalises the urls to bytes, see CSVReader.setByteKeys(boolean).
+		 * 
+		 * @param byteKeys true to normalise the urls to bytes
+		 * @return the builder
+		 */
+		public CSVReaderBuilder byteKeys(boolean byteKeys) {
+			this.byteKeys = byteKeys;
+			return this;
+		}
+		
+		/**
+		 * Shares a cache of the normalised urls, see CSVReader.setKeyCache(KeyCache).
+		 * 
+		 * @param keyCache the cache, null for none
+		 * @return the builder
+		 */
+		public CSVReaderBuilder keyCache(KeyCache keyCache) {
+			this.keyCache = keyCache;
+			return this;
+		}
+		
 		public CSVReader build() {
 			return new CSVReader(this);
 		}
@@ -11,17 +11,21 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
-//import java.util.ArrayList;
+import java.util.ArrayList;
 //import java.util.Arrays;
 //import java.util.Comparator;
+import java.util.List;
 import java.util.Scanner;
 
 //import org.omg.CosNaming.IstringHelper;
 
 import java.util.GregorianCalendar;
 
+import urllistcompare.exceptions.InvalidURLListException;
+
 //import urllistcompare.unittests.URLFormatTest;
 //import urllistcompare.util.ArraySort;
+import urllistcompare.util.FileGlob;
 
 /**
  * This class provides a command line interface that allows users to compare two
@@ -63,6 +67,12 @@ public class CheckBasicDifferences {
 
 	// Flags from the command line interface
 	private static boolean noExtension = false;
+	private static URLList.Storage storage = URLList.Storage.HASHMAP;
+	private static long checkpoint = 0; // Rows between two checkpoints, 0 for none
+	private static double quarantine = -1; // Largest fraction of rows that can be rejected, -1 for no quarantine
+	private static boolean byteKeys = false; // Normalise the urls from the bytes of the files
+	private static KeyCache keyCache = null; // Normalised urls shared by all the files, null for none
+	private static boolean intern = false; // Share a single instance of each normalised url
 	@SuppressWarnings("unused")
 	private static boolean useGui = false;
 	@SuppressWarnings("unused")
@@ -83,7 +93,14 @@ public class CheckBasicDifferences {
 			"\twith the lists of URLs that need to be compared.", "",
 			"CheckBasicDifferences -f textFile1 -f textFile2",
 			"CheckBasicDifferences --file textFile1 --file textFile2",
-			"\tThe lists of URLs in the two text files will be compared.", "",
+			"\tThe lists of URLs in the two text files will be compared.",
+			"\tEach file can also be a comma separated list of files or a",
+			"\tpattern like \"exports/2024-05-*.csv\": all of its files are",
+			"\tread with the same settings. A zip archive is read entry",
+			"\tby entry, each entry in parallel with the others.",
+			"\tA file named - is read from the standard input (e.g.",
+			"\tzcat export.gz | CheckBasicDifferences -f - -f textFile2).",
+			"",
 			"CheckBasicDifferences -b [binary file name]",
 			"CheckBasicDifferences --binary [binary file name]",
 			"\tThe program will load the .ulst binary file provided by",
@@ -99,6 +116,22 @@ public class CheckBasicDifferences {
 			"\t --binOutput [binary output file name]",
 			"\t--noExtension to remove the extension for a harder normalisation",
 			"\t-e to remove the extension for a harder normalisation",
+			"\t--compact to store the urls in less memory (slower)",
+			"\t-c to store the urls in less memory (slower)",
+			"\t--offHeap to store the urls outside of the Java heap",
+			"\t--checkpoint [rows] to save the progress of each file every",
+			"\t  [rows] rows: a reading that stops resumes from there",
+			"\t  (each file is copied row by row to a .checkpoint file)",
+			"\t--quarantine [rate] to write the rows that can't be read to",
+			"\t  a .rejected file next to each file and go on, unless",
+			"\t  more than [rate] of the rows are rejected (e.g. 0.01)",
+			"\t--aggregate to only store the totals of each url (least memory)",
+			"\t-a to only store the totals of each url (least memory)",
+			"\t--byteKeys with --aggregate, to normalise the urls straight",
+			"\t  from the bytes of the files (less garbage, same results)",
+			"\t--cache [urls] to remember the last [urls] normalised urls",
+			"\t  of each format across all the files (e.g. 1000000)",
+			"\t--intern to keep a single copy of each normalised url in memory",
 			"\t--gui to use a gui when prompted for the settings",
 			"\t-g to use a gui when prompted for the settings", "",
 			"Report bugs through: <https://github.com/roccobarbi/urllistcompare/issues>",
@@ -157,7 +190,7 @@ public class CheckBasicDifferences {
 	private static void
 		saveResults() {
 		PrintWriter outputStream = null;
-		int [] impressions = null;
+		long [] impressions = null;
 		GregorianCalendar currentTime = new GregorianCalendar();
 		String fileName = outputFileName == null
 				? ("CheckMissing-" + currentTime.getTimeInMillis() + ".txt")
@@ -294,7 +327,8 @@ public class CheckBasicDifferences {
 		 * If found outside this inner loop, they are simply ignored.
 		 * 
 		 * Type C arguments include the following: -h --help --version -e
-		 * --noExtension -g --gui --silent -v --verbose
+		 * --noExtension -c --compact -a
+		 * --aggregate --byteKeys --intern --offHeap -g --gui --silent -v --verbose
 		 * 
 		 * They can be preceded by any parameter type, they can be followed by
 		 * type A, C or D parameters.
@@ -402,6 +436,49 @@ public class CheckBasicDifferences {
 						case "noExtension":
 							noExtension = true;
 							break;
+						case "compact":
+							storage = URLList.Storage.COMPACT;
+							break;
+						case "offHeap":
+							storage = URLList.Storage.OFFHEAP;
+							break;
+						case "checkpoint":
+							if (args.length < i + 2)
+								throw new Exception(
+										"Number of rows not specified after option --checkpoint!");
+							checkpoint = Long.parseLong(args[++i].trim());
+							if (checkpoint < 1)
+								throw new Exception(
+										"The number of rows after option --checkpoint must be positive!");
+							break;
+						case "quarantine":
+							if (args.length < i + 2)
+								throw new Exception(
+										"Error rate not specified after option --quarantine!");
+							quarantine = Double.parseDouble(args[++i].trim());
+							if (quarantine < 0 || quarantine > 1)
+								throw new Exception(
+										"The error rate after option --quarantine must be between 0 and 1!");
+							break;
+						case "aggregate":
+							storage = URLList.Storage.AGGREGATE;
+							break;
+						case "byteKeys":
+							byteKeys = true;
+							break;
+						case "intern":
+							intern = true;
+							break;
+						case "cache":
+							if (args.length < i + 2)
+								throw new Exception(
+										"Number of urls not specified after option --cache!");
+							int capacity = Integer.parseInt(args[++i].trim());
+							if (capacity < 1)
+								throw new Exception(
+										"The number of urls after option --cache must be positive!");
+							keyCache = new KeyCache(capacity);
+							break;
 						case "verbose":
 							verbose = true;
 							break;
@@ -412,7 +489,8 @@ public class CheckBasicDifferences {
 							if (args.length < i + 2)
 								throw new Exception(
 										"Input file name not specified after option -f!");
-							if (args[i + 1].startsWith("-"))
+							if (args[i + 1].startsWith("-")
+									&& !args[i + 1].equals(CSVReader.STDIN))
 								throw new Exception(
 										"Input file name not specified after option -f!");
 							++currentFile; // Step to the next file (default was
@@ -450,7 +528,8 @@ public class CheckBasicDifferences {
 							if (args.length < i + 2)
 								throw new Exception(
 										"Input file name not specified after option --file!");
-							if (args[i + 1].startsWith("-"))
+							if (args[i + 1].startsWith("-")
+									&& !args[i + 1].equals(CSVReader.STDIN))
 								throw new Exception(
 										"Input file name not specified after option --file!");
 							++currentFile; // Step to the next file (default was
@@ -492,6 +571,12 @@ public class CheckBasicDifferences {
 								case 'e':
 									noExtension = true;
 									break;
+								case 'c':
+									storage = URLList.Storage.COMPACT;
+									break;
+								case 'a':
+									storage = URLList.Storage.AGGREGATE;
+									break;
 								case 'v':
 									verbose = true;
 									break;
@@ -674,10 +759,16 @@ public class CheckBasicDifferences {
 					fileNames[i] = list.getFormat(i).name() + ": "
 							+ list.getFormat(i).getFormatSample();
 				}
-				if (noExtension) {
-					list = list.remExtension();
-				} else {
-					list = list.addExtension();
+				try {
+					if (noExtension) {
+						list = list.remExtension();
+					} else {
+						list = list.addExtension();
+					}
+				} catch (InvalidURLListException e) {
+					System.out.println("ERROR!");
+					System.out.println(e.getMessage());
+					System.exit(1);
 				}
 				checkDifferences();
 				save();
@@ -691,26 +782,50 @@ public class CheckBasicDifferences {
 
 			public void
 				execute() {
+				@SuppressWarnings({ "unchecked", "rawtypes" })
+				List<File>[] files = new List[CARDINALITY]; // All the files
+															// of each position
+				// The standard input can be read by a single position, and
+				// the prompts must move to the terminal
+				int streams = 0;
+				for (int i = 0; i < CARDINALITY && i < fileNames.length; i++) {
+					if (CSVReader.STDIN.equals(fileNames[i]))
+						streams++;
+				}
+				if (streams > 1) {
+					System.out.println(
+							"Only one file can be read from the standard input.");
+					System.exit(1);
+				}
+				if (streams == 1 && !ReadManager.promptFromTerminal()) {
+					System.out.println(
+							"There is no terminal to answer the questions while reading from the standard input.");
+					System.exit(1);
+				}
 				// Check the arguments and create the readers
 				for (int i = 0; i < CARDINALITY; i++) { // Prepped for future
 														// needs if I ever want
 														// to compare more than
 														// 2 lists at once
+					files[i] = new ArrayList<File>();
 					if (fileNames.length > i && fileNames[i] != null) {
-						theFile[i] = new File(fileNames[i]);
-						if (!theFile[i].exists() || !theFile[i].canRead()) {
+						// A file, a list of files or a pattern
+						files[i] = FileGlob.expand(fileNames[i]);
+						if (files[i].isEmpty()) {
 							System.out.println("File: " + fileNames[i]
 									+ " doesn't exist or can't be read.");
 							reader[i] = ReadManager.userInput();
 						} else {
+							theFile[i] = files[i].get(0);
 							if (vSep[i] != 0 || tSep[i] != 0 || dSep[i] != 0
 									|| headerSet[i]) {
-								reader[i] = ReadManager.userInput(fileNames[i],
-										vSep[i], dSep[i],
+								reader[i] = ReadManager.userInput(
+										theFile[i].getPath(), vSep[i], dSep[i],
 										tSep[i] != 0 ? true : false, tSep[i],
 										headerSet[i], header[i]);
 							} else {
-								reader[i] = ReadManager.userInput(fileNames[i]);
+								reader[i] = ReadManager
+										.userInput(theFile[i].getPath());
 							}
 						}
 					} else {
@@ -718,22 +833,50 @@ public class CheckBasicDifferences {
 																// specified for
 																// this position
 					}
-					fileNames[i] = reader[i].getName(); // Assign the source
-														// names for future use
+					// Assign the source names for future use
+					fileNames[i] = files[i].size() > 1
+							? fileNames[i] + " (" + files[i].size() + " files)"
+							: reader[i].getName();
 				}
-				// Read the files
+				// Read the files, all at the same time: the other files of
+				// each position share the settings of the first one
 				list = new URLList(reader[0].getFormat(), reader[1].getFormat(),
-						noExtension);
+						noExtension, storage, intern);
+				ArrayList<CSVReader> sources = new ArrayList<CSVReader>();
 				for (int i = 0; i < CARDINALITY; i++) {
 					reader[i].setDestination(list);
 					reader[i].setPosition(i);
-					if (!reader[i].read()) {
+					reader[i].setCheckpoint(checkpoint);
+					reader[i].setQuarantine(quarantine);
+					reader[i].setKeyCache(keyCache);
+					if (byteKeys) {
+						// The urls are only read as bytes by the byte engines
+						reader[i].setEngine(CSVReader.Engine.MAPPED);
+						reader[i].setByteKeys(true);
+					}
+					sources.add(reader[i]);
+					for (int j = 1; j < files[i].size(); j++) {
+						sources.add(reader[i].withSource(files[i].get(j)));
+					}
+				}
+				String[] errors = ReadManager
+						.readAll(sources.toArray(new CSVReader[sources.size()]));
+				boolean failed = false;
+				for (int i = 0; i < errors.length; i++) {
+					if (errors[i] != null) {
 						System.out.println("Errore nella lettura del file "
-								+ reader[i].getName() + "!");
-						System.out.println("Aborting execution");
-						System.exit(1);
+								+ sources.get(i).getName() + ": " + errors[i]);
+						failed = true;
 					}
 				}
+				if (failed) {
+					System.out.println("Aborting execution");
+					System.exit(1);
+				}
+				if (keyCache != null)
+					System.out.println("Normalisation cache: " + keyCache);
+				if (list.getInternPool() != null)
+					System.out.println("Interned urls: " + list.getInternPool());
 				checkDifferences();
 				save();
 			}
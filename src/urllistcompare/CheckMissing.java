@@ -14,6 +14,7 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Scanner;
 
 //import org.omg.CosNaming.IstringHelper;
@@ -22,6 +23,7 @@ import java.util.GregorianCalendar;
 
 //import urllistcompare.unittests.URLFormatTest;
 //import urllistcompare.util.ArraySort;
+import urllistcompare.util.FileGlob;
 
 /** 
  * This class provides a command line interface that allows users to compare two lists of URLs and check if
@@ -57,6 +59,9 @@ public class CheckMissing {
 	
 	// Flags from the command line interface
 	private static boolean noExtension = false;
+	private static URLList.Storage storage = URLList.Storage.HASHMAP;
+	private static long checkpoint = 0; // Rows between two checkpoints, 0 for none
+	private static double quarantine = -1; // Largest fraction of rows that can be rejected, -1 for no quarantine
 	@SuppressWarnings("unused")
 	private static boolean useGui = false;
 	@SuppressWarnings("unused")
@@ -84,6 +89,12 @@ public class CheckMissing {
 			"CheckMissing -f textFile1 -f textFile2",
 			"CheckMissing --file textFile1 --file textFile2",
 			"\tThe lists of URLs in the two text files will be compared.",
+			"\tEach file can also be a comma separated list of files or a",
+			"\tpattern like \"exports/2024-05-*.csv\": all of its files are",
+			"\tread with the same settings. A zip archive is read entry",
+			"\tby entry, each entry in parallel with the others.",
+			"\tA file named - is read from the standard input (e.g.",
+			"\tzcat export.gz | CheckMissing -f - -f textFile2).",
 			"",
 			"CheckMissing -b [binary file name]",
 			"CheckMissing --binary [binary file name]",
@@ -107,6 +118,15 @@ public class CheckMissing {
 			"\t --binOutput [binary output file name]",
 			"\t--noExtension to remove the extension for a harder normalisation",
 			"\t-e to remove the extension for a harder normalisation",
+			"\t--compact to store the urls in less memory (slower)",
+			"\t-c to store the urls in less memory (slower)",
+			"\t--offHeap to store the urls outside of the Java heap",
+			"\t--checkpoint [rows] to save the progress of each file every",
+			"\t  [rows] rows: a reading that stops resumes from there",
+			"\t  (each file is copied row by row to a .checkpoint file)",
+			"\t--quarantine [rate] to write the rows that can't be read to",
+			"\t  a .rejected file next to each file and go on, unless",
+			"\t  more than [rate] of the rows are rejected (e.g. 0.01)",
 			"\t--gui to use a gui when prompted for the settings",
 			"\t-g to use a gui when prompted for the settings",
 			"",
@@ -277,6 +297,9 @@ public class CheckMissing {
 		 * --version
 		 * -e
 		 * --noExtension
+		 * -c
+		 * --compact
+		 * --offHeap
 		 * -g
 		 * --gui
 		 * --silent
@@ -290,6 +313,8 @@ public class CheckMissing {
 		 * --output [fileName]
 		 * --binOutput [fileName]
 		 * --oSep [separator]
+		 * --checkpoint [rows]
+		 * --quarantine [rate]
 		 * 
 		 * They can be preceded by any parameter type, they can be followed by type A, C or D parameters.
 		 * 
@@ -357,6 +382,22 @@ public class CheckMissing {
 						case "noExtension":
 							noExtension = true;
 							break;
+						case "compact":
+							storage = URLList.Storage.COMPACT;
+							break;
+						case "offHeap":
+							storage = URLList.Storage.OFFHEAP;
+							break;
+						case "checkpoint":
+							if(args.length < i + 2) throw new Exception("Number of rows not specified after option --checkpoint!");
+							checkpoint = Long.parseLong(args[++i].trim());
+							if(checkpoint < 1) throw new Exception("The number of rows after option --checkpoint must be positive!");
+							break;
+						case "quarantine":
+							if(args.length < i + 2) throw new Exception("Error rate not specified after option --quarantine!");
+							quarantine = Double.parseDouble(args[++i].trim());
+							if(quarantine < 0 || quarantine > 1) throw new Exception("The error rate after option --quarantine must be between 0 and 1!");
+							break;
 						case "verbose":
 							verbose = true;
 							break;
@@ -365,7 +406,7 @@ public class CheckMissing {
 							break;
 						case "file":
 							if(args.length < i + 2) throw new Exception("Input file name not specified after option -f!");
-							if(args[i + 1].startsWith("-")) throw new Exception("Input file name not specified after option -f!");
+							if(args[i + 1].startsWith("-") && !args[i + 1].equals(CSVReader.STDIN)) throw new Exception("Input file name not specified after option -f!");
 							++currentFile; // Step to the next file (default was -1, so the first file will be 0).
 							if(currentFile > CARDINALITY) throw new Exception("Too many input files!");
 							fileNames[currentFile] = args[++i].trim(); // ...and here it is!
@@ -388,7 +429,7 @@ public class CheckMissing {
 							break;
 						case "f":
 							if(args.length < i + 2) throw new Exception("Input file name not specified after option --file!");
-							if(args[i + 1].startsWith("-")) throw new Exception("Input file name not specified after option --file!");
+							if(args[i + 1].startsWith("-") && !args[i + 1].equals(CSVReader.STDIN)) throw new Exception("Input file name not specified after option --file!");
 							++currentFile; // Step to the next file (default was -1, so the first file will be 0).
 							if(currentFile > CARDINALITY) throw new Exception("Too many input files!");
 							fileNames[currentFile] = args[++i].trim(); // ...and here it is!
@@ -412,6 +453,9 @@ public class CheckMissing {
 								case 'e':
 									noExtension = true;
 									break;
+								case 'c':
+									storage = URLList.Storage.COMPACT;
+									break;
 								case 'v':
 									verbose = true;
 									break;
@@ -565,37 +609,70 @@ public class CheckMissing {
 				fileNames = names;
 			}
 			public void execute(){
+				@SuppressWarnings({"unchecked", "rawtypes"})
+				List<File>[] files = new List[CARDINALITY]; // All the files of each position
+				// The standard input can be read by a single position, and the prompts must move to the terminal
+				int streams = 0;
+				for(int i = 0; i < CARDINALITY && i < fileNames.length; i++){
+					if(CSVReader.STDIN.equals(fileNames[i]))
+						streams++;
+				}
+				if(streams > 1){
+					System.out.println("Only one file can be read from the standard input.");
+					System.exit(1);
+				}
+				if(streams == 1 && !ReadManager.promptFromTerminal()){
+					System.out.println("There is no terminal to answer the questions while reading from the standard input.");
+					System.exit(1);
+				}
 				// Check the arguments and create the readers
 				for(int i = 0; i < CARDINALITY; i++){ // Prepped for future needs if I ever want to compare more than 2 lists at once
+					files[i] = new ArrayList<File>();
 					if(fileNames.length > i && fileNames[i] != null){
-						theFile[i] = new File(fileNames[i]);
-						if(!theFile[i].exists() || !theFile[i].canRead()){
+						files[i] = FileGlob.expand(fileNames[i]); // A file, a list of files or a pattern
+						if(files[i].isEmpty()){
 							System.out.println("File: " + fileNames[i] + " doesn't exist or can't be read.");
 							reader[i] = ReadManager.userInput();
 						} else {
+							theFile[i] = files[i].get(0);
 							if(vSep[i] != 0  || tSep[i] != 0 || dSep[i] != 0 || headerSet[i]){
-								reader[i] = ReadManager.userInput(fileNames[i], vSep[i], dSep[i], tSep[i] != 0 ? true : false, tSep[i], headerSet[i], header[i]);
+								reader[i] = ReadManager.userInput(theFile[i].getPath(), vSep[i], dSep[i], tSep[i] != 0 ? true : false, tSep[i], headerSet[i], header[i]);
 							} else{
-								reader[i] = ReadManager.userInput(fileNames[i]);
+								reader[i] = ReadManager.userInput(theFile[i].getPath());
 							}
 						}
 					}
 					else{
 						reader[i] = ReadManager.userInput(); // No file was specified for this position
 					}
-					fileNames[i] = reader[i].getName(); // Assign the source names for future use
+					// Assign the source names for future use
+					fileNames[i] = files[i].size() > 1 ? fileNames[i] + " (" + files[i].size() + " files)" : reader[i].getName();
 				}
-				// Read the files
-				list = new URLList(reader[0].getFormat(), reader[1].getFormat(), noExtension);
+				// Read the files, all at the same time: the other files of each position share the settings of the first one
+				list = new URLList(reader[0].getFormat(), reader[1].getFormat(), noExtension, storage);
+				ArrayList<CSVReader> sources = new ArrayList<CSVReader>();
 				for(int i = 0; i < CARDINALITY; i++){
 					reader[i].setPosition(i);
 					reader[i].setDestination(list);
-					if(!reader[i].read()) {
-						System.out.println("Errore nella lettura del file " + reader[i].getName() + "!");
-						System.out.println("Aborting execution");
-						System.exit(1);
+					reader[i].setCheckpoint(checkpoint);
+					reader[i].setQuarantine(quarantine);
+					sources.add(reader[i]);
+					for(int j = 1; j < files[i].size(); j++){
+						sources.add(reader[i].withSource(files[i].get(j)));
 					}
 				}
+				String[] errors = ReadManager.readAll(sources.toArray(new CSVReader[sources.size()]));
+				boolean failed = false;
+				for(int i = 0; i < errors.length; i++){
+					if(errors[i] != null) {
+						System.out.println("Errore nella lettura del file " + sources.get(i).getName() + ": " + errors[i]);
+						failed = true;
+					}
+				}
+				if(failed) {
+					System.out.println("Aborting execution");
+					System.exit(1);
+				}
 				checkMissing();
 				save();
 			}
@@ -0,0 +1,277 @@
+/**
+ *
+ */
+package urllistcompare;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ * The checkpoints of a CSVReader, kept in a file next to its source (the name of the source followed by SUFFIX), so
+ * that a reading that fails or is interrupted can start again from the last checkpoint instead of from the start.
+ *
+ * The file is a log that is only appended to: a header that identifies the source and the settings of the reader,
+ * then the elements read from the source, followed every so often by a checkpoint with the offset of the next line,
+ * its number and a CRC of the bytes right before the offset. When the log is loaded, everything after the last
+ * complete checkpoint (e.g. because the process was killed while writing) is dropped.
+ *
+ * Writing a checkpoint only costs the elements read since the previous one and a flush to the disk, whatever the
+ * number of elements that were read before. The source can be changed after the offset of the last checkpoint
+ * (e.g. to fix the row that stopped the reading), but not before it.
+ *
+ */
+final class CheckpointLog implements Closeable {
+
+	/**
+	 * Appended to the name of the source to get the name of its log.
+	 */
+	static final String SUFFIX = ".checkpoint";
+	private static final int MAGIC = 0x554c434b; // ULCK
+	private static final int VERSION = 1;
+	private static final byte ELEMENT = 'E';
+	private static final byte CHECKPOINT = 'C';
+	private static final int TAIL = 4096; // The bytes of the source before the offset that are checked
+	private static final int BATCH = 4096; // The elements added to the destination at a time
+
+	private final File file;
+	private final String settings;
+	private DataOutputStream out;
+	private FileOutputStream stream;
+	// The last valid checkpoint in the file
+	private long length; // The length of the file up to the checkpoint, 0 if there is none
+	private long offset;
+	private int line;
+	private int columns;
+
+	/**
+	 *
+	 * @param source the file read by the CSVReader
+	 * @param settings a description of the settings of the CSVReader: the log is only valid with the same settings
+	 */
+	CheckpointLog(File source, String settings){
+		file = new File(source.getPath() + SUFFIX);
+		this.settings = settings;
+		out = null;
+		length = 0;
+		offset = 0;
+		line = 0;
+		columns = 0;
+	}
+
+	/**
+	 * Loads the log, if there is one that matches the source and the settings, and adds the elements read before its
+	 * last checkpoint to the destination.
+	 *
+	 * @param source the source, to check that it didn't change before the checkpoint
+	 * @param format the format of the elements
+	 * @param destination the destination URLList
+	 * @param position the position at the destination
+	 * @return true if the reading can resume from getOffset(), false if it must start from the start
+	 * @throws IOException if the log can't be read
+	 */
+	boolean resume(FileChannel source, URLFormat format, URLList destination, int position) throws IOException{
+		if(!file.isFile())
+			return false;
+		// First find the last complete checkpoint, then add the elements that come before it
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		byte[] header = settings.getBytes(StandardCharsets.UTF_8);
+		byte[] url = new byte[256];
+		long read, crc = 0;
+		try{
+			if(in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != header.length)
+				return false;
+			byte[] found = new byte[header.length];
+			in.readFully(found);
+			if(!Arrays.equals(found, header))
+				return false;
+			read = 12 + header.length;
+			while(true){
+				byte type = in.readByte();
+				if(type == ELEMENT){
+					int n = in.readInt();
+					if(n > url.length)
+						url = new byte[Math.max(n, url.length * 2)];
+					in.readFully(url, 0, n);
+					in.readLong();
+					read += 13 + n;
+				} else if(type == CHECKPOINT){
+					offset = in.readLong();
+					line = in.readInt();
+					columns = in.readInt();
+					crc = in.readLong();
+					read += 25;
+					length = read;
+				} else {
+					break; // A partial record
+				}
+			}
+		} catch (EOFException e) {
+			// The end of the log, or of a partial record
+		} finally {
+			in.close();
+		}
+		if(length == 0 || offset > source.size() || crc != tailCrc(source, offset)){
+			length = 0; // Nothing that can be used
+			return false;
+		}
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		URLBatch batch = new URLBatch(format, position, StandardCharsets.UTF_8, BATCH);
+		try{
+			in.readFully(new byte[12 + header.length]);
+			while(true){
+				byte type = in.readByte();
+				if(type == CHECKPOINT){
+					long at = in.readLong();
+					in.readInt();
+					in.readInt();
+					in.readLong();
+					if(at == offset)
+						break;
+				} else {
+					int n = in.readInt();
+					if(n > url.length)
+						url = new byte[Math.max(n, url.length * 2)];
+					in.readFully(url, 0, n);
+					batch.add(ByteBuffer.wrap(url), 0, n, in.readLong());
+					if(batch.size() == BATCH){
+						destination.addAll(batch);
+						batch.clear();
+					}
+				}
+			}
+			destination.addAll(batch);
+		} finally {
+			in.close();
+		}
+		return true;
+	}
+
+	/**
+	 * Opens the log for writing: after resume(), the elements are appended after the last checkpoint, otherwise
+	 * the log starts again from the header.
+	 *
+	 * @throws IOException if the log can't be written
+	 */
+	void open() throws IOException{
+		if(length > 0){
+			RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+			try{
+				truncate.setLength(length);
+			} finally {
+				truncate.close();
+			}
+			stream = new FileOutputStream(file, true);
+			out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+		} else {
+			stream = new FileOutputStream(file);
+			out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+			byte[] header = settings.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(header.length);
+			out.write(header);
+		}
+	}
+
+	/**
+	 *
+	 * @param element an element that was added to the destination since the last checkpoint
+	 * @throws IOException if the log can't be written
+	 */
+	void add(URLElement element) throws IOException{
+		byte[] url = element.getUrl().getBytes(StandardCharsets.UTF_8);
+		out.writeByte(ELEMENT);
+		out.writeInt(url.length);
+		out.write(url);
+		out.writeLong(element.getImpressions());
+	}
+
+	/**
+	 * Writes a checkpoint and waits until the log is on the disk.
+	 *
+	 * @param source the source
+	 * @param offset the offset of the first line that was not read yet
+	 * @param line the number of the first line that was not read yet
+	 * @param columns the number of columns of the source
+	 * @throws IOException if the log can't be written
+	 */
+	void checkpoint(FileChannel source, long offset, int line, int columns) throws IOException{
+		if(out == null)
+			throw new IOException("The log " + file + " is not open");
+		out.writeByte(CHECKPOINT);
+		out.writeLong(offset);
+		out.writeInt(line);
+		out.writeInt(columns);
+		out.writeLong(tailCrc(source, offset));
+		out.flush();
+		stream.getChannel().force(false);
+		this.offset = offset;
+		this.line = line;
+		this.columns = columns;
+	}
+
+	// The CRC of the bytes right before offset
+	private static long tailCrc(FileChannel source, long offset) throws IOException{
+		ByteBuffer tail = ByteBuffer.allocate((int) Math.min(TAIL, offset));
+		long from = offset - tail.capacity();
+		while(tail.hasRemaining() && source.read(tail, from + tail.position()) > 0){
+			// Read until the buffer is full
+		}
+		CRC32 crc = new CRC32();
+		crc.update(tail.array(), 0, tail.position());
+		return crc.getValue();
+	}
+
+	/**
+	 * Closes the log, which is kept for the next reading.
+	 */
+	public void close() throws IOException{
+		if(out != null){
+			out.close();
+			out = null;
+		}
+	}
+
+	/**
+	 * Closes and deletes the log, once the source has been read completely.
+	 *
+	 * @throws IOException if the log can't be closed
+	 */
+	void delete() throws IOException{
+		close();
+		file.delete();
+	}
+
+	File getFile(){
+		return file;
+	}
+
+	long getOffset(){
+		return offset;
+	}
+
+	int getLine(){
+		return line;
+	}
+
+	int getColumns(){
+		return columns;
+	}
+
+}
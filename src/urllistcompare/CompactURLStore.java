@@ -0,0 +1,452 @@
+/**
+ *
+ */
+package urllistcompare;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import urllistcompare.util.ArraySort;
+import urllistcompare.util.ByteKey;
+
+/**
+ * A storage engine for a URLList that needs far less memory than a HashMap of
+ * URLNorm instances when there are millions of normalised urls.
+ * <p>
+ * Each normalised url is an entry identified by its index. The entries are
+ * found through an open addressing hash table with linear probing, which only
+ * holds entry indexes. Everything else is kept in parallel arrays indexed by
+ * entry:
+ * <ul>
+ * <li>the hash code and the position of the key, whose UTF-8 bytes are
+ * written one after the other in pages of a byte arena;</li>
+ * <li>the page impressions of each format, as primitive longs;</li>
+ * <li>the first element of each format in the element log.</li>
+ * </ul>
+ * The element log holds each URLElement once, chained to the previous element
+ * of the same entry and format. A second open addressing table over the log
+ * rejects duplicated elements, with the same equals() semantics of the
+ * HashSets in URLNorm.
+ * <p>
+ * An aggregate store (CompactURLStore.Aggregate) has no element log: it only
+ * keeps the keys and the page impressions, so every element is accepted and
+ * then discarded.
+ * <p>
+ * Entries can't be removed and the store is not thread safe.
+ *
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ */
+class CompactURLStore implements URLStore {
+
+	private static final long serialVersionUID = 5384216043307715281L;
+	private static final int PAGE = 1 << 20; // Default size of a key page
+	private static final int CAPACITY = 1024; // Initial number of entries
+	private static final int CARDINALITY = 2;
+
+	private final URLFormat[] format; // Shared with the URLList
+	private final boolean noExtension;
+	private final boolean aggregate; // True if the elements are not kept
+
+	// Hash table: each slot holds the index of an entry + 1, or 0 if empty
+	private int[] table;
+	// Entries
+	private int size;
+	private int[] hashes;
+	private long[] keyAddress; // Page in the high 32 bits, offset in the low 32
+	private int[] keyLength;
+	private long[][] impressions; // [format][entry]
+	private int[][] head; // [format][entry]: last element + 1, or 0 if none
+	// Key arena
+	private byte[][] pages;
+	private int pageCount, pageEnd; // pageEnd is the first free byte of the
+									// last page
+	// Element log
+	private int elementCount;
+	private URLElement[] elements;
+	private int[] previous; // Previous element of the same chain + 1, or 0
+	private byte[] elementPos;
+	private int[] elementTable; // Same layout as table
+
+	CompactURLStore(URLFormat[] format, boolean noExtension) {
+		this(format, noExtension, false);
+	}
+
+	private CompactURLStore(URLFormat[] format, boolean noExtension,
+			boolean aggregate) {
+		this.format = format;
+		this.noExtension = noExtension;
+		this.aggregate = aggregate;
+		table = new int[CAPACITY * 2];
+		size = 0;
+		hashes = new int[CAPACITY];
+		keyAddress = new long[CAPACITY];
+		keyLength = new int[CAPACITY];
+		impressions = new long[CARDINALITY][CAPACITY];
+		pages = new byte[16][];
+		pageCount = 0;
+		pageEnd = 0;
+		elementCount = 0;
+		if (!aggregate) {
+			head = new int[CARDINALITY][CAPACITY];
+			elements = new URLElement[CAPACITY];
+			previous = new int[CAPACITY];
+			elementPos = new byte[CAPACITY];
+			elementTable = new int[CAPACITY * 2];
+		}
+	}
+
+	/**
+	 * A CompactURLStore without the element log, which can also add page
+	 * impressions without an element.
+	 */
+	static final class Aggregate extends CompactURLStore
+			implements AggregateURLStore {
+
+		private static final long serialVersionUID = -2281349713584012264L;
+
+		Aggregate(URLFormat[] format, boolean noExtension) {
+			super(format, noExtension, true);
+		}
+
+		public void
+			addImpressions(String key, long impressions, int pos) {
+			super.addImpressions(super.entry(key), impressions, pos);
+		}
+
+		public void
+			addImpressions(ByteKey key, long impressions, int pos) {
+			super.addImpressions(super.entry(key), impressions, pos);
+		}
+	}
+
+	// Adds page impressions to an entry
+	private void
+		addImpressions(int entry, long impressions, int pos) {
+		this.impressions[pos][entry] += impressions;
+	}
+
+	// Spreads the hash code, so that similar keys don't end up in clusters
+	private static int
+		mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	public boolean
+		add(String key, URLElement element, int pos) {
+		int entry = entry(key);
+		if (!aggregate && !addElement(entry, element, pos))
+			return false;
+		impressions[pos][entry] += element.getImpressions();
+		return true;
+	}
+
+	// Index of the entry of key, which is created if needed
+	private int
+		entry(String key) {
+		int hash = key.hashCode();
+		int mask = table.length - 1;
+		int slot = mix(hash) & mask;
+		int entry = -1;
+		while (table[slot] != 0) {
+			if (hashes[table[slot] - 1] == hash
+					&& matches(table[slot] - 1, key)) {
+				entry = table[slot] - 1;
+				break;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (entry < 0) {
+			entry = newEntry(key, hash);
+			table[slot] = entry + 1;
+			if (size * 10 > table.length * 7)
+				table = rehash(table, hashes, size);
+		}
+		return entry;
+	}
+
+	// The same as entry(String), for a key that is already encoded
+	private int
+		entry(ByteKey key) {
+		int hash = key.hashCode();
+		int mask = table.length - 1;
+		int slot = mix(hash) & mask;
+		while (table[slot] != 0) {
+			int entry = table[slot] - 1;
+			if (hashes[entry] == hash && key.contentEquals(
+					pages[(int) (keyAddress[entry] >>> 32)],
+					(int) keyAddress[entry], keyLength[entry]))
+				return entry;
+			slot = (slot + 1) & mask;
+		}
+		int entry = newEntry(key);
+		table[slot] = entry + 1;
+		if (size * 10 > table.length * 7)
+			table = rehash(table, hashes, size);
+		return entry;
+	}
+
+	// Index of the entry of key, or -1 if it's not in the store
+	private int
+		find(String key) {
+		int hash = key.hashCode();
+		int mask = table.length - 1;
+		for (int slot = mix(hash) & mask; table[slot] != 0; slot = (slot
+				+ 1) & mask) {
+			if (hashes[table[slot] - 1] == hash
+					&& matches(table[slot] - 1, key))
+				return table[slot] - 1;
+		}
+		return -1;
+	}
+
+	// Builds a table twice as big from the hash codes of the items
+	private static int[]
+		rehash(int[] table, int[] hashes, int count) {
+		int[] output = new int[table.length * 2];
+		int mask = output.length - 1;
+		for (int i = 0; i < count; i++) {
+			int slot = mix(hashes[i]) & mask;
+			while (output[slot] != 0)
+				slot = (slot + 1) & mask;
+			output[slot] = i + 1;
+		}
+		return output;
+	}
+
+	// Appends a new entry and writes its key to the arena
+	private int
+		newEntry(String key, int hash) {
+		boolean ascii = true;
+		for (int i = 0; i < key.length() && ascii; i++)
+			ascii = key.charAt(i) < 128;
+		byte[] bytes = ascii ? null : key.getBytes(StandardCharsets.UTF_8);
+		int length = ascii ? key.length() : bytes.length;
+		int entry = newEntry(hash, length);
+		byte[] page = pages[pageCount - 1];
+		int offset = (int) keyAddress[entry];
+		if (ascii) {
+			for (int i = 0; i < length; i++)
+				page[offset + i] = (byte) key.charAt(i);
+		} else {
+			System.arraycopy(bytes, 0, page, offset, length);
+		}
+		return entry;
+	}
+
+	private int
+		newEntry(ByteKey key) {
+		int entry = newEntry(key.hashCode(), key.length());
+		System.arraycopy(key.array(), 0, pages[pageCount - 1],
+				(int) keyAddress[entry], key.length());
+		return entry;
+	}
+
+	// Appends a new entry and reserves length bytes of the last page of the
+	// arena for its key, which the caller writes
+	private int
+		newEntry(int hash, int length) {
+		if (size == hashes.length) {
+			int capacity = size * 2;
+			hashes = Arrays.copyOf(hashes, capacity);
+			keyAddress = Arrays.copyOf(keyAddress, capacity);
+			keyLength = Arrays.copyOf(keyLength, capacity);
+			for (int i = 0; i < CARDINALITY; i++) {
+				impressions[i] = Arrays.copyOf(impressions[i], capacity);
+				if (!aggregate)
+					head[i] = Arrays.copyOf(head[i], capacity);
+			}
+		}
+		if (pageCount == 0 || pageEnd + length > pages[pageCount - 1].length) {
+			if (pageCount == pages.length)
+				pages = Arrays.copyOf(pages, pageCount * 2);
+			pages[pageCount++] = new byte[Math.max(PAGE, length)];
+			pageEnd = 0;
+		}
+		hashes[size] = hash;
+		keyAddress[size] = ((long) (pageCount - 1) << 32) | pageEnd;
+		keyLength[size] = length;
+		pageEnd += length;
+		return size++;
+	}
+
+	// Compares the key of an entry with a String, without decoding it
+	private boolean
+		matches(int entry, String key) {
+		byte[] page = pages[(int) (keyAddress[entry] >>> 32)];
+		int offset = (int) keyAddress[entry];
+		int length = keyLength[entry];
+		if (length < key.length())
+			return false;
+		if (length == key.length()) {
+			// Every other character takes more than one byte in UTF-8
+			for (int i = 0; i < length; i++) {
+				if (page[offset + i] != key.charAt(i))
+					return false;
+			}
+			return true;
+		}
+		byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (page[offset + i] != bytes[i])
+				return false;
+		}
+		return true;
+	}
+
+	private String
+		key(int entry) {
+		return new String(pages[(int) (keyAddress[entry] >>> 32)],
+				(int) keyAddress[entry], keyLength[entry],
+				StandardCharsets.UTF_8);
+	}
+
+	// Adds an element to the log, unless it's already there
+	private boolean
+		addElement(int entry, URLElement element, int pos) {
+		int mask = elementTable.length - 1;
+		int slot = mix(element.hashCode() * 31 + pos) & mask;
+		while (elementTable[slot] != 0) {
+			int i = elementTable[slot] - 1;
+			if (elementPos[i] == pos && elements[i].equals(element))
+				return false;
+			slot = (slot + 1) & mask;
+		}
+		if (elementCount == elements.length) {
+			int capacity = elementCount * 2;
+			elements = Arrays.copyOf(elements, capacity);
+			previous = Arrays.copyOf(previous, capacity);
+			elementPos = Arrays.copyOf(elementPos, capacity);
+		}
+		elements[elementCount] = element;
+		elementPos[elementCount] = (byte) pos;
+		previous[elementCount] = head[pos][entry];
+		head[pos][entry] = elementCount + 1;
+		elementTable[slot] = ++elementCount;
+		if (elementCount * 10 > elementTable.length * 7) {
+			int[] elementHashes = new int[elementCount];
+			for (int i = 0; i < elementCount; i++)
+				elementHashes[i] = elements[i].hashCode() * 31 + elementPos[i];
+			elementTable = rehash(elementTable, elementHashes, elementCount);
+		}
+		return true;
+	}
+
+	private URLElement[]
+		getUrlElements(int entry, int pos) {
+		if (aggregate)
+			return new URLElement[0];
+		int count = 0;
+		for (int i = head[pos][entry]; i != 0; i = previous[i - 1])
+			count++;
+		URLElement[] output = new URLElement[count];
+		for (int i = head[pos][entry]; i != 0; i = previous[i - 1])
+			output[--count] = elements[i - 1];
+		return ArraySort.insertionSortDesc(output);
+	}
+
+	private URLNorm
+		getUrlNorm(int entry) {
+		if (aggregate)
+			return new URLNorm(format[0], format[1], noExtension, key(entry),
+					new long[] { impressions[0][entry], impressions[1][entry] });
+		String key = key(entry);
+		URLNorm output = new URLNorm(format[0], format[1], noExtension);
+		for (int pos = 0; pos < CARDINALITY; pos++) {
+			for (int i = head[pos][entry]; i != 0; i = previous[i - 1])
+				output.add(elements[i - 1], pos, key);
+		}
+		return output;
+	}
+
+	public int
+		size() {
+		return size;
+	}
+
+	public Set<String>
+		keySet() {
+		return new AbstractSet<String>() {
+			public int
+				size() {
+				return size;
+			}
+
+			public boolean
+				contains(Object o) {
+				return o instanceof String && find((String) o) > -1;
+			}
+
+			public Iterator<String>
+				iterator() {
+				return new Iterator<String>() {
+					private int entry = 0;
+
+					public boolean
+						hasNext() {
+						return entry < size;
+					}
+
+					public String
+						next() {
+						if (entry >= size)
+							throw new NoSuchElementException();
+						return key(entry++);
+					}
+				};
+			}
+		};
+	}
+
+	public URLNorm
+		get(String key) {
+		int entry = find(key);
+		return entry < 0 ? null : getUrlNorm(entry);
+	}
+
+	public void
+		close() {
+		// Nothing to release
+	}
+
+	public Cursor
+		cursor() {
+		return new Cursor() {
+			private int entry = -1;
+
+			public boolean
+				next() {
+				if (entry < size)
+					entry++;
+				return entry < size;
+			}
+
+			public String
+				key() {
+				return CompactURLStore.this.key(entry);
+			}
+
+			public long
+				getImpressions(int pos) {
+				return impressions[pos][entry];
+			}
+
+			public URLElement[]
+				getUrlElements(int pos) {
+				return CompactURLStore.this.getUrlElements(entry, pos);
+			}
+
+			public URLNorm
+				getUrlNorm() {
+				return CompactURLStore.this.getUrlNorm(entry);
+			}
+		};
+	}
+}
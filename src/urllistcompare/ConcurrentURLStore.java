@@ -0,0 +1,155 @@
+/**
+ *
+ */
+package urllistcompare;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import urllistcompare.util.ArraySort;
+
+/**
+ * A storage engine for a URLList that many threads can add to at the same
+ * time, without any global lock.
+ * <p>
+ * Each normalised url is an entry of a ConcurrentHashMap, created with
+ * putIfAbsent the first time it's found: an entry that already exists is
+ * found with a plain lookup, which doesn't lock anything. The elements of
+ * each format are kept in a concurrent set and the page impressions in a
+ * LongAdder, so the threads that add rows to the same hot url update
+ * different cells instead of contending on a single counter.
+ * <p>
+ * The contents are only guaranteed to be complete once all the threads that
+ * add elements are done: a read that runs at the same time might see an
+ * element whose impressions have not been added yet.
+ *
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ */
+class ConcurrentURLStore implements URLStore {
+
+	private static final long serialVersionUID = 6950164421379254110L;
+	private static final int CARDINALITY = 2;
+
+	private final ConcurrentHashMap<String, Entry> url;
+	private final URLFormat[] format; // Shared with the URLList
+	private final boolean noExtension;
+
+	/*
+	 * The elements and the page impressions of a normalised url.
+	 */
+	private static class Entry implements Serializable {
+		private static final long serialVersionUID = -4180359325706232457L;
+		private final Set<URLElement>[] elements;
+		private final LongAdder[] impressions;
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private Entry() {
+			elements = new Set[CARDINALITY];
+			impressions = new LongAdder[CARDINALITY];
+			for (int i = 0; i < CARDINALITY; i++) {
+				elements[i] = ConcurrentHashMap.<URLElement> newKeySet();
+				impressions[i] = new LongAdder();
+			}
+		}
+	}
+
+	ConcurrentURLStore(URLFormat[] format, boolean noExtension) {
+		url = new ConcurrentHashMap<String, Entry>(1500, (float) 0.95);
+		this.format = format;
+		this.noExtension = noExtension;
+	}
+
+	public boolean
+		add(String key, URLElement element, int pos) {
+		Entry entry = url.get(key);
+		if (entry == null) {
+			entry = new Entry();
+			Entry existing = url.putIfAbsent(key, entry);
+			if (existing != null)
+				entry = existing; // Another thread created it first
+		}
+		if (!entry.elements[pos].add(element))
+			return false;
+		entry.impressions[pos].add(element.getImpressions());
+		return true;
+	}
+
+	private URLElement[]
+		getUrlElements(Entry entry, int pos) {
+		return ArraySort.insertionSortDesc(
+				entry.elements[pos].toArray(new URLElement[0]));
+	}
+
+	private URLNorm
+		getUrlNorm(String key, Entry entry) {
+		URLNorm output = new URLNorm(format[0], format[1], noExtension);
+		for (int pos = 0; pos < CARDINALITY; pos++) {
+			for (URLElement e : entry.elements[pos])
+				output.add(e, pos, key);
+		}
+		return output;
+	}
+
+	public int
+		size() {
+		return url.size();
+	}
+
+	public Set<String>
+		keySet() {
+		return url.keySet();
+	}
+
+	public URLNorm
+		get(String key) {
+		Entry output = url.get(key);
+		return output == null ? null : getUrlNorm(key, output);
+	}
+
+	public void
+		close() {
+		// Nothing to release
+	}
+
+	public Cursor
+		cursor() {
+		return new Cursor() {
+			private final Iterator<Map.Entry<String, Entry>> entries = url
+					.entrySet().iterator();
+			private Map.Entry<String, Entry> current = null;
+
+			public boolean
+				next() {
+				current = entries.hasNext() ? entries.next() : null;
+				return current != null;
+			}
+
+			public String
+				key() {
+				return current.getKey();
+			}
+
+			public long
+				getImpressions(int pos) {
+				return current.getValue().impressions[pos].sum();
+			}
+
+			public URLElement[]
+				getUrlElements(int pos) {
+				return ConcurrentURLStore.this
+						.getUrlElements(current.getValue(), pos);
+			}
+
+			public URLNorm
+				getUrlNorm() {
+				return ConcurrentURLStore.this.getUrlNorm(current.getKey(),
+						current.getValue());
+			}
+		};
+	}
+}
@@ -0,0 +1,181 @@
+/**
+ *
+ */
+package urllistcompare;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import urllistcompare.util.InternPool;
+
+/**
+ * A view of a store whose keys keep the extension (soft normalisation) as if
+ * it was keyed without the extension (hard normalisation): the hard key of an
+ * entry is its soft key without the last dot and anything that follows it,
+ * which is what URLElement.normalise(true) does.
+ * <p>
+ * The view only keeps an index from each hard key to its soft keys and to the
+ * sum of their page impressions, built with a single pass over the keys of the
+ * store the first time that it's needed and rebuilt if the store has changed
+ * since then. The entries of the view are merged from the entries of the
+ * store when they are read, so switching between the two normalisations
+ * never copies the elements. The view is read-only: the elements are added
+ * to the store, then invalidate() is called.
+ *
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ */
+class HardKeyStore implements URLView {
+
+	private final URLStore soft;
+	private final URLFormat[] format; // Shared with the URLList
+	private final InternPool keys; // null if the keys are not interned
+	private transient HashMap<String, Group> groups; // null until needed
+	private transient volatile boolean stale;
+
+	/*
+	 * The soft keys of a hard key and the sum of their page impressions.
+	 */
+	private static final class Group {
+		private String[] keys = new String[1];
+		private int size = 0;
+		private final long[] impressions = new long[2];
+
+		private void
+			add(String key, long impressions0, long impressions1) {
+			if (size == keys.length)
+				keys = Arrays.copyOf(keys, size * 2);
+			keys[size++] = key;
+			impressions[0] += impressions0;
+			impressions[1] += impressions1;
+		}
+	}
+
+	/**
+	 *
+	 * @param soft the store keyed by the soft normalisation
+	 * @param format the formats of the URLList
+	 * @param keys the pool of the keys of the URLList, null for none
+	 */
+	HardKeyStore(URLStore soft, URLFormat[] format, InternPool keys) {
+		this.soft = soft;
+		this.format = format;
+		this.keys = keys;
+		stale = true;
+	}
+
+	/**
+	 * Signals that the store has changed, so the index must be rebuilt before
+	 * it's used again.
+	 */
+	void
+		invalidate() {
+		if (!stale)
+			stale = true; // Read first: the adding threads only write it once
+	}
+
+	private synchronized HashMap<String, Group>
+		groups() {
+		if (groups == null || stale) {
+			stale = false;
+			HashMap<String, Group> output = new HashMap<String, Group>(
+					Math.max(16, (int) (soft.size() / 0.95f) + 1), 0.95f);
+			URLView.Cursor cursor = soft.cursor();
+			while (cursor.next()) {
+				String key = cursor.key();
+				String hardKey = key;
+				if (key.lastIndexOf('.') > -1) {
+					hardKey = key.substring(0, key.lastIndexOf('.'));
+					if (keys != null)
+						hardKey = keys.intern(hardKey);
+				}
+				Group group = output.get(hardKey);
+				if (group == null) {
+					group = new Group();
+					output.put(hardKey, group);
+				}
+				group.add(key, cursor.getImpressions(0), cursor.getImpressions(1));
+			}
+			groups = output;
+		}
+		return groups;
+	}
+
+	// The entries of the soft keys of a group, merged into a single URLNorm
+	private URLNorm
+		merge(String key, Group group) {
+		URLNorm output = new URLNorm(format[0], format[1], true);
+		for (int i = 0; i < group.size; i++) {
+			URLNorm entry = soft.get(group.keys[i]);
+			for (int pos = 0; pos < 2; pos++) {
+				for (URLElement e : entry.getUrlElements(pos))
+					output.add(e, pos, key);
+			}
+		}
+		return output;
+	}
+
+	public int
+		size() {
+		return groups().size();
+	}
+
+	public Set<String>
+		keySet() {
+		return Collections.unmodifiableSet(groups().keySet());
+	}
+
+	public URLNorm
+		get(String key) {
+		Group group = groups().get(key);
+		return group == null ? null : merge(key, group);
+	}
+
+	/**
+	 * Drops the index, the store that it's a view of is not closed.
+	 */
+	public synchronized void
+		close() {
+		groups = null;
+	}
+
+	public Cursor
+		cursor() {
+		final Iterator<Map.Entry<String, Group>> entries = groups().entrySet()
+				.iterator();
+		return new Cursor() {
+			private Map.Entry<String, Group> current = null;
+
+			public boolean
+				next() {
+				current = entries.hasNext() ? entries.next() : null;
+				return current != null;
+			}
+
+			public String
+				key() {
+				return current.getKey();
+			}
+
+			public long
+				getImpressions(int pos) {
+				return current.getValue().impressions[pos];
+			}
+
+			public URLElement[]
+				getUrlElements(int pos) {
+				return merge(current.getKey(), current.getValue())
+						.getUrlElements(pos);
+			}
+
+			public URLNorm
+				getUrlNorm() {
+				return merge(current.getKey(), current.getValue());
+			}
+		};
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package urllistcompare;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The default storage engine for a URLList: a HashMap of URLNorm instances.
+ *
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ */
+class HashURLStore implements URLStore {
+
+	private static final long serialVersionUID = -2745180926425519683L;
+
+	private final HashMap<String, URLNorm> url;
+	private final URLFormat[] format; // Shared with the URLList
+	private final boolean noExtension;
+
+	HashURLStore(URLFormat[] format, boolean noExtension) {
+		url = new HashMap<String, URLNorm>(1500, (float) 0.95);
+		this.format = format;
+		this.noExtension = noExtension;
+	}
+
+	public boolean
+		add(String key, URLElement element, int pos) {
+		URLNorm n = url.get(key);
+		if (n == null) {
+			n = new URLNorm(format[0], format[1], noExtension);
+			url.put(key, n);
+		}
+		return n.add(element, pos, key);
+	}
+
+	public int
+		size() {
+		return url.size();
+	}
+
+	public Set<String>
+		keySet() {
+		return url.keySet();
+	}
+
+	public URLNorm
+		get(String key) {
+		URLNorm output = url.get(key);
+		return output == null ? null : new URLNorm(output);
+	}
+
+	public void
+		close() {
+		// Nothing to release
+	}
+
+	public Cursor
+		cursor() {
+		return new Cursor() {
+			private final Iterator<Map.Entry<String, URLNorm>> entries = url
+					.entrySet().iterator();
+			private Map.Entry<String, URLNorm> current = null;
+
+			public boolean
+				next() {
+				current = entries.hasNext() ? entries.next() : null;
+				return current != null;
+			}
+
+			public String
+				key() {
+				return current.getKey();
+			}
+
+			public long
+				getImpressions(int pos) {
+				return current.getValue().getImpressions()[pos];
+			}
+
+			public URLElement[]
+				getUrlElements(int pos) {
+				return current.getValue().getUrlElements(pos);
+			}
+
+			public URLNorm
+				getUrlNorm() {
+				return new URLNorm(current.getValue());
+			}
+		};
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ *
+ */
+package urllistcompare;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import urllistcompare.util.SegmentedLruCache;
+
+/**
+ * A cache of the normalised urls, shared by all the readers of a run: the
+ * same raw url is often repeated many times (in the rows of different
+ * dimensions or of different days), and with the cache it's only normalised
+ * once, while all of its elements share the same key.
+ * <p>
+ * There is a SegmentedLruCache for each format and for each way of removing
+ * the extension, created when it's first used. Each of them bypasses itself
+ * if its urls don't repeat enough to be worth caching (e.g. full urls with a
+ * unique query string), so that a run with too many distinct urls only pays
+ * for the first SegmentedLruCache.SAMPLE lookups.
+ *
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ */
+public final class KeyCache {
+
+	/**
+	 * The default number of normalised urls kept for each format.
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 20;
+	// The hit rate under which a cache bypasses itself
+	private static final double MIN_HIT_RATE = 0.05;
+
+	private final int capacity;
+	private final AtomicReferenceArray<SegmentedLruCache<String, String>> caches;
+
+	/**
+	 *
+	 * @param capacity
+	 *            the number of normalised urls kept for each format
+	 */
+	public KeyCache(int capacity) {
+		this.capacity = capacity;
+		caches = new AtomicReferenceArray<SegmentedLruCache<String, String>>(
+				URLFormat.values().length * 2);
+	}
+
+	/**
+	 * Normalises a url, or finds its normalised url in the cache.
+	 *
+	 * @param format
+	 *            the format of the url
+	 * @param url
+	 *            the raw url
+	 * @param noExtension
+	 *            true to remove the extension
+	 * @return the same as format.normalisePath(url, noExtension)
+	 */
+	public String
+		normalise(URLFormat format, String url, boolean noExtension) {
+		SegmentedLruCache<String, String> cache = cache(format, noExtension);
+		String output = cache.get(url);
+		if (output == null) {
+			output = format.normalisePath(url, noExtension);
+			cache.put(url, output);
+		}
+		return output;
+	}
+
+	private SegmentedLruCache<String, String>
+		cache(URLFormat format, boolean noExtension) {
+		int index = format.ordinal() * 2 + (noExtension ? 1 : 0);
+		SegmentedLruCache<String, String> output = caches.get(index);
+		if (output == null) {
+			caches.compareAndSet(index, null,
+					new SegmentedLruCache<String, String>(capacity,
+							Runtime.getRuntime().availableProcessors() * 4,
+							MIN_HIT_RATE));
+			output = caches.get(index);
+		}
+		return output;
+	}
+
+	public long
+		getHits() {
+		long output = 0;
+		for (int i = 0; i < caches.length(); i++) {
+			if (caches.get(i) != null)
+				output += caches.get(i).getHits();
+		}
+		return output;
+	}
+
+	public long
+		getMisses() {
+		long output = 0;
+		for (int i = 0; i < caches.length(); i++) {
+			if (caches.get(i) != null)
+				output += caches.get(i).getMisses();
+		}
+		return output;
+	}
+
+	public long
+		getEvictions() {
+		long output = 0;
+		for (int i = 0; i < caches.length(); i++) {
+			if (caches.get(i) != null)
+				output += caches.get(i).getEvictions();
+		}
+		return output;
+	}
+
+	/**
+	 *
+	 * @return the lookups that skipped a cache because it was bypassed
+	 */
+	public long
+		getBypassed() {
+		long output = 0;
+		for (int i = 0; i < caches.length(); i++) {
+			if (caches.get(i) != null)
+				output += caches.get(i).getBypassed();
+		}
+		return output;
+	}
+
+	/**
+	 *
+	 * @return the fraction of the lookups (not bypassed) that found their
+	 *         url, 0 if there was none
+	 */
+	public double
+		getHitRate() {
+		long hits = getHits(), total = hits + getMisses();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * @return a summary of the statistics of the cache
+	 */
+	@Override
+	public String
+		toString() {
+		return String.format("%.1f%% hits (%d hits, %d misses, %d evictions, %d bypassed)",
+				getHitRate() * 100, getHits(), getMisses(), getEvictions(),
+				getBypassed());
+	}
+
+}
@@ -0,0 +1,532 @@
+/**
+ *
+ */
+package urllistcompare;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import urllistcompare.util.ArraySort;
+import urllistcompare.util.DirectMemory;
+
+/**
+ * A storage engine for a URLList that keeps its contents outside of the Java
+ * heap, in direct ByteBuffers, so that the heap usage doesn't grow with the
+ * number of urls.
+ * <p>
+ * Two arenas of direct pages hold the records:
+ * <ul>
+ * <li>an entry for each normalised url: hash code, key length, page
+ * impressions and last element of each format, followed by the UTF-8 bytes
+ * of the key;</li>
+ * <li>an element for each URLElement: previous element of the same entry and
+ * format, page impressions and the UTF-8 bytes of the url.</li>
+ * </ul>
+ * The entries are found through an open addressing hash table with linear
+ * probing, also held in direct buffers of up to 1 GB each, whose slots
+ * contain the address of an entry + 1 (0 if the slot is empty). An address
+ * holds the index of the page in the high 32 bits and the offset in the low
+ * 32 bits.
+ * <p>
+ * The URLElement instances are rebuilt from their records when they are
+ * needed, so duplicated elements can't be recognised: every element is
+ * added. The memory is released by close(), after which the store can't be
+ * used anymore. The store is not thread safe.
+ *
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ */
+class OffHeapURLStore implements URLStore {
+
+	private static final long serialVersionUID = -1304127338551086920L;
+	private static final int MIN_PAGE = 1 << 20; // Size of the first page
+	private static final int MAX_PAGE = 1 << 26; // Size of the largest pages
+	private static final int SEGMENT = 1 << 27; // Slots in a table segment
+	private static final int MAX_SLOTS = 1 << 30;
+	private static final int CARDINALITY = 2;
+	// Entry layout
+	private static final int E_HASH = 0, E_LENGTH = 4, E_IMPRESSIONS = 8,
+			E_HEAD = 24, E_KEY = 40;
+	// Element layout
+	private static final int L_PREVIOUS = 0, L_IMPRESSIONS = 8, L_LENGTH = 16,
+			L_URL = 20;
+
+	private final URLFormat[] format; // Shared with the URLList
+	private final boolean noExtension;
+
+	private transient ByteBuffer[] table;
+	private transient int slots, size;
+	private transient Arena entries, elements;
+	private transient boolean closed;
+
+	OffHeapURLStore(URLFormat[] format, boolean noExtension) {
+		this.format = format;
+		this.noExtension = noExtension;
+		init();
+	}
+
+	private void
+		init() {
+		slots = 1 << 12;
+		table = newTable(slots);
+		size = 0;
+		entries = new Arena();
+		elements = new Arena();
+		closed = false;
+	}
+
+	/*
+	 * A list of direct pages in which records are appended one after the
+	 * other. A record never crosses the end of a page.
+	 */
+	private static class Arena {
+		private final ArrayList<ByteBuffer> pages = new ArrayList<ByteBuffer>();
+		private int end = 0; // First free byte of the last page
+
+		// Reserves length bytes and returns their address
+		long
+			allocate(int length) {
+			ByteBuffer last = pages.isEmpty() ? null
+					: pages.get(pages.size() - 1);
+			if (last == null || end + length > last.capacity()) {
+				int size = last == null ? MIN_PAGE
+						: Math.min(MAX_PAGE, last.capacity() * 2);
+				pages.add(DirectMemory.allocate(Math.max(size, length)));
+				end = 0;
+			}
+			long address = ((long) (pages.size() - 1) << 32) | end;
+			end += length;
+			return address;
+		}
+
+		ByteBuffer
+			page(long address) {
+			return pages.get((int) (address >>> 32));
+		}
+
+		void
+			free() {
+			for (ByteBuffer page : pages)
+				DirectMemory.free(page);
+			pages.clear();
+		}
+	}
+
+	private static int
+		offset(long address) {
+		return (int) address;
+	}
+
+	// Spreads the hash code, so that similar keys don't end up in clusters
+	private static int
+		mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	private static ByteBuffer[]
+		newTable(int slots) {
+		ByteBuffer[] output = new ByteBuffer[(slots + SEGMENT - 1) / SEGMENT];
+		for (int i = 0; i < output.length; i++)
+			output[i] = DirectMemory.allocate(Math.min(slots, SEGMENT) * 8);
+		return output;
+	}
+
+	private static long
+		getSlot(ByteBuffer[] table, int slot) {
+		return table[slot / SEGMENT].getLong((slot % SEGMENT) * 8);
+	}
+
+	private static void
+		setSlot(ByteBuffer[] table, int slot, long value) {
+		table[slot / SEGMENT].putLong((slot % SEGMENT) * 8, value);
+	}
+
+	private static void
+		free(ByteBuffer[] table) {
+		for (ByteBuffer segment : table)
+			DirectMemory.free(segment);
+	}
+
+	private void
+		checkOpen() {
+		if (closed)
+			throw new IllegalStateException("The URLList has been closed!");
+	}
+
+	public boolean
+		add(String key, URLElement element, int pos) {
+		checkOpen();
+		long entry = entry(key);
+		byte[] url = element.getUrl().getBytes(StandardCharsets.UTF_8);
+		append(entry, url, url.length, element.getImpressions(), pos);
+		return true;
+	}
+
+	// Adds an element record at the head of the chain of the entry and format
+	private void
+		append(long entry, byte[] url, int length, long impressions, int pos) {
+		long address = elements.allocate(L_URL + length);
+		ByteBuffer page = elements.page(address);
+		int offset = offset(address);
+		ByteBuffer entryPage = entries.page(entry);
+		int head = offset(entry) + E_HEAD + pos * 8;
+		page.putLong(offset + L_PREVIOUS, entryPage.getLong(head));
+		page.putLong(offset + L_IMPRESSIONS, impressions);
+		page.putInt(offset + L_LENGTH, length);
+		for (int i = 0; i < length; i++)
+			page.put(offset + L_URL + i, url[i]);
+		entryPage.putLong(head, address + 1);
+		addImpressions(entryPage, offset(entry), impressions, pos);
+	}
+
+	private static void
+		addImpressions(ByteBuffer page, int offset, long impressions, int pos) {
+		int index = offset + E_IMPRESSIONS + pos * 8;
+		page.putLong(index, page.getLong(index) + impressions);
+	}
+
+	// Address of the entry of key, which is created if needed
+	private long
+		entry(String key) {
+		int hash = key.hashCode();
+		byte[] bytes = null;
+		int mask = slots - 1;
+		int slot = mix(hash) & mask;
+		long value;
+		while ((value = getSlot(table, slot)) != 0) {
+			ByteBuffer page = entries.page(value - 1);
+			int offset = offset(value - 1);
+			if (page.getInt(offset + E_HASH) == hash) {
+				if (bytes == null)
+					bytes = key.getBytes(StandardCharsets.UTF_8);
+				if (matches(page, offset, bytes))
+					return value - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (bytes == null)
+			bytes = key.getBytes(StandardCharsets.UTF_8);
+		long address = entries.allocate(E_KEY + bytes.length);
+		ByteBuffer page = entries.page(address);
+		int offset = offset(address);
+		page.putInt(offset + E_HASH, hash);
+		page.putInt(offset + E_LENGTH, bytes.length);
+		for (int i = 0; i < CARDINALITY; i++) {
+			page.putLong(offset + E_IMPRESSIONS + i * 8, 0);
+			page.putLong(offset + E_HEAD + i * 8, 0);
+		}
+		for (int i = 0; i < bytes.length; i++)
+			page.put(offset + E_KEY + i, bytes[i]);
+		setSlot(table, slot, address + 1);
+		if (++size * 10L > slots * 7L)
+			rehash();
+		return address;
+	}
+
+	// Address of the entry of key, or -1 if it's not in the store
+	private long
+		find(String key) {
+		checkOpen();
+		int hash = key.hashCode();
+		byte[] bytes = null;
+		int mask = slots - 1;
+		long value;
+		for (int slot = mix(hash) & mask; (value = getSlot(table,
+				slot)) != 0; slot = (slot + 1) & mask) {
+			ByteBuffer page = entries.page(value - 1);
+			int offset = offset(value - 1);
+			if (page.getInt(offset + E_HASH) == hash) {
+				if (bytes == null)
+					bytes = key.getBytes(StandardCharsets.UTF_8);
+				if (matches(page, offset, bytes))
+					return value - 1;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean
+		matches(ByteBuffer page, int offset, byte[] key) {
+		if (page.getInt(offset + E_LENGTH) != key.length)
+			return false;
+		for (int i = 0; i < key.length; i++) {
+			if (page.get(offset + E_KEY + i) != key[i])
+				return false;
+		}
+		return true;
+	}
+
+	// Doubles the hash table, releasing the old one
+	private void
+		rehash() {
+		if (slots == MAX_SLOTS)
+			throw new IllegalStateException(
+					"Too many urls for an off-heap URLList!");
+		ByteBuffer[] output = newTable(slots * 2);
+		int mask = slots * 2 - 1;
+		for (int i = 0; i < slots; i++) {
+			long value = getSlot(table, i);
+			if (value != 0) {
+				int hash = entries.page(value - 1)
+						.getInt(offset(value - 1) + E_HASH);
+				int slot = mix(hash) & mask;
+				while (getSlot(output, slot) != 0)
+					slot = (slot + 1) & mask;
+				setSlot(output, slot, value);
+			}
+		}
+		free(table);
+		table = output;
+		slots *= 2;
+	}
+
+	private static String
+		string(ByteBuffer page, int offset, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++)
+			bytes[i] = page.get(offset + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private String
+		key(long entry) {
+		ByteBuffer page = entries.page(entry);
+		int offset = offset(entry);
+		return string(page, offset + E_KEY, page.getInt(offset + E_LENGTH));
+	}
+
+	private long
+		getImpressions(long entry, int pos) {
+		return entries.page(entry)
+				.getLong(offset(entry) + E_IMPRESSIONS + pos * 8);
+	}
+
+	private URLElement[]
+		getUrlElements(long entry, int pos) {
+		ArrayList<URLElement> output = new ArrayList<URLElement>();
+		long element = entries.page(entry)
+				.getLong(offset(entry) + E_HEAD + pos * 8);
+		while (element != 0) {
+			ByteBuffer page = elements.page(element - 1);
+			int offset = offset(element - 1);
+			output.add(new URLElement(
+					string(page, offset + L_URL, page.getInt(offset + L_LENGTH)),
+					format[pos], page.getLong(offset + L_IMPRESSIONS)));
+			element = page.getLong(offset + L_PREVIOUS);
+		}
+		Collections.reverse(output); // The chain starts from the last element
+		return ArraySort.insertionSortDesc(
+				output.toArray(new URLElement[output.size()]));
+	}
+
+	private URLNorm
+		getUrlNorm(long entry) {
+		String key = key(entry);
+		URLNorm output = new URLNorm(format[0], format[1], noExtension);
+		for (int pos = 0; pos < CARDINALITY; pos++) {
+			for (URLElement e : getUrlElements(entry, pos))
+				output.add(e, pos, key);
+		}
+		return output;
+	}
+
+	public int
+		size() {
+		return size;
+	}
+
+	public Set<String>
+		keySet() {
+		return new AbstractSet<String>() {
+			public int
+				size() {
+				return size;
+			}
+
+			public boolean
+				contains(Object o) {
+				return o instanceof String && find((String) o) > -1;
+			}
+
+			public Iterator<String>
+				iterator() {
+				final Cursor cursor = cursor();
+				return new Iterator<String>() {
+					private boolean ready = false, more = false;
+
+					public boolean
+						hasNext() {
+						if (!ready) {
+							more = cursor.next();
+							ready = true;
+						}
+						return more;
+					}
+
+					public String
+						next() {
+						if (!hasNext())
+							throw new NoSuchElementException();
+						ready = false;
+						return cursor.key();
+					}
+				};
+			}
+		};
+	}
+
+	public URLNorm
+		get(String key) {
+		long entry = find(key);
+		return entry < 0 ? null : getUrlNorm(entry);
+	}
+
+	public Cursor
+		cursor() {
+		checkOpen();
+		return new Cursor() {
+			private int slot = -1;
+			private long entry = -1;
+
+			public boolean
+				next() {
+				checkOpen();
+				while (++slot < slots) {
+					long value = getSlot(table, slot);
+					if (value != 0) {
+						entry = value - 1;
+						return true;
+					}
+				}
+				slot = slots;
+				return false;
+			}
+
+			public String
+				key() {
+				return OffHeapURLStore.this.key(entry);
+			}
+
+			public long
+				getImpressions(int pos) {
+				return OffHeapURLStore.this.getImpressions(entry, pos);
+			}
+
+			public URLElement[]
+				getUrlElements(int pos) {
+				return OffHeapURLStore.this.getUrlElements(entry, pos);
+			}
+
+			public URLNorm
+				getUrlNorm() {
+				return OffHeapURLStore.this.getUrlNorm(entry);
+			}
+		};
+	}
+
+	public void
+		close() {
+		if (!closed) {
+			closed = true;
+			free(table);
+			table = null;
+			entries.free();
+			elements.free();
+		}
+	}
+
+	// The records are written one by one, as raw UTF-8 bytes copied from the
+	// pages, so that saving the store doesn't rebuild its contents in the heap
+	private void
+		writeObject(ObjectOutputStream out) throws IOException {
+		checkOpen();
+		out.defaultWriteObject();
+		out.writeInt(size);
+		byte[] buffer = new byte[1 << 12];
+		long[] chain = new long[16];
+		for (int slot = 0; slot < slots; slot++) {
+			long entry = getSlot(table, slot) - 1;
+			if (entry < 0)
+				continue;
+			ByteBuffer page = entries.page(entry);
+			int offset = offset(entry);
+			write(out, page, offset + E_KEY, page.getInt(offset + E_LENGTH),
+					buffer);
+			for (int pos = 0; pos < CARDINALITY; pos++) {
+				int length = 0;
+				for (long element = page.getLong(offset + E_HEAD
+						+ pos * 8); element != 0; element = elements
+								.page(element - 1)
+								.getLong(offset(element - 1) + L_PREVIOUS)) {
+					if (length == chain.length)
+						chain = Arrays.copyOf(chain, length * 2);
+					chain[length++] = element - 1;
+				}
+				out.writeInt(length);
+				// From the first element added, so that the chain is rebuilt
+				// in the same order
+				for (int i = length - 1; i >= 0; i--) {
+					ByteBuffer elementPage = elements.page(chain[i]);
+					int elementOffset = offset(chain[i]);
+					out.writeLong(elementPage
+							.getLong(elementOffset + L_IMPRESSIONS));
+					write(out, elementPage, elementOffset + L_URL,
+							elementPage.getInt(elementOffset + L_LENGTH),
+							buffer);
+				}
+			}
+		}
+	}
+
+	// Writes the number of bytes, then the bytes of a page
+	private static void
+		write(ObjectOutputStream out, ByteBuffer page, int offset, int length,
+				byte[] buffer) throws IOException {
+		out.writeInt(length);
+		for (int done = 0; done < length; done += buffer.length) {
+			int n = Math.min(buffer.length, length - done);
+			for (int i = 0; i < n; i++)
+				buffer[i] = page.get(offset + done + i);
+			out.write(buffer, 0, n);
+		}
+	}
+
+	private void
+		readObject(ObjectInputStream in)
+				throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		init();
+		int count = in.readInt();
+		byte[] buffer = new byte[1 << 12];
+		for (int i = 0; i < count; i++) {
+			int length = in.readInt();
+			if (length > buffer.length)
+				buffer = new byte[Math.max(length, buffer.length * 2)];
+			in.readFully(buffer, 0, length);
+			long entry = entry(new String(buffer, 0, length,
+					StandardCharsets.UTF_8));
+			for (int pos = 0; pos < CARDINALITY; pos++) {
+				int elementCount = in.readInt();
+				for (int k = 0; k < elementCount; k++) {
+					long impressions = in.readLong();
+					length = in.readInt();
+					if (length > buffer.length)
+						buffer = new byte[Math.max(length, buffer.length * 2)];
+					in.readFully(buffer, 0, length);
+					append(entry, buffer, length, impressions, pos);
+				}
+			}
+		}
+	}
+}
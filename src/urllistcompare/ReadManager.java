@@ -4,8 +4,15 @@
 package urllistcompare;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * @author Rocco Barbini (roccobarbi@gmail.com)
@@ -14,7 +21,7 @@ import java.util.Scanner;
  * - it prompts the user with the information needed to set up the whole process;
  * - it creates the URLList;
  * - it creates the readers;
- * - it actually runs the readers.
+ * - it actually runs the readers, all at the same time (readAll).
  * 
  * It provides a standard input interface for the "main" classes that are meant to be executed via a command line interface.
  * 
@@ -29,6 +36,7 @@ public class ReadManager {
 
 	private static final String DEFAULT_PROMPT = ">:"; // TODO: make it possible to provide a custom prompt by the caller
 	private static final String VSEPARATORS = ".,;:_/|\"'"; // Used to validate non-escaped values for vSep
+	private static final String TERMINAL = "/dev/tty"; // The terminal of the process, on Unix-like systems
 	
 	/**
 	 * Default constructor: it does nothing.
@@ -48,7 +56,7 @@ public class ReadManager {
 		boolean isTSep = false, headers = false;
 		// Check the validity of the argument
 		File theFile = new File(sourceName);
-		if(!theFile.exists() || !theFile.canRead()){
+		if(!CSVReader.canRead(theFile)){
 			System.out.println("File: " + sourceName + " doesn't exist or can't be read.");
 			theFile = null; // Use it only if it works
 		} else {
@@ -58,7 +66,7 @@ public class ReadManager {
 		while(theFile == null){
 			fileName = promptFileName(prompt, keyboard);
 			theFile = new File(fileName);
-			if(!theFile.exists() || !theFile.canRead()){
+			if(!CSVReader.canRead(theFile)){
 				System.out.println("File: " + fileName + " doesn't exist or can't be read.");
 				theFile = null; // Use it only if it works
 			}
@@ -118,7 +126,7 @@ public class ReadManager {
 		boolean isTSep = false, headers = false;
 		// Check the validity of the argument
 		File theFile = new File(sourceName);
-		if(!theFile.exists() || !theFile.canRead()){
+		if(!CSVReader.canRead(theFile)){
 			System.out.println("File: " + sourceName + " doesn't exist or can't be read.");
 			theFile = null; // Use it only if it works
 		} else {
@@ -128,7 +136,7 @@ public class ReadManager {
 		while(theFile == null){
 			fileName = promptFileName(prompt, keyboard);
 			theFile = new File(fileName);
-			if(!theFile.exists() || !theFile.canRead()){
+			if(!CSVReader.canRead(theFile)){
 				System.out.println("File: " + fileName + " doesn't exist or can't be read.");
 				theFile = null; // Use it only if it works
 			}
@@ -189,6 +197,95 @@ public class ReadManager {
 		return userInput(promptFileName(prompt, keyboard));
 	}
 	
+	/**
+	 * Lets a comparison source be read from the standard input (CSVReader.STDIN): the CSVReader instances keep
+	 * reading the current standard input, while System.in and all the prompts move to the terminal.
+	 * It must be called before any prompt.
+	 * 
+	 * @return true if the prompts can be answered from the terminal, false if there is no terminal
+	 */
+	public static boolean promptFromTerminal(){
+		File terminal = new File(TERMINAL);
+		if(!terminal.canRead())
+			return false;
+		try{
+			InputStream keyboard = new FileInputStream(terminal);
+			CSVReader.setStandardInput(System.in);
+			System.setIn(keyboard);
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Runs all the readers at the same time, each on its own thread, and waits until they are all done.
+	 * The readers must already have their destination and position: several readers can share the same
+	 * URLList, even in the same position (e.g. several files of the same export).
+	 * With more readers than processors, they take turns on one thread per processor.
+	 * 
+	 * As soon as a reader fails, all the other ones are cancelled, so that no reader keeps running
+	 * to fill a list that is not going to be used.
+	 * 
+	 * @param readers the readers to run
+	 * @return an array with the error of each reader, in the same order, or null for the readers that completed successfully
+	 */
+	public static String[] readAll(final CSVReader[] readers){
+		final String[] errors = new String[readers.length];
+		int threads = Math.min(readers.length, Math.max(2, Runtime.getRuntime().availableProcessors()));
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		ArrayList<Future<?>> tasks = new ArrayList<Future<?>>(readers.length);
+		boolean interrupted = false;
+		try{
+			for(int i = 0; i < readers.length; i++){
+				final int index = i;
+				tasks.add(pool.submit(new Runnable(){
+					public void run(){
+						boolean done = false;
+						try{
+							if(readers[index].read()){
+								done = true;
+							} else if(readers[index].isCancelled()){
+								errors[index] = "lettura interrotta per un errore in un'altra sorgente";
+							} else {
+								errors[index] = "lettura non riuscita";
+							}
+						} catch (RuntimeException e) {
+							errors[index] = e.getMessage();
+						} finally {
+							if(!done){
+								// Don't leave the other readers running
+								for(CSVReader other : readers){
+									if(other != readers[index])
+										other.cancel();
+								}
+							}
+						}
+					}
+				}));
+			}
+			for(int i = 0; i < tasks.size(); i++){
+				try{
+					tasks.get(i).get();
+				} catch (ExecutionException e) {
+					errors[i] = e.getCause().toString(); // An Error, the RuntimeExceptions are caught by the task
+				} catch (InterruptedException e) {
+					// Stop all the readers, then wait for them to return
+					interrupted = true;
+					for(CSVReader reader : readers){
+						reader.cancel();
+					}
+					i--;
+				}
+			}
+		} finally {
+			pool.shutdown();
+			if(interrupted)
+				Thread.currentThread().interrupt();
+		}
+		return errors;
+	}
+	
 	// Utility method to prompt the user for a file name and check that it's not empty
 	private static String promptFileName(String prompt, Scanner source){
 		boolean keepAsking = true;
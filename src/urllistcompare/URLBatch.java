@@ -0,0 +1,295 @@
+/**
+ *
+ */
+package urllistcompare;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import urllistcompare.util.ByteKey;
+
+/**
+ * A batch of rows of the same format and position, kept in columns: the raw
+ * urls, packed one after the other in a byte arena (or as Strings, when they
+ * had to be decoded), and the page impressions as primitive longs.
+ * <p>
+ * The batch is the unit of work of the readers: it's filled with the rows of
+ * a block of the source, normalised as a whole (possibly by another thread),
+ * then added to a URLList with addAll(), which validates it once and inserts
+ * the rows in a single loop. Each row is normalised either to a byte key,
+ * without creating any object, or to a URLElement, which the URLList keeps:
+ * only an AGGREGATE URLList can take the byte keys.
+ * <p>
+ * After clear() the same batch can be filled again, reusing its arrays. A
+ * batch is not thread safe: it must be handed from a thread to the next one
+ * through a safe channel (e.g. a BlockingQueue).
+ *
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ */
+public final class URLBatch {
+
+	private static final int CAPACITY = 64; // Minimum number of rows
+	private static final int BYTES = 32; // Expected bytes per url
+
+	private final URLFormat format;
+	private final int position;
+	private final Charset charset;
+	private int size;
+	private long[] impressions;
+	// Raw urls: the bytes between starts[i] and ends[i] of data, or urls[i]
+	private byte[] data;
+	private int length;
+	private int[] starts, ends;
+	private String[] urls;
+	// Normalised rows: the bytes between keyStarts[i] and keyEnds[i] of keys,
+	// or elements[i] and its normalised url paths[i]
+	private boolean normalised, noExtension, byteKeys;
+	private byte[] keys;
+	private int keyLength;
+	private int[] keyStarts, keyEnds;
+	private URLElement[] elements;
+	private String[] paths;
+	private final ByteKey key; // Returned by getKey()
+
+	/**
+	 *
+	 * @param format the format of the urls
+	 * @param position the position of the format in the URLList
+	 * @param charset the charset of the urls added as bytes (ASCII compatible)
+	 * @param capacity the number of rows expected, the batch grows if needed
+	 */
+	public URLBatch(URLFormat format, int position, Charset charset,
+			int capacity) {
+		this.format = format;
+		this.position = position;
+		this.charset = charset;
+		capacity = Math.max(CAPACITY, capacity);
+		impressions = new long[capacity];
+		data = new byte[capacity * BYTES];
+		starts = new int[capacity];
+		ends = new int[capacity];
+		urls = new String[capacity];
+		keys = new byte[capacity * BYTES];
+		keyStarts = new int[capacity];
+		keyEnds = new int[capacity];
+		elements = new URLElement[capacity];
+		paths = new String[capacity];
+		key = new ByteKey(256);
+		clear();
+	}
+
+	public URLFormat
+		getFormat() {
+		return format;
+	}
+
+	public int
+		getPosition() {
+		return position;
+	}
+
+	/**
+	 *
+	 * @return the number of rows in the batch
+	 */
+	public int
+		size() {
+		return size;
+	}
+
+	/**
+	 * Empties the batch, so that it can be filled again.
+	 */
+	public void
+		clear() {
+		Arrays.fill(urls, 0, size, null);
+		Arrays.fill(elements, 0, size, null);
+		Arrays.fill(paths, 0, size, null);
+		size = 0;
+		length = 0;
+		keyLength = 0;
+		normalised = false;
+	}
+
+	/**
+	 * Adds a row whose url is still in the bytes of the source: the bytes are
+	 * copied, nothing is decoded.
+	 *
+	 * @param in the buffer that holds the url
+	 * @param from the index of the first byte of the url
+	 * @param to the index right after the last byte of the url
+	 * @param impressions the page impressions of the row
+	 */
+	public void
+		add(ByteBuffer in, int from, int to, long impressions) {
+		int n = to - from;
+		grow();
+		if (length + n > data.length)
+			data = Arrays.copyOf(data, Math.max(length + n, data.length * 2));
+		for (int i = 0; i < n; i++)
+			data[length + i] = in.get(from + i);
+		starts[size] = length;
+		ends[size] = length + n;
+		length += n;
+		this.impressions[size++] = impressions;
+		normalised = false;
+	}
+
+	/**
+	 * Adds a row whose url has already been decoded.
+	 *
+	 * @param url the url
+	 * @param impressions the page impressions of the row
+	 */
+	public void
+		add(String url, long impressions) {
+		grow();
+		urls[size] = url;
+		this.impressions[size++] = impressions;
+		normalised = false;
+	}
+
+	// Makes room for one more row
+	private void
+		grow() {
+		if (size < impressions.length)
+			return;
+		int capacity = size * 2;
+		impressions = Arrays.copyOf(impressions, capacity);
+		starts = Arrays.copyOf(starts, capacity);
+		ends = Arrays.copyOf(ends, capacity);
+		urls = Arrays.copyOf(urls, capacity);
+		keyStarts = Arrays.copyOf(keyStarts, capacity);
+		keyEnds = Arrays.copyOf(keyEnds, capacity);
+		elements = Arrays.copyOf(elements, capacity);
+		paths = Arrays.copyOf(paths, capacity);
+	}
+
+	/**
+	 *
+	 * @param i the index of a row
+	 * @return the page impressions of the row
+	 */
+	public long
+		getImpressions(int i) {
+		check(i);
+		return impressions[i];
+	}
+
+	/**
+	 *
+	 * @param i the index of a row
+	 * @return the raw url of the row (decoded if it was added as bytes)
+	 */
+	public String
+		getUrl(int i) {
+		check(i);
+		if (urls[i] != null)
+			return urls[i];
+		return new String(data, starts[i], ends[i] - starts[i], charset);
+	}
+
+	/**
+	 *
+	 * @param i the index of a row
+	 * @return the URLElement of the row once the batch has been normalised,
+	 *         null if the row was normalised to a byte key
+	 */
+	public URLElement
+		getElement(int i) {
+		check(i);
+		return elements[i];
+	}
+
+	/*
+	 * The normalised url of a row that became a URLElement: the batch keeps it
+	 * until it's cleared, the element doesn't.
+	 */
+	String
+		getPath(int i) {
+		check(i);
+		return paths[i];
+	}
+
+	/*
+	 * The byte key of a row normalised to bytes, in a key that is reused by
+	 * the next call.
+	 */
+	ByteKey
+		getKey(int i) {
+		key.set(keys, keyStarts[i], keyEnds[i] - keyStarts[i]);
+		return key;
+	}
+
+	private void
+		check(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("Row " + i + " of " + size + "!");
+	}
+
+	/**
+	 * Normalises all the rows. With byteKeys, each url that was added as plain
+	 * ASCII bytes becomes a byte key and every other url a URLElement,
+	 * otherwise every row becomes a URLElement. The normalised url of each
+	 * URLElement is kept by the batch, so that the URLList doesn't compute it
+	 * again.
+	 *
+	 * @param noExtension true to remove the extension from the urls
+	 * @param byteKeys true to normalise the urls to byte keys when possible
+	 */
+	public void
+		normalise(boolean noExtension, boolean byteKeys) {
+		normalise(noExtension, byteKeys, null);
+	}
+
+	/**
+	 * Normalises all the rows like normalise(boolean, boolean), finding the
+	 * urls of the URLElements in a cache.
+	 *
+	 * @param noExtension true to remove the extension from the urls
+	 * @param byteKeys true to normalise the urls to byte keys when possible
+	 * @param cache the cache of the normalised urls, null for none
+	 */
+	public void
+		normalise(boolean noExtension, boolean byteKeys, KeyCache cache) {
+		ByteBuffer in = ByteBuffer.wrap(data);
+		keyLength = 0;
+		this.byteKeys = false;
+		for (int i = 0; i < size; i++) {
+			if (byteKeys && urls[i] == null && format.normalise(in, starts[i],
+					ends[i], noExtension, key)) {
+				if (keyLength + key.length() > keys.length)
+					keys = Arrays.copyOf(keys,
+							Math.max(keyLength + key.length(), keys.length * 2));
+				System.arraycopy(key.array(), 0, keys, keyLength, key.length());
+				keyStarts[i] = keyLength;
+				keyLength += key.length();
+				keyEnds[i] = keyLength;
+				elements[i] = null;
+				paths[i] = null;
+				this.byteKeys = true;
+			} else {
+				if (elements[i] == null)
+					elements[i] = new URLElement(getUrl(i), format,
+							impressions[i]);
+				paths[i] = cache == null ? elements[i].normalise(noExtension)
+						: cache.normalise(format, elements[i].getUrl(), noExtension);
+			}
+		}
+		this.noExtension = noExtension;
+		normalised = true;
+	}
+
+	/*
+	 * Checks if the rows have already been normalised the way that a URLList
+	 * needs them.
+	 */
+	boolean
+		isNormalised(boolean noExtension, boolean aggregate) {
+		return normalised && this.noExtension == noExtension
+				&& (aggregate || !byteKeys);
+	}
+
+}
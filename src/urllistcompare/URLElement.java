@@ -26,10 +26,10 @@ import urllistcompare.exceptions.InvalidUrlException;
  *
  */
 public class URLElement implements Comparable<Object>, Serializable{
-	private static final long serialVersionUID = -6173902609070360677L;
+	private static final long serialVersionUID = -6173902609070360678L;
 	private final String url;
 	private final URLFormat format;
-	private final int impressions;
+	private final long impressions;
 	
 	public URLElement(){
 		url = null;
@@ -37,7 +37,7 @@ public class URLElement implements Comparable<Object>, Serializable{
 		impressions = 0;
 	}
 	
-	public URLElement(String url, URLFormat format, int impressions){
+	public URLElement(String url, URLFormat format, long impressions){
 		this.url = url;
 		this.format = format;
 		this.impressions = impressions;
@@ -48,7 +48,7 @@ public class URLElement implements Comparable<Object>, Serializable{
 	 * @return the page impressions
 	 * @throws InvalidUrlException
 	 */
-	public int getImpressions() {
+	public long getImpressions() {
 		if(url == null) throw new InvalidUrlException("The url is null, it can't be normalised!");
 		return impressions;
 	}
@@ -132,16 +132,17 @@ public class URLElement implements Comparable<Object>, Serializable{
 	 * Note: this class has a natural ordering that is inconsistent with equals.
 	 * The compareTo method only takes into account the page impressions, whereas equals takes into account all fields.
 	 * @return a negative integer, zero, or a positive integer as this object is less than, equal to, or greater than the specified object.
+	 * The value is the difference between the page impressions, capped to the range of an int.
 	 * @throws ClassCastException	if the object being compared is not of the type URLElement
 	 */
 	public int compareTo(Object other){
-		int output = 0;
+		long output = 0;
 		if(other instanceof URLElement){
 			URLElement otherUrl = (URLElement) other;
 			output = getImpressions() - otherUrl.getImpressions();
 		}
 		else throw new ClassCastException("Cannot compare URLElement with other classes.");
-		return output;
+		return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, output));
 	}
 	
 	/**
@@ -3,8 +3,13 @@
  */
 package urllistcompare;
 
+import java.nio.ByteBuffer;
+import java.util.Locale;
 import java.util.Scanner;
 
+import urllistcompare.util.ByteKey;
+import urllistcompare.util.ByteScanner;
+
 /**
  * 
  * An enumeration of the URL formats accepted by the program, it can be easily
@@ -16,15 +21,20 @@ import java.util.Scanner;
  * in the specified format and outputs a String with the path, all in lowercase,
  * without the protocol, domain, query and fragment, but including the file
  * extension if it is present in the original string. E.g.
- * /path1/pathn/file.ext. If a new format is added to the enum, this method
- * needs to be overridden.
+ * /path1/pathn/file.ext. If a new format is added to the enum, it needs to
+ * implement normalise(), which finds the bounds of the path in a single pass
+ * and copies it with path().
  * <p>
  * The enumeration also defines an overloaded normalisePath() method that
  * accepts a String parameter and a boolean parameter. The string parameter
  * works as described above if the boolean is false, otherwise the file
  * extension (defined here as the last dot in the string plus anything that
- * follows it) is removed from the output. If a new format is added to the enum,
- * this method does not need to be overridden.
+ * follows it) is removed from the output.
+ * <p>
+ * Each format also normalises the bytes of a url straight into a ByteKey,
+ * with the same result as the String version encoded in UTF-8, so that a
+ * reader can look up the path without decoding the url. Only plain ASCII is
+ * normalised this way: anything else must go through the String version.
  * 
  * @author Rocco Barbini (roccobarbi@gmail.com)
  *
@@ -32,86 +42,120 @@ import java.util.Scanner;
 public enum URLFormat {
 
 	WTKDEF("www_domain_com.path.path.file_ext") {
-		public String
-			softNormalise(String url) {
-			url = url.replace('.', '/');
-			url = url.replace('_', '.');
-			if (url.contains("/")) {
-				url = url.substring(url.indexOf("/"));
-			} else {
-				url = "/"; // This is the root and it was saved without a
+		String
+			normalise(String url, boolean noExtension) {
+			// Dots become slashes and underscores become dots
+			int start = 0, end = url.length();
+			while (start < end && url.charAt(start) != '.' && url.charAt(start) != '/')
+				start++;
+			if (start == end)
+				return ROOT; // This is the root and it was saved without a
 							// trailing slash
-			}
-			return url.toLowerCase();
+			return path(url, start, end, true, noExtension);
+		}
+
+		public boolean
+			normalise(ByteBuffer url, int from, int to, boolean noExtension, ByteKey output) {
+			int start = from;
+			while (start < to && url.get(start) != '.' && url.get(start) != '/')
+				start++;
+			if (start == to)
+				return root(output);
+			return path(url, start, to, true, noExtension, output);
 		}
 	},
 	URLNORM("http://www.domain.com/path/path/file.ext") {
-		public String
-			softNormalise(String url) {
-			if (url.contains("://")) {
-				url = url.substring(url.indexOf("://") + 3);
-			}
-			if (url.indexOf('/') > -1) {
-				url = url.substring(url.indexOf("/"));
-			} else {
-				url = "/"; // This is the root and it was saved without a
+		String
+			normalise(String url, boolean noExtension) {
+			int end = url.length();
+			int start = url.indexOf('/', hostStart(url, end));
+			if (start < 0)
+				return ROOT; // This is the root and it was saved without a
 							// trailing slash
-			}
-			return url.toLowerCase();
+			return path(url, start, end, false, noExtension);
+		}
+
+		public boolean
+			normalise(ByteBuffer url, int from, int to, boolean noExtension, ByteKey output) {
+			int start = ByteScanner.indexOf(url, hostStart(url, from, to, to), to, '/');
+			if (start == to)
+				return root(output);
+			return path(url, start, to, false, noExtension, output);
 		}
 	},
 	NOPROTNORM("www.domain.com/path/path/file.ext") {
-		public String
-			softNormalise(String url) {
-			if (url.contains("/")) {
-				url = url.substring(url.indexOf("/"));
-			} else {
-				url = "/"; // This is the root and it was saved without a
+		String
+			normalise(String url, boolean noExtension) {
+			int end = url.length();
+			int start = url.indexOf('/');
+			if (start < 0)
+				return ROOT; // This is the root and it was saved without a
 							// trailing slash
-			}
-			return url.toLowerCase();
+			return path(url, start, end, false, noExtension);
+		}
+
+		public boolean
+			normalise(ByteBuffer url, int from, int to, boolean noExtension, ByteKey output) {
+			int start = ByteScanner.indexOf(url, from, to, '/');
+			if (start == to)
+				return root(output);
+			return path(url, start, to, false, noExtension, output);
 		}
 	},
 	FULLURL("http://www.domain.com/PATH/path/file.ext?query#fragment") {
-		public String
-			softNormalise(String url) {
-			url = url.split("#")[0];
-			url = url.split("\\?")[0];
-			if (url.contains("://")) {
-				url = url.substring(url.indexOf("://") + 3);
-			}
-			if (url.contains("/")) {
-				url = url.substring(url.indexOf("/"));
-			} else {
-				url = "/"; // This is the root and it was saved without a
+		String
+			normalise(String url, boolean noExtension) {
+			int end = queryStart(url);
+			int start = url.indexOf('/', hostStart(url, end));
+			if (start < 0 || start >= end)
+				return ROOT; // This is the root and it was saved without a
 							// trailing slash
-			}
-			return url.toLowerCase();
+			return path(url, start, end, false, noExtension);
+		}
+
+		public boolean
+			normalise(ByteBuffer url, int from, int to, boolean noExtension, ByteKey output) {
+			int end = queryStart(url, from, to);
+			int start = ByteScanner.indexOf(url, hostStart(url, from, to, end), to, '/');
+			if (start >= end)
+				return root(output);
+			return path(url, start, end, false, noExtension, output);
 		}
 	},
 	GOOG("/path/path/file.ext?query#fragment") {
-		public String
-			softNormalise(String url) {
-			url = url.split("#")[0];
-			url = url.split("\\?")[0];
-			return url.toLowerCase();
+		String
+			normalise(String url, boolean noExtension) {
+			return path(url, 0, queryStart(url), false, noExtension);
+		}
+
+		public boolean
+			normalise(ByteBuffer url, int from, int to, boolean noExtension, ByteKey output) {
+			return path(url, from, queryStart(url, from, to), false, noExtension, output);
 		}
 	},
 	NOPROTFULL("www.domain.com/PATH/path/file.ext?query#fragment") {
-		public String
-			softNormalise(String url) {
-			url = url.split("#")[0];
-			url = url.split("\\?")[0];
-			if (url.contains("/")) {
-				url = url.substring(url.indexOf("/"));
-			} else {
-				url = "/"; // This is the root and it was saved without a
+		String
+			normalise(String url, boolean noExtension) {
+			int end = queryStart(url);
+			int start = url.indexOf('/');
+			if (start < 0 || start >= end)
+				return ROOT; // This is the root and it was saved without a
 							// trailing slash
-			}
-			return url.toLowerCase();
+			return path(url, start, end, false, noExtension);
+		}
+
+		public boolean
+			normalise(ByteBuffer url, int from, int to, boolean noExtension, ByteKey output) {
+			int end = queryStart(url, from, to);
+			int start = ByteScanner.indexOf(url, from, to, '/');
+			if (start >= end)
+				return root(output);
+			return path(url, start, end, false, noExtension, output);
 		}
 	};
 
+	private static final String ROOT = "/";
+
 	private final String formatSample;
 
 	private URLFormat(String format) {
@@ -153,9 +197,8 @@ public enum URLFormat {
 
 	public String
 		softNormalise(String url) {
-		// Override only
 		// This method represents the normalisation that keeps the extension
-		return url;
+		return normalise(url, false);
 	}
 
 	public String
@@ -164,13 +207,169 @@ public enum URLFormat {
 		// extension
 		// It happens on top of the soft normalisation that is specific to each
 		// format
-		String output = softNormalise(url);
-		if (output.lastIndexOf('.') > -1) {
+		return normalise(url, true);
+	}
+
+	/**
+	 * Each format scans the url once to find the bounds of the path, then the
+	 * path is copied to the output. If noExtension is true, the output stops
+	 * at its last dot.
+	 * 
+	 * @param url
+	 * @param noExtension
+	 * @return The normalised URL path.
+	 */
+	abstract String
+		normalise(String url, boolean noExtension);
+
+	/**
+	 * The same normalisation as normalise(String, boolean), on the bytes of a
+	 * url in an ASCII compatible charset. Nothing is allocated, unless the
+	 * output must grow.
+	 * 
+	 * @param url
+	 *            the buffer that holds the url
+	 * @param from
+	 *            the index of the first byte of the url
+	 * @param to
+	 *            the index right after the last byte of the url
+	 * @param noExtension
+	 * @param output
+	 *            receives the normalised path
+	 * @return false if the path is not plain ASCII (or the default locale
+	 *         doesn't lowercase it the ASCII way): the output is not valid
+	 *         and the url must be normalised as a String
+	 */
+	public abstract boolean
+		normalise(ByteBuffer url, int from, int to, boolean noExtension, ByteKey output);
+
+	// Index of the first character of the query or fragment (the length of
+	// the url if there are none)
+	private static int
+		queryStart(String url) {
+		int end = url.length();
+		for (int i = 0; i < end; i++) {
+			char c = url.charAt(i);
+			if (c == '?' || c == '#')
+				return i;
+		}
+		return end;
+	}
+
+	// Index of the first character after the protocol (0 if there is no
+	// protocol before the end)
+	private static int
+		hostStart(String url, int end) {
+		int index = url.indexOf("://");
+		return index > -1 && index < end ? index + 3 : 0;
+	}
+
+	// The same as queryStart(String), between from and to
+	private static int
+		queryStart(ByteBuffer url, int from, int to) {
+		for (int i = from; i < to; i++) {
+			byte b = url.get(i);
+			if (b == '?' || b == '#')
+				return i;
+		}
+		return to;
+	}
+
+	// The same as hostStart(String, int), between from and to (from if
+	// there is no protocol before end)
+	private static int
+		hostStart(ByteBuffer url, int from, int to, int end) {
+		for (int i = ByteScanner.indexOf(url, from, to - 2, ':'); i < to - 2; i = ByteScanner.indexOf(url, i + 1, to - 2, ':')) {
+			if (url.get(i + 1) == '/' && url.get(i + 2) == '/')
+				return i < end ? i + 3 : from;
+		}
+		return from;
+	}
+
+	private static boolean
+		root(ByteKey output) {
+		output.clear();
+		output.append((byte) '/');
+		return true;
+	}
+
+	// Copies the path between start and end to a new String, in lowercase.
+	// Plain ASCII is converted in a single pass, anything else falls back to
+	// String.toLowerCase() so that the result is always the same.
+	private static String
+		path(String url, int start, int end, boolean wtk, boolean noExtension) {
+		char[] output = new char[end - start];
+		int n = 0, dot = -1;
+		for (int i = start; i < end; i++) {
+			char c = url.charAt(i);
+			if (c > 127 || (c == 'I' && isTurkic()))
+				return slowPath(url, start, end, wtk, noExtension);
+			if (wtk) {
+				if (c == '.')
+					c = '/';
+				else if (c == '_')
+					c = '.';
+			}
+			if (c >= 'A' && c <= 'Z')
+				c += 'a' - 'A';
+			else if (c == '.')
+				dot = n;
+			output[n++] = c;
+		}
+		if (noExtension && dot > -1)
+			n = dot;
+		return new String(output, 0, n);
+	}
+
+	// The same conversion as path(), to the output: false if the path is not
+	// plain ASCII
+	private static boolean
+		path(ByteBuffer url, int start, int end, boolean wtk, boolean noExtension, ByteKey output) {
+		output.clear();
+		int dot = -1;
+		for (int i = start; i < end; i++) {
+			byte b = url.get(i);
+			if (b < 0 || (b == 'I' && isTurkic()))
+				return false;
+			if (wtk) {
+				if (b == '.')
+					b = '/';
+				else if (b == '_')
+					b = '.';
+			}
+			if (b >= 'A' && b <= 'Z')
+				b += 'a' - 'A';
+			else if (b == '.')
+				dot = output.length();
+			output.append(b);
+		}
+		if (noExtension && dot > -1)
+			output.truncate(dot);
+		return true;
+	}
+
+	// The same conversion as path(), for urls that are not plain ASCII
+	private static String
+		slowPath(String url, int start, int end, boolean wtk, boolean noExtension) {
+		String output = url.substring(start, end);
+		if (wtk) {
+			output = output.replace('.', '/');
+			output = output.replace('_', '.');
+		}
+		output = output.toLowerCase();
+		if (noExtension && output.lastIndexOf('.') > -1) {
 			output = output.substring(0, output.lastIndexOf('.'));
 		}
 		return output;
 	}
 
+	// In Turkish and Azeri an uppercase I is not lowercased to i
+	private static boolean
+		isTurkic() {
+		String language = Locale.getDefault().getLanguage();
+		return language.equals("tr") || language.equals("az");
+	}
+
 	// Prints a list of all available formats, preceded by their index
 	// 0 : first format
 	// 1 : second format
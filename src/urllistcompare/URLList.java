@@ -3,50 +3,262 @@
  */
 package urllistcompare;
 
+import java.io.Closeable;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Set;
 
 import urllistcompare.exceptions.InvalidURLListException;
+import urllistcompare.util.ByteKey;
+import urllistcompare.util.InternPool;
 
 /**
  * Implements an hashmap of URLNorm elements that can be processed to extract,
  * for example, any missing elements or elements in which the numbers differ too
  * much between the formats.
+ * <p>
+ * The elements are kept by one of the storage engines listed in Storage: the
+ * default one is a HashMap of URLNorm instances, COMPACT trades some speed
+ * for a much smaller footprint with millions of distinct urls. AGGREGATE only
+ * keeps the page impressions of each normalised url: the URLElement instances
+ * are discarded, so the missing elements can't be extracted and the
+ * extension can't be restored once it has been removed. OFFHEAP keeps
+ * everything in direct memory, which is only released deterministically if
+ * the URLList is closed.
+ * <p>
+ * Several threads can add batches of rows to a URLList at the same time with
+ * addAll(): with CONCURRENT they don't wait for each other, with the other
+ * storage engines they take turns on a lock, once for all the rows of a
+ * batch (the batch is normalised before taking it). The methods that add a
+ * single row take no lock: they must not be called while other threads are
+ * adding to the same URLList, unless the storage is CONCURRENT. All the
+ * other methods must wait until the threads that add elements are done.
+ * <p>
+ * If the keys are interned, all the rows of a normalised url share the
+ * same String for their key, which is also the key of the storage engine
+ * (HASHMAP, COMPACT and CONCURRENT, the engines that keep the elements in the
+ * Java heap). The raw urls are not shared: an element is only equal to the
+ * elements with the very same url instance, which is what keeps two rows with
+ * the same url and impressions (e.g. of two different days) apart.
+ * <p>
+ * The storage engines that keep the elements always key them by their url
+ * with the extension: without the extension the URLList is a view of the
+ * same storage (see HardKeyStore), so addExtension() and remExtension() don't
+ * copy anything. An AGGREGATE URLList is keyed the way it was created,
+ * because it can't recompute the keys of the urls that it didn't keep.
  * 
  * @author Rocco Barbini (roccobarbi@gmail.com)
  *
  */
-public class URLList implements Serializable {
+public class URLList implements Serializable, Closeable {
 
-	private static final long serialVersionUID = 3866668960472537773L;
+	private static final long serialVersionUID = 3866668960472537774L;
 	// Default threshold for absolute differences (if less than 10, ignore)
 	public static final int DEF_ABS_THRESHOLD = 10;
 	// Default threshold for percent differences (if less than 0.01, ignore)
 	public static final double DEF_PER_THRESHOLD = 0.01;
 
-	private HashMap<String, URLNorm> url;
+	/**
+	 * The storage engines that can hold the contents of a URLList.
+	 */
+	public enum Storage {
+		/**
+		 * A HashMap of URLNorm instances.
+		 */
+		HASHMAP {
+			URLStore
+				create(URLFormat[] format, boolean noExtension) {
+				return new HashURLStore(format, noExtension);
+			}
+		},
+		/**
+		 * An open addressing hash table with the keys in a byte arena and the
+		 * impressions in primitive arrays.
+		 */
+		COMPACT {
+			URLStore
+				create(URLFormat[] format, boolean noExtension) {
+				return new CompactURLStore(format, noExtension);
+			}
+		},
+		/**
+		 * Like COMPACT, but without the URLElement instances.
+		 */
+		AGGREGATE {
+			URLStore
+				create(URLFormat[] format, boolean noExtension) {
+				return new CompactURLStore.Aggregate(format, noExtension);
+			}
+		},
+		/**
+		 * Entries and elements in direct buffers, outside of the Java heap,
+		 * released by close().
+		 */
+		OFFHEAP {
+			URLStore
+				create(URLFormat[] format, boolean noExtension) {
+				return new OffHeapURLStore(format, noExtension);
+			}
+		},
+		/**
+		 * A ConcurrentHashMap with concurrent sets and LongAdder counters:
+		 * many threads can add elements at the same time.
+		 */
+		CONCURRENT {
+			URLStore
+				create(URLFormat[] format, boolean noExtension) {
+				return new ConcurrentURLStore(format, noExtension);
+			}
+		};
+
+		abstract URLStore
+			create(URLFormat[] format, boolean noExtension);
+	}
+
+	private URLStore url;
+	private AggregateURLStore aggregate; // The same as url if AGGREGATE, or null
+	private final Storage storage;
 	private URLFormat[] format;
 	private boolean active;
 	private boolean noExtension; // Read-only after the URLList has been
 									// constructed
+	private transient InternPool keys; // null if the keys are not interned
+	// True if url keeps the extension in its keys whatever noExtension says,
+	// false if it's keyed by noExtension (AGGREGATE or an old binary file)
+	private boolean softKeys;
+	private transient HardKeyStore hard; // The view of url without the extension
 
 	public URLList() {
-		url = new HashMap<String, URLNorm>(1500, (float) 0.95);
+		this(Storage.HASHMAP);
+	}
+
+	public URLList(Storage storage) {
 		format = new URLFormat[2];
 		active = false;
 		noExtension = false; // Default behaviour to ensure consistency with
 								// legacy code
+		this.storage = storage;
+		softKeys = storage != Storage.AGGREGATE;
+		url = storage.create(format, noExtension);
+		aggregate = storage == Storage.AGGREGATE ? (AggregateURLStore) url : null;
 	}
 
 	public URLList(URLFormat format01, URLFormat format02,
 			boolean noExtension) {
-		this();
+		this(format01, format02, noExtension, Storage.HASHMAP);
+	}
+
+	public URLList(URLFormat format01, URLFormat format02,
+			boolean noExtension, Storage storage) {
+		this(format01, format02, noExtension, storage, false);
+	}
+
+	/**
+	 * 
+	 * @param format01
+	 *            the format at position 0
+	 * @param format02
+	 *            the format at position 1
+	 * @param noExtension
+	 *            true to remove the extension from the normalised urls
+	 * @param storage
+	 *            the storage engine
+	 * @param intern
+	 *            true to share a single instance of each normalised url among
+	 *            all the elements (ignored by AGGREGATE and OFFHEAP, which
+	 *            don't keep the elements in the Java heap)
+	 */
+	public URLList(URLFormat format01, URLFormat format02,
+			boolean noExtension, Storage storage, boolean intern) {
+		format = new URLFormat[2];
 		format[0] = format01;
 		format[1] = format02;
 		active = true;
 		this.noExtension = noExtension;
+		this.storage = storage;
+		softKeys = storage != Storage.AGGREGATE;
+		url = storage.create(format, noExtension && !softKeys);
+		aggregate = storage == Storage.AGGREGATE ? (AggregateURLStore) url : null;
+		if (intern && storage != Storage.AGGREGATE
+				&& storage != Storage.OFFHEAP)
+			keys = new InternPool();
+	}
+
+	// A view of the same contents with the other normalisation
+	private URLList(URLList original, boolean noExtension) {
+		format = original.format;
+		active = original.active;
+		this.noExtension = noExtension;
+		storage = original.storage;
+		softKeys = true;
+		url = original.url;
+		keys = original.keys;
+		hard = original.hard();
+	}
+
+	// The store as seen by the current normalisation
+	private URLView
+		store() {
+		return softKeys && noExtension ? hard() : url;
+	}
+
+	private HardKeyStore
+		hard() {
+		if (hard == null)
+			hard = new HardKeyStore(url, format, keys);
+		return hard;
+	}
+
+	/*
+	 * True if the elements are added under their url without the extension,
+	 * so the batches must be normalised that way: only if the URLList doesn't
+	 * keep the extension in its keys.
+	 */
+	boolean
+		removesExtension() {
+		return noExtension && !softKeys;
+	}
+
+	/**
+	 * 
+	 * @return the storage engine of this URLList
+	 */
+	public Storage
+		getStorage() {
+		return storage;
+	}
+
+	/**
+	 * 
+	 * @return true if the extension is removed from the normalised urls
+	 */
+	public boolean
+		isNoExtension() {
+		return noExtension;
+	}
+
+	/**
+	 * Releases the memory held outside of the Java heap, if any. The URLList
+	 * can't be used anymore afterwards, nor can the URLList instances returned
+	 * by addExtension() and remExtension() that share its storage.
+	 */
+	public void
+		close() {
+		url.close();
+		if (hard != null)
+			hard.close();
+		if (keys != null)
+			keys.clear();
+	}
+
+	/**
+	 * 
+	 * @return the pool of the normalised urls, with its statistics, or null
+	 *         if the keys are not interned
+	 */
+	public InternPool
+		getInternPool() {
+		return keys;
 	}
 
 	/**
@@ -94,11 +306,11 @@ public class URLList implements Serializable {
 
 	/**
 	 * 
-	 * @return the keys to the HashMap that contains the URLNorm instances
+	 * @return the normalised urls stored in the URLList
 	 */
 	public Set<String>
 		keySet() {
-		return url.keySet();
+		return store().keySet();
 	}
 
 	/**
@@ -109,11 +321,7 @@ public class URLList implements Serializable {
 	 */
 	public URLNorm
 		getUrlNorm(String key) {
-		URLNorm output = null;
-		if (url.keySet().contains(key)) {
-			output = new URLNorm(url.get(key));
-		}
-		return output;
+		return store().get(key);
 	}
 
 	/**
@@ -144,22 +352,113 @@ public class URLList implements Serializable {
 		if (element.getFormat() != format[pos])
 			throw new RuntimeException(
 					"Tried to add a URLElement in the wrong format to a URLList instance!");
-		if (url.containsKey(element.normalise())) {
-			output = url.get(element.normalise()).add(element, pos);
-		} else {
-			URLNorm n = new URLNorm(format[0], format[1], noExtension);
-			output = n.add(element, pos);
-			url.put(n.getUrl(), n);
+		output = url.add(key(element), element, pos);
+		if (hard != null)
+			hard.invalidate();
+		return output;
+	}
+
+	/**
+	 * Adds all the rows of a batch, normalising it first if needed. The batch
+	 * is validated once and its rows are inserted in a single loop, under a
+	 * single lock.
+	 * 
+	 * @param batch
+	 *            the rows to add, all of them in the format and position of
+	 *            the batch
+	 * @return the number of rows added (a duplicated element is not)
+	 */
+	public int
+		addAll(URLBatch batch) {
+		int pos = batch.getPosition();
+		if (!isActive())
+			throw new InvalidURLListException("URLList not active!");
+		if (pos < 0 || pos >= format.length)
+			throw new RuntimeException(
+					"Tried to add a URLBatch to a URLList instance in an invalid position: " + pos + "!");
+		if (batch.getFormat() != format[pos])
+			throw new RuntimeException(
+					"Tried to add a URLBatch in the wrong format to a URLList instance!");
+		boolean aggregate = storage == Storage.AGGREGATE;
+		if (!batch.isNormalised(removesExtension(), aggregate))
+			batch.normalise(removesExtension(), aggregate);
+		if (hard != null)
+			hard.invalidate();
+		if (storage == Storage.CONCURRENT)
+			return addRows(batch, pos);
+		synchronized (url) {
+			return addRows(batch, pos);
+		}
+	}
+
+	private int
+		addRows(URLBatch batch, int pos) {
+		int output = 0;
+		for (int i = 0; i < batch.size(); i++) {
+			URLElement element = batch.getElement(i);
+			if (element == null) {
+				aggregate.addImpressions(batch.getKey(i), batch.getImpressions(i), pos);
+				output++;
+			} else if (url.add(key(batch.getPath(i)), element, pos)) {
+				output++;
+			}
 		}
 		return output;
 	}
 
+	// The key of an element in url, shared with the other elements if the
+	// keys are interned
+	private String
+		key(URLElement element) {
+		return key(element.normalise(removesExtension()));
+	}
+
+	private String
+		key(String normalised) {
+		return keys == null ? normalised : keys.intern(normalised);
+	}
+
+	/**
+	 * Adds the page impressions of a url that the reader has already
+	 * normalised to bytes, without creating a URLElement or a String. Only an
+	 * AGGREGATE URLList can do it, because it doesn't keep the elements.
+	 * 
+	 * @param format
+	 *            the format of the url, which must match the format at pos
+	 * @param key
+	 *            the url normalised by the format, with the extension removed
+	 *            if isNoExtension()
+	 * @param impressions
+	 *            the page impressions to add
+	 * @param pos
+	 *            the position of the format
+	 * @throws InvalidURLListException
+	 *             if the URLList is not aggregate
+	 */
+	public void
+		add(URLFormat format, ByteKey key, long impressions, int pos) {
+		if (!isActive())
+			throw new InvalidURLListException("URLList not active!");
+		if (storage != Storage.AGGREGATE)
+			throw new InvalidURLListException(
+					"Only an aggregate URLList can add a url without its element!");
+		if (pos < 0 || pos >= this.format.length)
+			throw new RuntimeException(
+					"Tried to add a url to a URLList instance in an invalid position: " + pos + "!");
+		if (format != this.format[pos])
+			throw new RuntimeException(
+					"Tried to add a url in the wrong format to a URLList instance!");
+		aggregate.addImpressions(key, impressions, pos);
+	}
+
 	/**
 	 * 
 	 * @param index
 	 *            the index to check for any missing elements
 	 * @return An array of URLElement objects that are missing the format of the
 	 *         specified index
+	 * @throws InvalidURLListException
+	 *             if the URLList is aggregate
 	 */
 	public URLElement[]
 		getMissingElements(int index) {
@@ -167,10 +466,14 @@ public class URLList implements Serializable {
 			throw new IndexOutOfBoundsException();
 		if (!isActive())
 			throw new InvalidURLListException("URLList not active!");
+		if (storage == Storage.AGGREGATE)
+			throw new InvalidURLListException(
+					"An aggregate URLList does not keep the elements!");
 		ArrayList<URLElement> output = new ArrayList<URLElement>(100);
-		for (String k : url.keySet()) {
-			if (url.get(k).isMissing(index)) {
-				for (URLElement e : url.get(k)
+		URLView.Cursor cursor = store().cursor();
+		while (cursor.next()) {
+			if (cursor.getImpressions(index) == 0) {
+				for (URLElement e : cursor
 						.getUrlElements(Math.abs(index - 1))) {
 					output.add(e);
 				}
@@ -223,16 +526,18 @@ public class URLList implements Serializable {
 		if (!isActive())
 			throw new InvalidURLListException("URLList not active!");
 		ArrayList<URLNorm> output = new ArrayList<URLNorm>(100);
-		int tempAbsDiff = 0;
+		long tempAbsDiff = 0;
 		double tempPerDiff = 0.0;
 		URLNorm tempUrl = null;
-		for (String k : url.keySet()) {
-			tempUrl = url.get(k);
-			tempAbsDiff = tempUrl.getDifference(index);
+		URLView.Cursor cursor = store().cursor();
+		while (cursor.next()) {
+			tempAbsDiff = cursor.getImpressions(index)
+					- cursor.getImpressions(1 - index);
 			if (Math.abs(tempAbsDiff) > DEF_ABS_THRESHOLD) {
+				tempUrl = cursor.getUrlNorm(); // Deep copy
 				tempPerDiff = tempUrl.getDifferencePercent(index);
 				if (Math.abs(tempPerDiff) > DEF_PER_THRESHOLD) {
-					output.add(new URLNorm(tempUrl)); // Deep copy
+					output.add(tempUrl);
 				}
 			}
 		}
@@ -244,20 +549,29 @@ public class URLList implements Serializable {
 	/**
 	 * 
 	 * @return a reference to the current URLList if noExtension is false,
-	 *         otherwise a new URLList recalculated with the extension (soft
-	 *         normalisation)
+	 *         otherwise a URLList with the extension (soft normalisation):
+	 *         a view that shares the storage of the current one, or a new
+	 *         URLList recalculated from its elements if the current one was
+	 *         read from an old binary file
+	 * @throws InvalidURLListException
+	 *             if the extension has to be restored in an aggregate URLList
 	 */
 	public URLList
 		addExtension() {
 		if (!noExtension) {
 			return this;
+		} else if (softKeys) {
+			return new URLList(this, false);
+		} else if (storage == Storage.AGGREGATE) {
+			throw new InvalidURLListException(
+					"The extension can't be restored in an aggregate URLList!");
 		} else {
 			URLList output = new URLList(this.getFormat(0), this.getFormat(1),
-					false);
-			for (String key : this.keySet()) {
+					false, storage, keys != null);
+			URLView.Cursor cursor = url.cursor();
+			while (cursor.next()) {
 				for (int i = 0; i < 2; i++) {
-					for (URLElement element : this.getUrlNorm(key)
-							.getUrlElements(i)) {
+					for (URLElement element : cursor.getUrlElements(i)) {
 						output.add(element, i);
 					}
 				}
@@ -269,20 +583,38 @@ public class URLList implements Serializable {
 	/**
 	 * 
 	 * @return a reference to the current URLList if noExtension is true,
-	 *         otherwise a new URLList recalculated without the extension (hard
-	 *         normalisation)
+	 *         otherwise a URLList without the extension (hard
+	 *         normalisation): a view that shares the storage of the current
+	 *         one, or a new URLList recalculated from its contents if the
+	 *         current one is aggregate
 	 */
 	public URLList
 		remExtension() {
 		if (noExtension) {
 			return this;
+		} else if (softKeys) {
+			return new URLList(this, true);
+		} else if (storage == Storage.AGGREGATE) {
+			// The hard normalisation is the soft one without the extension
+			URLList output = new URLList(this.getFormat(0), this.getFormat(1),
+					true, storage);
+			URLView.Cursor cursor = url.cursor();
+			while (cursor.next()) {
+				String key = cursor.key();
+				if (key.lastIndexOf('.') > -1)
+					key = key.substring(0, key.lastIndexOf('.'));
+				for (int i = 0; i < 2; i++) {
+					output.aggregate.addImpressions(key, cursor.getImpressions(i), i);
+				}
+			}
+			return output;
 		} else {
 			URLList output = new URLList(this.getFormat(0), this.getFormat(1),
-					true);
-			for (String key : this.keySet()) {
+					true, storage, keys != null);
+			URLView.Cursor cursor = url.cursor();
+			while (cursor.next()) {
 				for (int i = 0; i < 2; i++) {
-					for (URLElement element : this.getUrlNorm(key)
-							.getUrlElements(i)) {
+					for (URLElement element : cursor.getUrlElements(i)) {
 						output.add(element, i);
 					}
 				}
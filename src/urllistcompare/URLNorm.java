@@ -31,9 +31,9 @@ import urllistcompare.util.ArraySort;
  */
 public class URLNorm implements Serializable {
 	
-	private static final long serialVersionUID = 7469036981953949805L;
+	private static final long serialVersionUID = 7469036981953949806L;
 	private HashSet<URLElement> elements[];
-	private int impressions[];
+	private long impressions[];
 	private URLFormat format[];
 	private String url; // Read-only after the URLNorm has been constructed
 	private boolean noExtension; // Read-only after the URLNorm has been
@@ -44,7 +44,7 @@ public class URLNorm implements Serializable {
 		elements = new HashSet[2];
 		elements[0] = new HashSet<URLElement>();
 		elements[1] = new HashSet<URLElement>();
-		impressions = new int[2];
+		impressions = new long[2];
 		format = new URLFormat[2];
 		noExtension = false; // Default behaviour to ensure consistency with legacy code
 	}
@@ -55,29 +55,36 @@ public class URLNorm implements Serializable {
 		elements = new HashSet[2];
 		elements[0] = new HashSet<URLElement>();
 		elements[1] = new HashSet<URLElement>();
-		impressions = new int[2];
+		impressions = new long[2];
 		format = new URLFormat[2];
 		format[0] = format01;
 		format[1] = format02;
 		this.noExtension = noExtension;
 	}
 	
-	// Provides a deep copy
+	// Provides a deep copy (the URLElement instances are immutable, so they
+	// are shared)
 	@SuppressWarnings("unchecked")
 	public URLNorm(URLNorm original) {
 		elements = new HashSet[2];
-		elements[0] = new HashSet<URLElement>();
-		elements[1] = new HashSet<URLElement>();
-		impressions = new int[2];
+		elements[0] = new HashSet<URLElement>(original.elements[0]);
+		elements[1] = new HashSet<URLElement>(original.elements[1]);
+		impressions = original.impressions.clone();
 		format = new URLFormat[2];
 		format[0] = original.getFormats()[0];
 		format[1] = original.getFormats()[1];
 		noExtension = original.getNoExtension();
 		url = original.getUrl();
-		for (URLElement e : original.getUrlElements(0))
-			add(e, 0);
-		for (URLElement e : original.getUrlElements(1))
-			add(e, 1);
+	}
+
+	// Only the totals, without any URLElement: used by aggregate URLList
+	// instances
+	URLNorm(URLFormat format01, URLFormat format02, boolean noExtension,
+			String url, long[] impressions) {
+		this(format01, format02, noExtension);
+		this.url = url;
+		this.impressions[0] = impressions[0];
+		this.impressions[1] = impressions[1];
 	}
 	
 	// Check: are both formats set?
@@ -106,7 +113,7 @@ public class URLNorm implements Serializable {
 		return format;
 	}
 
-	public int[]
+	public long[]
 		getImpressions() {
 		if (!isFormatSet()) {
 			throw new InvalidURLNormException("The URL formats are not set!");
@@ -125,7 +132,7 @@ public class URLNorm implements Serializable {
 	 *             if at least one of the formats has not been set correctly or
 	 *             the wrong URLFormat is passed as an argument
 	 */
-	public int
+	public long
 		getDifference() {
 		if (!isFormatSet()) {
 			throw new InvalidURLNormException(
@@ -145,7 +152,7 @@ public class URLNorm implements Serializable {
 	 *             if at least one of the formats has not been set correctly or
 	 *             the wrong URLFormat is passed as an argument
 	 */
-	public int
+	public long
 		getDifference(int index) {
 		if (!isFormatSet()) {
 			throw new InvalidURLNormException(
@@ -246,6 +253,15 @@ public class URLNorm implements Serializable {
 	 */
 	public boolean
 		add(URLElement u, int pos) {
+		return add(u, pos, null);
+	}
+
+	/*
+	 * The same as add(u, pos), for an element whose normalised url is already
+	 * known (e.g. the key used by the store): null to normalise it here.
+	 */
+	boolean
+		add(URLElement u, int pos, String key) {
 		boolean output = false;
 		if (!isFormatSet()) {
 			throw new InvalidURLNormException("Tried to add an element without defining both formats.");
@@ -256,9 +272,11 @@ public class URLNorm implements Serializable {
 		if (u.getFormat() != format[pos])
 			throw new RuntimeException(
 					"Tried to add a URLElement in the wrong format to a URLNorm instance!");
+		if (key == null)
+			key = u.normalise(noExtension);
 		if (url == null) {
-			url = u.normalise(noExtension);
-		} else if (!u.normalise(noExtension).equals(url))
+			url = key;
+		} else if (!key.equals(url))
 			throw new InvalidURLNormException("Wrong URL!");
 		if (u.getFormat() == format[pos]) {
 			if (elements[pos].add(u)) {
@@ -0,0 +1,32 @@
+/**
+ *
+ */
+package urllistcompare;
+
+import java.io.Serializable;
+
+/**
+ * The storage engine behind a URLList: it maps each normalised url to the
+ * page impressions and the URLElement instances of each format.
+ * <p>
+ * A store does not validate its input: URLList checks the position and the
+ * format of each element before adding it. Everything but adding the
+ * elements is defined by URLView, which is all that a view of a store
+ * (e.g. HardKeyStore) implements.
+ *
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ */
+interface URLStore extends URLView, Serializable {
+
+	/**
+	 * Adds an element, creating the entry for its normalised url if needed.
+	 *
+	 * @param key the normalised url of the element
+	 * @param element the URLElement to add
+	 * @param pos the position of the element (if it's format 1 or 2)
+	 * @return true if successful, false otherwise (e.g. duplicated element)
+	 */
+	public boolean
+		add(String key, URLElement element, int pos);
+}
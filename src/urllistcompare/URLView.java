@@ -0,0 +1,98 @@
+/**
+ *
+ */
+package urllistcompare;
+
+import java.util.Set;
+
+/**
+ * The entries of a URLList, read-only: either a URLStore or a view of it that
+ * presents the same elements under different keys (see HardKeyStore).
+ *
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ */
+interface URLView {
+
+	/**
+	 *
+	 * @return the number of normalised urls in the store
+	 */
+	public int
+		size();
+
+	/**
+	 *
+	 * @return the normalised urls in the store
+	 */
+	public Set<String>
+		keySet();
+
+	/**
+	 *
+	 * @param key the normalised url that needs to be found
+	 * @return a deep copy of the entry as a URLNorm, or null if not present
+	 */
+	public URLNorm
+		get(String key);
+
+	/**
+	 *
+	 * @return a new cursor positioned before the first entry
+	 */
+	public Cursor
+		cursor();
+
+	/**
+	 * Releases any resource held outside of the Java heap. The store can't be
+	 * used anymore afterwards.
+	 */
+	public void
+		close();
+
+	/**
+	 * Iterates over the entries of a store or of a view without creating a
+	 * URLNorm for each of them.
+	 */
+	interface Cursor {
+
+		/**
+		 * Moves the cursor to the next entry.
+		 *
+		 * @return true if there is a new entry, false at the end of the store
+		 */
+		public boolean
+			next();
+
+		/**
+		 *
+		 * @return the normalised url of the current entry
+		 */
+		public String
+			key();
+
+		/**
+		 *
+		 * @param pos the index of the format
+		 * @return the page impressions of the current entry for the format
+		 */
+		public long
+			getImpressions(int pos);
+
+		/**
+		 *
+		 * @param pos the index of the format
+		 * @return a sorted (desc) array of the elements of the current entry
+		 *         for the format (empty if the store doesn't keep them)
+		 */
+		public URLElement[]
+			getUrlElements(int pos);
+
+		/**
+		 *
+		 * @return a deep copy of the current entry as a URLNorm
+		 */
+		public URLNorm
+			getUrlNorm();
+	}
+}
@@ -0,0 +1,53 @@
+package urllistcompare.unittests;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+import urllistcompare.util.ByteScanner;
+
+public class ByteScannerTest {
+
+	@Test
+	public void testIndexOf() {
+		Random random = new Random(14);
+		ByteOrder[] orders = {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN};
+		for(int n = 0; n < 20000; n++){
+			byte[] data = new byte[random.nextInt(40)];
+			for(int i = 0; i < data.length; i++){
+				data[i] = (byte) "ab;\"\n\r\u0080\u00ff\u0000".charAt(random.nextInt(9));
+			}
+			int from = data.length == 0 ? 0 : random.nextInt(data.length);
+			int to = from + random.nextInt(data.length - from + 1);
+			for(ByteOrder order : orders){
+				ByteBuffer buffer = ByteBuffer.wrap(data).order(order);
+				for(int b : new int[] {';', '"', 0x80, 0xff, 0}){
+					assertEquals("Wrong index of " + b, scalarIndexOf(data, from, to, b), ByteScanner.indexOf(buffer, from, to, b));
+				}
+				assertEquals("Wrong line end", Math.min(scalarIndexOf(data, from, to, '\n'), scalarIndexOf(data, from, to, '\r')),
+						ByteScanner.indexOfLineEnd(buffer, from, to));
+			}
+		}
+	}
+
+	@Test
+	public void testIndexOfOutOfRange() {
+		ByteBuffer buffer = ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9});
+		assertEquals("A value larger than a byte was found", 9, ByteScanner.indexOf(buffer, 0, 9, 0x101));
+		assertEquals("A negative value was found", 9, ByteScanner.indexOf(buffer, 0, 9, -1));
+		assertEquals("A byte beyond the range was found", 8, ByteScanner.indexOf(buffer, 0, 8, 9));
+	}
+
+	private int scalarIndexOf(byte[] data, int from, int to, int b) {
+		for(int i = from; i < to; i++){
+			if((data[i] & 0xff) == b)
+				return i;
+		}
+		return to;
+	}
+
+}
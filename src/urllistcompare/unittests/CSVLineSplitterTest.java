@@ -0,0 +1,103 @@
+package urllistcompare.unittests;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+import urllistcompare.util.CSVLineSplitter;
+
+public class CSVLineSplitterTest {
+
+	@Test
+	public void testSplit() {
+		CSVLineSplitter splitter = new CSVLineSplitter(';');
+		String[][] lines = {
+				{"a;b;c", "a", "b", "c"},
+				{"\"a;b\";c", "a;b", "c"},
+				{"a;\"b\"\"c\";d", "a", "b\"c", "d"},
+				{"a;b;", "a", "b", ""},
+				{";", "", ""},
+				{"a\"b;c", "a\"b", "c"},
+				{""}
+		};
+		for(String[] line : lines){
+			try{
+				assertEquals("Wrong number of columns in " + line[0], line.length - 1, splitter.split(line[0]));
+				for(int i = 1; i < line.length; i++){
+					assertEquals("Wrong column " + (i - 1) + " in " + line[0], line[i], splitter.column(line[0], i - 1));
+				}
+			} catch (Exception e) {
+				fail("Unexpected exception with " + line[0] + ": " + e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void testSplitErrors() {
+		CSVLineSplitter splitter = new CSVLineSplitter(';');
+		String[] lines = {"\"a;b", "a;\"b\"c;d", "a;\"b\""};
+		for(String line : lines){
+			try{
+				splitter.split(line);
+				fail("No exception with the malformed line " + line);
+			} catch (Exception e) {
+				System.out.println(e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void testSplitBytes() {
+		CSVLineSplitter splitter = new CSVLineSplitter('\t');
+		String line = "\"http://www.domain.com/a\"\"b\"\t1.234\t\tx";
+		ByteBuffer buffer = ByteBuffer.wrap(("#" + line + "#").getBytes(StandardCharsets.US_ASCII));
+		try{
+			assertEquals("Wrong number of columns", 4, splitter.split(buffer, 1, line.length() + 1));
+			assertEquals("Wrong first column", "http://www.domain.com/a\"b", splitter.column(buffer, 0, StandardCharsets.US_ASCII));
+			assertEquals("Wrong second column", "1.234", splitter.column(buffer, 1, StandardCharsets.US_ASCII));
+			assertEquals("Wrong third column", "", splitter.column(buffer, 2, StandardCharsets.US_ASCII));
+			assertEquals("Different number of columns for bytes and chars", splitter.getCount(), splitter.split(line));
+			assertEquals("Different column for bytes and chars", "http://www.domain.com/a\"b", splitter.column(line, 0));
+		} catch (Exception e) {
+			fail("Unexpected exception: " + e.getMessage());
+		}
+	}
+	
+	@Test
+	public void testSplitBytesEquivalence() {
+		// The bytes are split 8 at a time: the result must be the same as for the chars, one at a time
+		CSVLineSplitter bytes = new CSVLineSplitter(';'), chars = new CSVLineSplitter(';');
+		Random random = new Random(14);
+		for(int n = 0; n < 50000; n++){
+			StringBuilder line = new StringBuilder();
+			int length = random.nextInt(30);
+			for(int i = 0; i < length; i++){
+				line.append("ab;\"".charAt(random.nextInt(4)));
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(("##" + line + "#").getBytes(StandardCharsets.US_ASCII));
+			String charError = null, byteError = null;
+			try{
+				chars.split(line);
+			} catch (Exception e) {
+				charError = e.getMessage();
+			}
+			try{
+				bytes.split(buffer, 2, line.length() + 2);
+			} catch (Exception e) {
+				byteError = e.getMessage();
+			}
+			assertEquals("Different errors for " + line, charError == null, byteError == null);
+			if(charError != null)
+				continue;
+			assertEquals("Different number of columns for " + line, chars.getCount(), bytes.getCount());
+			for(int i = 0; i < chars.getCount(); i++){
+				assertEquals("Different column " + i + " for " + line, chars.column(line, i), bytes.column(buffer, i, StandardCharsets.US_ASCII));
+			}
+		}
+	}
+
+}
@@ -2,13 +2,30 @@ package urllistcompare.unittests;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.junit.Test;
 
 import urllistcompare.CSVReader;
+import urllistcompare.KeyCache;
+import urllistcompare.ReadManager;
 import urllistcompare.URLFormat;
 import urllistcompare.URLList;
+import urllistcompare.URLNorm;
+import urllistcompare.util.StageStats;
 
 public class CSVReaderTest {
 
@@ -145,5 +162,528 @@ public class CSVReaderTest {
 			System.out.println(e.getMessage());
 		}
 	}
+	
+	@Test
+	public void testReadMapped() throws IOException {
+		File source = File.createTempFile("urllistcompare", ".csv");
+		source.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(source);
+		out.write(("url;impressions;other\r\n"
+				+ "http://www.domain.com/path1/file.ext;1.200,4;x\n"
+				+ "\"http://www.domain.com/path1/fi;le.ext\";25;\r"
+				+ "http://www.domain.com/path2/\"\"q\"\";3;\"a\"\"b\";\n"
+				+ "\"http://www.domain.com/path1/file.ext\";7,5;\n"
+				+ "http://www.domain.com/path3/;1;").getBytes("US-ASCII"));
+		out.close();
+		URLList scanned = readWith(source, CSVReader.Engine.SCANNER);
+		URLList mapped = readWith(source, CSVReader.Engine.MAPPED);
+		assertSameContents(scanned, mapped);
+		assertTrue("Wrong impressions with the mapped engine", mapped.getUrlNorm("/path1/file.ext").getImpressions()[0] == 1208);
+	}
+	
+	@Test
+	public void testReadParallel() throws IOException {
+		File source = File.createTempFile("urllistcompare", ".csv");
+		source.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(source);
+		StringBuilder rows = new StringBuilder("url;impressions\n");
+		for(int i = 0; i < 120000; i++){
+			rows.append(i % 3 == 0 ? "\"http://www.domain.com/p;" : "http://www.domain.com/p");
+			rows.append(i % 1000);
+			rows.append(i % 3 == 0 ? "/file.ext\";" : "/file.ext;");
+			rows.append(i % 7);
+			rows.append(",5");
+			rows.append(i % 2 == 0 ? "\r\n" : "\n");
+		}
+		out.write(rows.toString().getBytes("US-ASCII"));
+		out.close();
+		URLList scanned = readWith(source, CSVReader.Engine.SCANNER);
+		URLList parallel = readWith(source, CSVReader.Engine.PARALLEL);
+		assertSameContents(scanned, parallel);
+		parallel = readWith(source, CSVReader.Engine.PARALLEL, URLList.Storage.CONCURRENT);
+		assertSameContents(scanned, parallel);
+		URLList piped = readWith(source, CSVReader.Engine.PIPELINE);
+		assertSameContents(scanned, piped);
+	}
+	
+	@Test
+	public void testReadPipeline() throws IOException {
+		File source = File.createTempFile("urllistcompare", ".csv");
+		source.deleteOnExit();
+		StringBuilder rows = new StringBuilder("url;impressions\r\n");
+		for(int i = 0; i < 50000; i++){
+			rows.append("http://www.domain.com/p").append(i % 500).append("/file.ext;").append(i % 9).append("\r\n");
+		}
+		write(source, rows.toString());
+		URLList list = new URLList(URLFormat.URLNORM, URLFormat.GOOG, false);
+		CSVReader reader = newReader(source, URLFormat.URLNORM, list, 0, CSVReader.Engine.PIPELINE);
+		assertTrue("The file could not be read", reader.read());
+		assertEquals("Wrong number of urls", 500, list.keySet().size());
+		StageStats[] stats = reader.getPipelineStats();
+		assertEquals("Wrong number of stages", 4, stats.length);
+		assertEquals("Wrong number of bytes read", source.length(), stats[0].getItems());
+		for(int i = 1; i < stats.length; i++){
+			assertEquals("Wrong number of lines in stage " + stats[i].getName(), 50000, stats[i].getItems());
+		}
+		// The errors report the number of the line, like the other engines
+		rows.append("http://www.domain.com/p1/file.ext;x\r\n");
+		write(source, rows.toString());
+		reader = newReader(source, URLFormat.URLNORM, new URLList(URLFormat.URLNORM, URLFormat.GOOG, false), 0, CSVReader.Engine.PIPELINE);
+		try{
+			reader.read();
+			fail("A broken line was accepted");
+		} catch (RuntimeException e) {
+			assertTrue("Wrong error: " + e.getMessage(), e.getMessage().contains("line 50001"));
+		}
+	}
+	
+	@Test
+	public void testReadAll() throws IOException {
+		File first = File.createTempFile("urllistcompare", ".csv");
+		first.deleteOnExit();
+		File second = File.createTempFile("urllistcompare", ".csv");
+		second.deleteOnExit();
+		StringBuilder rows = new StringBuilder("url;impressions\n");
+		long expected = 0; // Impressions of /p1/file.ext
+		for(int i = 0; i < 120000; i++){
+			rows.append("http://www.domain.com/p").append(i % 1000).append("/file.ext;").append(i % 7).append('\n');
+			if(i % 1000 == 1)
+				expected += i % 7;
+		}
+		write(first, rows.toString());
+		write(second, "url;impressions\n/p1/file.ext;4\n/p2/file.ext;2\n");
+		// Both sources in the same list, each in its own position
+		for(URLList.Storage storage : URLList.Storage.values()){
+			URLList list = new URLList(URLFormat.URLNORM, URLFormat.GOOG, false, storage);
+			CSVReader[] readers = {
+					newReader(first, URLFormat.URLNORM, list, 0, CSVReader.Engine.MAPPED),
+					newReader(second, URLFormat.GOOG, list, 1, CSVReader.Engine.SCANNER)};
+			String[] errors = ReadManager.readAll(readers);
+			assertNull("Unexpected error with " + storage, errors[0]);
+			assertNull("Unexpected error with " + storage, errors[1]);
+			assertEquals("Wrong number of urls with " + storage, 1000, list.keySet().size());
+			URLNorm norm = list.getUrlNorm("/p1/file.ext");
+			assertEquals("Wrong impressions with " + storage, expected, norm.getImpressions()[0]);
+			assertEquals("Wrong impressions with " + storage, 4, norm.getImpressions()[1]);
+			list.close();
+		}
+		// Several files in the same position, with the settings of the first one
+		URLList joined = new URLList(URLFormat.URLNORM, URLFormat.GOOG, false);
+		CSVReader reader = newReader(first, URLFormat.URLNORM, joined, 0, CSVReader.Engine.PARALLEL);
+		CSVReader[] sources = {reader, reader.withSource(first), newReader(second, URLFormat.GOOG, joined, 1, CSVReader.Engine.SCANNER)};
+		String[] joinedErrors = ReadManager.readAll(sources);
+		for(int i = 0; i < sources.length; i++){
+			assertNull("Unexpected error for source " + i, joinedErrors[i]);
+		}
+		assertEquals("Wrong number of rows", 120000, sources[0].getRows());
+		assertEquals("Wrong number of rows", 120000, sources[1].getRows());
+		assertEquals("Wrong number of rows", 2, sources[2].getRows());
+		assertEquals("Wrong impressions of two files", 2 * expected, joined.getUrlNorm("/p1/file.ext").getImpressions()[0]);
+		// A broken source is reported on its own and doesn't leave the other reader running
+		write(second, "url;impressions\n/p1/file.ext;4\n/p2/file.ext;2;x\n");
+		URLList list = new URLList(URLFormat.URLNORM, URLFormat.GOOG, false);
+		CSVReader[] readers = {
+				newReader(first, URLFormat.URLNORM, list, 0, CSVReader.Engine.SCANNER),
+				newReader(second, URLFormat.GOOG, list, 1, CSVReader.Engine.SCANNER)};
+		String[] errors = ReadManager.readAll(readers);
+		assertNotNull("The broken source was not reported", errors[1]);
+		assertTrue("The other reader was not cancelled", readers[0].isCancelled());
+		// A cancelled reader doesn't read anything
+		assertFalse("A cancelled reader can't read", readers[0].read());
+	}
+	
+	private void write(File file, String contents) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(contents.getBytes("US-ASCII"));
+		out.close();
+	}
+	
+	private CSVReader newReader(File source, URLFormat format, URLList list, int position, CSVReader.Engine engine) {
+		return new CSVReader
+				.CSVReaderBuilder(source)
+				.headers(true)
+				.urlI(0)
+				.impI(1)
+				.vSep(';')
+				.dSep(',')
+				.isTSep(false)
+				.format(format)
+				.destination(list)
+				.position(position)
+				.engine(engine)
+				.build();
+	}
+	
+	@Test
+	public void testReadCompressed() throws IOException {
+		File plain = File.createTempFile("urllistcompare", ".csv");
+		plain.deleteOnExit();
+		File gzip = File.createTempFile("urllistcompare", ".csv.gz");
+		gzip.deleteOnExit();
+		File zlib = File.createTempFile("urllistcompare", ".csv.zz");
+		zlib.deleteOnExit();
+		StringBuilder rows = new StringBuilder("\ufeffurl;impressions\n");
+		for(int i = 0; i < 80000; i++){
+			rows.append("http://www.domain.com/p").append(i % 700).append("/file.ext;").append(i % 5).append(i % 2 == 0 ? "\r\n" : "\n");
+		}
+		byte[] bytes = rows.toString().getBytes("UTF-8");
+		write(plain, rows.toString());
+		// Several members, with lines and terminators split between them
+		FileOutputStream out = new FileOutputStream(gzip);
+		int[] cuts = {0, 17, 18, 100000, 100001, 700000, bytes.length};
+		for(int i = 1; i < cuts.length; i++){
+			GZIPOutputStream member = new GZIPOutputStream(out){
+				@Override
+				public void close() throws IOException {
+					finish(); // Keep the file open for the next member
+				}
+			};
+			member.write(bytes, cuts[i - 1], cuts[i] - cuts[i - 1]);
+			member.close();
+		}
+		out.close();
+		out = new FileOutputStream(zlib);
+		DeflaterOutputStream deflater = new DeflaterOutputStream(out);
+		deflater.write(bytes);
+		deflater.close();
+		URLList expected = readWith(plain, CSVReader.Engine.MAPPED);
+		for(CSVReader.Engine engine : CSVReader.Engine.values()){
+			assertSameContents(expected, readWith(gzip, engine));
+			assertSameContents(expected, readWith(zlib, engine));
+		}
+		// A corrupt member is reported as a reading error
+		byte[] compressed = Files.readAllBytes(gzip.toPath());
+		compressed[compressed.length / 2] ^= 0x55;
+		out = new FileOutputStream(gzip);
+		out.write(compressed);
+		out.close();
+		URLList list = new URLList(URLFormat.URLNORM, URLFormat.GOOG, false);
+		assertFalse("A corrupt file was read", newReader(gzip, URLFormat.URLNORM, list, 0, CSVReader.Engine.PIPELINE).read());
+	}
+	
+	@Test
+	public void testReadZip() throws IOException {
+		File plain = File.createTempFile("urllistcompare", ".csv");
+		plain.deleteOnExit();
+		File zip = File.createTempFile("urllistcompare", ".zip");
+		zip.deleteOnExit();
+		StringBuilder all = new StringBuilder("url;impressions\n");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+		out.putNextEntry(new ZipEntry("exports/"));
+		out.closeEntry();
+		for(int e = 0; e < 5; e++){
+			StringBuilder rows = new StringBuilder("url;impressions\n");
+			for(int i = 0; i < 20000; i++){
+				String row = "http://www.domain.com/p" + ((i + e) % 900) + "/file.ext;" + (i % 7) + "\n";
+				rows.append(row);
+				all.append(row);
+			}
+			out.putNextEntry(new ZipEntry("exports/day" + e + ".csv"));
+			out.write(rows.toString().getBytes("UTF-8"));
+			out.closeEntry();
+		}
+		// Entries that must be skipped
+		out.putNextEntry(new ZipEntry("__MACOSX/exports/._day0.csv"));
+		out.write(new byte[]{0, 5, 22, 7});
+		out.closeEntry();
+		out.putNextEntry(new ZipEntry("exports/.hidden.csv"));
+		out.write("url;impressions\nnot;a number\n".getBytes("UTF-8"));
+		out.closeEntry();
+		out.putNextEntry(new ZipEntry("exports/readme.txt"));
+		out.write("url;impressions\nnot;a number\n".getBytes("UTF-8"));
+		out.closeEntry();
+		out.close();
+		write(plain, all.toString());
+		URLList expected = readWith(plain, CSVReader.Engine.MAPPED);
+		URLList list = new URLList(URLFormat.URLNORM, URLFormat.GOOG, false);
+		CSVReader reader = new CSVReader
+				.CSVReaderBuilder(zip)
+				.headers(true)
+				.urlI(0)
+				.impI(1)
+				.vSep(';')
+				.dSep(',')
+				.isTSep(true)
+				.tSep('.')
+				.format(URLFormat.URLNORM)
+				.destination(list)
+				.position(0)
+				.parallelism(4)
+				.entries("*.csv")
+				.build();
+		assertTrue("The archive could not be read", reader.read());
+		assertEquals("Wrong number of rows", 100000, reader.getRows());
+		assertSameContents(expected, list);
+		// Without a pattern, the text file is read too and can't be parsed
+		list = new URLList(URLFormat.URLNORM, URLFormat.GOOG, false);
+		boolean read;
+		try{
+			read = newReader(zip, URLFormat.URLNORM, list, 0, CSVReader.Engine.SCANNER).read();
+		} catch (RuntimeException e) {
+			read = false;
+		}
+		assertFalse("An entry that can't be parsed was read", read);
+		// No entry matches
+		list = new URLList(URLFormat.URLNORM, URLFormat.GOOG, false);
+		reader = new CSVReader
+				.CSVReaderBuilder(zip)
+				.headers(true)
+				.format(URLFormat.URLNORM)
+				.destination(list)
+				.position(0)
+				.entries("*.tsv")
+				.build();
+		assertFalse("An archive without matching entries was read", reader.read());
+	}
+	
+	@Test
+	public void testReadStandardInput() throws IOException {
+		File plain = File.createTempFile("urllistcompare", ".csv");
+		plain.deleteOnExit();
+		StringBuilder rows = new StringBuilder("url;impressions\n");
+		for(int i = 0; i < 50000; i++){
+			rows.append("http://www.domain.com/p").append(i % 600).append("/file.ext;").append(i % 3).append("\n");
+		}
+		write(plain, rows.toString());
+		URLList expected = readWith(plain, CSVReader.Engine.MAPPED);
+		File stdin = new File(CSVReader.STDIN);
+		assertTrue("The standard input can't be read", CSVReader.canRead(stdin));
+		try{
+			// Plain text, with any engine
+			for(CSVReader.Engine engine : CSVReader.Engine.values()){
+				CSVReader.setStandardInput(new ByteArrayInputStream(rows.toString().getBytes("UTF-8")));
+				URLList list = new URLList(URLFormat.URLNORM, URLFormat.GOOG, false);
+				CSVReader reader = newReader(stdin, URLFormat.URLNORM, list, 0, engine);
+				assertEquals("Wrong name", "stdin", reader.getName());
+				assertTrue("The standard input could not be read with engine " + engine, reader.read());
+				assertEquals("Wrong number of rows", 50000, reader.getRows());
+				assertEquals("Different keys", expected.keySet(), list.keySet());
+			}
+			// Compressed
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+			gzip.write(rows.toString().getBytes("UTF-8"));
+			gzip.close();
+			CSVReader.setStandardInput(new ByteArrayInputStream(compressed.toByteArray()));
+			URLList list = new URLList(URLFormat.URLNORM, URLFormat.GOOG, false);
+			assertTrue("The compressed standard input could not be read", newReader(stdin, URLFormat.URLNORM, list, 0, CSVReader.Engine.SCANNER).read());
+			assertEquals("Different keys", expected.keySet(), list.keySet());
+		} finally {
+			CSVReader.setStandardInput(null);
+		}
+	}
+	
+	@Test
+	public void testReadCheckpoint() throws IOException {
+		File plain = File.createTempFile("urllistcompare", ".csv");
+		plain.deleteOnExit();
+		File source = File.createTempFile("urllistcompare", ".csv");
+		source.deleteOnExit();
+		File log = new File(source.getPath() + ".checkpoint");
+		log.deleteOnExit();
+		StringBuilder head = new StringBuilder("url;impressions\r\n"), tail = new StringBuilder();
+		for(int i = 0; i < 10000; i++){
+			(i < 7500 ? head : tail).append("http://www.domain.com/p").append(i % 800).append("/file.ext;").append(i % 4).append("\r\n");
+		}
+		write(plain, head.toString() + "http://www.domain.com/fixed/file.ext;9\r\n" + tail);
+		write(source, head.toString() + "http://www.domain.com/broken/file.ext;not a number\r\n" + tail);
+		URLList expected = readWith(plain, CSVReader.Engine.MAPPED);
+		// The bad row stops the reading, after a checkpoint right before it
+		URLList list = new URLList(URLFormat.URLNORM, URLFormat.GOOG, false);
+		CSVReader reader = newReader(source, URLFormat.URLNORM, list, 0, CSVReader.Engine.PIPELINE);
+		reader.setCheckpoint(1000);
+		try{
+			reader.read();
+			fail("A row that can't be parsed was read");
+		} catch (RuntimeException e) {
+			// Expected
+		}
+		assertTrue("No checkpoint was saved", log.isFile());
+		// Fix the row: the reading resumes from it, with the rows read before in the new list
+		write(source, head.toString() + "http://www.domain.com/fixed/file.ext;9\r\n" + tail);
+		list = new URLList(URLFormat.URLNORM, URLFormat.GOOG, false);
+		reader = newReader(source, URLFormat.URLNORM, list, 0, CSVReader.Engine.SCANNER);
+		reader.setCheckpoint(1000);
+		assertTrue("The reading could not resume", reader.read());
+		assertEquals("Wrong number of rows", 10001, reader.getRows());
+		assertSameContents(expected, list);
+		assertFalse("The checkpoint was not deleted", log.exists());
+		// A file that is not a checkpoint is ignored
+		list = new URLList(URLFormat.URLNORM, URLFormat.GOOG, false);
+		reader = newReader(source, URLFormat.URLNORM, list, 0, CSVReader.Engine.MAPPED);
+		write(log, "not a checkpoint");
+		reader.setCheckpoint(1000);
+		assertTrue("The file could not be read", reader.read());
+		assertEquals("Wrong number of rows", 10001, reader.getRows());
+		assertSameContents(expected, list);
+	}
+	
+	@Test
+	public void testReadQuarantine() throws IOException {
+		File plain = File.createTempFile("urllistcompare", ".csv");
+		plain.deleteOnExit();
+		File source = File.createTempFile("urllistcompare", ".csv");
+		source.deleteOnExit();
+		File quarantine = new File(source.getPath() + CSVReader.QUARANTINE_SUFFIX);
+		quarantine.deleteOnExit();
+		String[] bad = {"http://www.domain.com/bad/file.ext;abc", "http://www.domain.com/bad/file.ext;1;2", "\"http://www.domain.com/bad/file.ext;3"};
+		int[] badLines = {1, 2500, 4999};
+		StringBuilder good = new StringBuilder("url;impressions\n"), all = new StringBuilder("url;impressions\n");
+		for(int i = 1, b = 0; i < 5000; i++){
+			if(b < badLines.length && i == badLines[b]){
+				all.append(bad[b++]).append("\n");
+			} else {
+				String row = "http://www.domain.com/p" + (i % 300) + "/file.ext;" + (i % 6) + "\n";
+				good.append(row);
+				all.append(row);
+			}
+		}
+		write(plain, good.toString());
+		write(source, all.toString());
+		URLList expected = readWith(plain, CSVReader.Engine.MAPPED);
+		for(CSVReader.Engine engine : CSVReader.Engine.values()){
+			URLList list = new URLList(URLFormat.URLNORM, URLFormat.GOOG, false);
+			CSVReader reader = newReader(source, URLFormat.URLNORM, list, 0, engine);
+			reader.setQuarantine(0.01);
+			assertTrue("The file could not be read with engine " + engine, reader.read());
+			assertEquals("Wrong number of rows with engine " + engine, 4999, reader.getRows());
+			assertEquals("Wrong number of rejected rows with engine " + engine, 3, reader.getRejected());
+			assertSameContents(expected, list);
+			List<String> rejected = Files.readAllLines(quarantine.toPath(), StandardCharsets.UTF_8);
+			Collections.sort(rejected, new Comparator<String>(){
+				public int compare(String a, String b){
+					return Integer.parseInt(a.split("\t")[0]) - Integer.parseInt(b.split("\t")[0]);
+				}
+			});
+			assertEquals("Wrong quarantine with engine " + engine, badLines.length, rejected.size());
+			for(int i = 0; i < badLines.length; i++){
+				String[] fields = rejected.get(i).split("\t", 3);
+				assertEquals("Wrong line number with engine " + engine, String.valueOf(badLines[i]), fields[0]);
+				assertEquals("Wrong row with engine " + engine, bad[i], fields[2]);
+			}
+		}
+		// Too many rejected rows
+		URLList list = new URLList(URLFormat.URLNORM, URLFormat.GOOG, false);
+		CSVReader reader = newReader(source, URLFormat.URLNORM, list, 0, CSVReader.Engine.SCANNER);
+		reader.setQuarantine(0.0001);
+		try{
+			reader.read();
+			fail("The error rate was not checked");
+		} catch (RuntimeException e) {
+			// Expected
+		}
+	}
+	
+	@Test
+	public void testReadByteKeys() throws IOException {
+		File source = File.createTempFile("urllistcompare", ".csv");
+		source.deleteOnExit();
+		StringBuilder contents = new StringBuilder("url;impressions\n");
+		for(int i = 0; i < 5000; i++){
+			contents.append("http://www.domain.com/P" + (i % 400) + "/File.Ext?q=" + i + ";" + (i % 7) + "\n");
+			if(i % 500 == 0){
+				// Quoted, escaped and not plain ASCII urls
+				contents.append("\"http://www.domain.com/q/" + i + ".html\";3\n");
+				contents.append("\"http://www.domain.com/\"\"q\"\"/" + i + ".html\";4\n");
+				contents.append("http://www.domain.com/\u00c8/" + i + ".html;5\n");
+				contents.append("http://www.domain.com;6\n");
+			}
+		}
+		FileOutputStream out = new FileOutputStream(source);
+		out.write(contents.toString().getBytes(StandardCharsets.UTF_8));
+		out.close();
+		for(boolean noExtension : new boolean[] {false, true}){
+			URLList expected = new URLList(URLFormat.FULLURL, URLFormat.GOOG, noExtension, URLList.Storage.AGGREGATE);
+			CSVReader reader = newReader(source, URLFormat.FULLURL, expected, 0, CSVReader.Engine.MAPPED);
+			assertTrue("The file could not be read as Strings", reader.read());
+			// The SCANNER engine always reads Strings, in the default charset
+			for(CSVReader.Engine engine : new CSVReader.Engine[] {CSVReader.Engine.MAPPED, CSVReader.Engine.PARALLEL, CSVReader.Engine.PIPELINE}){
+				URLList list = new URLList(URLFormat.FULLURL, URLFormat.GOOG, noExtension, URLList.Storage.AGGREGATE);
+				reader = newReader(source, URLFormat.FULLURL, list, 0, engine);
+				reader.setByteKeys(true);
+				assertTrue("The file could not be read with byte keys and engine " + engine, reader.read());
+				assertEquals("Wrong number of rows with byte keys and engine " + engine, 5040, reader.getRows());
+				assertEquals("Different keys with byte keys and engine " + engine, expected.keySet(), list.keySet());
+				for(String key : expected.keySet())
+					assertEquals("Different impressions for " + key + " with engine " + engine,
+							expected.getUrlNorm(key).getImpressions()[0], list.getUrlNorm(key).getImpressions()[0]);
+			}
+		}
+		// Only an aggregate list can be filled without the elements
+		URLList list = new URLList(URLFormat.FULLURL, URLFormat.GOOG, false, URLList.Storage.COMPACT);
+		CSVReader reader = newReader(source, URLFormat.FULLURL, list, 0, CSVReader.Engine.MAPPED);
+		reader.setByteKeys(true);
+		assertTrue("The file could not be read with byte keys on a COMPACT list", reader.read());
+		assertEquals("Elements not kept with byte keys on a COMPACT list", 13, list.getUrlNorm("/p1/file.ext").getUrlElements(0).length);
+	}
+	
+	@Test
+	public void testReadKeyCache() throws IOException {
+		File first = File.createTempFile("urllistcompare", ".csv");
+		first.deleteOnExit();
+		File second = File.createTempFile("urllistcompare", ".csv");
+		second.deleteOnExit();
+		StringBuilder rows = new StringBuilder("url;impressions\n");
+		for(int i = 0; i < 20000; i++){
+			rows.append("http://www.domain.com/P").append(i % 300).append("/File.Ext?q=").append(i % 5).append(";").append(i % 7).append("\n");
+		}
+		write(first, rows.toString());
+		write(second, rows.toString());
+		for(CSVReader.Engine engine : CSVReader.Engine.values()){
+			URLList expected = new URLList(URLFormat.FULLURL, URLFormat.GOOG, true);
+			assertTrue("The file could not be read", newReader(first, URLFormat.FULLURL, expected, 0, engine).read());
+			assertTrue("The file could not be read", newReader(second, URLFormat.FULLURL, expected, 0, engine).read());
+			// The second file shares the cache of the first one
+			KeyCache cache = new KeyCache(100000);
+			URLList list = new URLList(URLFormat.FULLURL, URLFormat.GOOG, true);
+			CSVReader reader = newReader(first, URLFormat.FULLURL, list, 0, engine);
+			reader.setKeyCache(cache);
+			assertTrue("The file could not be read with a cache and engine " + engine, reader.read());
+			assertTrue("The file could not be read with a cache and engine " + engine, reader.withSource(second).read());
+			assertSameContents(expected, list);
+			// 300 distinct urls, each missed at most once by every thread that reads the file
+			assertTrue("Too few misses with engine " + engine, cache.getMisses() >= 300);
+			assertTrue("Too many misses with engine " + engine, cache.getMisses() <= 300 * Math.max(4, Runtime.getRuntime().availableProcessors()));
+			assertEquals("Wrong lookups with engine " + engine, 40000, cache.getHits() + cache.getMisses());
+			assertEquals("Evictions with engine " + engine, 0, cache.getEvictions());
+		}
+	}
+	
+	// Checks that two lists have the same keys and the same impressions in position 0
+	private void assertSameContents(URLList expected, URLList actual) {
+		assertEquals("Different keys", expected.keySet(), actual.keySet());
+		for(String key : expected.keySet()){
+			URLNorm e = expected.getUrlNorm(key), a = actual.getUrlNorm(key);
+			assertEquals("Different impressions for " + key, e.getImpressions()[0], a.getImpressions()[0]);
+			assertEquals("Different elements for " + key, e.getUrlElements(0).length, a.getUrlElements(0).length);
+		}
+	}
+	
+	// Reads the source into a new URLList with the specified engine
+	private URLList readWith(File source, CSVReader.Engine engine) {
+		return readWith(source, engine, URLList.Storage.HASHMAP);
+	}
+	
+	// Reads the source into a new URLList with the specified engine and storage
+	private URLList readWith(File source, CSVReader.Engine engine, URLList.Storage storage) {
+		URLList list = new URLList(URLFormat.URLNORM, URLFormat.GOOG, false, storage);
+		CSVReader reader = new CSVReader
+				.CSVReaderBuilder(source)
+				.headers(true)
+				.urlI(0)
+				.impI(1)
+				.vSep(';')
+				.dSep(',')
+				.isTSep(true)
+				.tSep('.')
+				.format(URLFormat.URLNORM)
+				.destination(list)
+				.position(0)
+				.engine(engine)
+				.parallelism(4)
+				.build();
+		assertTrue("The file could not be read with engine " + engine, reader.read());
+		return list;
+	}
 
 }
@@ -0,0 +1,51 @@
+package urllistcompare.unittests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Test;
+
+import urllistcompare.util.FileGlob;
+
+public class FileGlobTest {
+
+	@Test
+	public void testExpand() throws IOException {
+		File directory = Files.createTempDirectory("urllistcompare").toFile();
+		directory.deleteOnExit();
+		String[] names = {"export-02.csv", "export-01.csv", "export-03.txt", "other.csv"};
+		for(String name : names){
+			File file = new File(directory, name);
+			assertTrue("Could not create " + name, file.createNewFile());
+			file.deleteOnExit();
+		}
+		String dir = directory.getPath() + File.separator;
+		List<File> files = FileGlob.expand(dir + "export-*.csv");
+		assertEquals("Wrong number of files", 2, files.size());
+		assertEquals("The files are not sorted", "export-01.csv", files.get(0).getName());
+		assertEquals("The files are not sorted", "export-02.csv", files.get(1).getName());
+		files = FileGlob.expand(dir + "other.csv, " + dir + "export-0?.*," + dir + "other.csv");
+		assertEquals("Wrong number of files in a list", 4, files.size());
+		assertEquals("Wrong order in a list", "other.csv", files.get(0).getName());
+		assertTrue("A missing file was found", FileGlob.expand(dir + "missing.csv").isEmpty());
+		assertTrue("A pattern without matches found something", FileGlob.expand(dir + "*.gz").isEmpty());
+		assertEquals("A plain file was not found", 1, FileGlob.expand(dir + "other.csv").size());
+		files = FileGlob.expand("-");
+		assertEquals("The standard input was not kept", 1, files.size());
+		assertEquals("The standard input was changed", "-", files.get(0).getPath());
+		assertTrue("A directory was found", FileGlob.expand(dir).isEmpty());
+	}
+
+	@Test
+	public void testIsPattern() {
+		assertTrue("* is a wildcard", FileGlob.isPattern("a*.csv"));
+		assertTrue("? is a wildcard", FileGlob.isPattern("a?.csv"));
+		assertTrue("{} is a wildcard", FileGlob.isPattern("a.{csv,txt}"));
+		assertFalse("A plain name is not a pattern", FileGlob.isPattern("a-1.csv"));
+	}
+
+}
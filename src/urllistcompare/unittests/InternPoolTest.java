@@ -0,0 +1,53 @@
+package urllistcompare.unittests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import urllistcompare.util.InternPool;
+
+public class InternPoolTest {
+
+	@Test
+	public void testIntern() {
+		InternPool pool = new InternPool();
+		String first = new String("/path/file.ext"), second = new String("/path/file.ext");
+		assertSame("New value not kept", first, pool.intern(first));
+		assertSame("Same instance counted as shared", first, pool.intern(first));
+		assertEquals("Wrong shared count", 0, pool.getShared());
+		assertSame("Equal value not shared", first, pool.intern(second));
+		assertEquals("Wrong shared count", 1, pool.getShared());
+		assertEquals("Wrong saved bytes", InternPool.footprint(second), pool.getSavedBytes());
+		assertEquals("Wrong footprint", 24 + 48, InternPool.footprint(second)); // 16 + 28 bytes of chars, aligned to 8
+		assertEquals("Wrong size", 1, pool.size());
+		pool.clear();
+		assertEquals("Not cleared", 0, pool.size());
+		assertSame("Old value kept after clear", second, pool.intern(second));
+	}
+
+	@Test
+	public void testConcurrent() throws InterruptedException {
+		final InternPool pool = new InternPool();
+		final String[][] found = new String[4][1000];
+		Thread[] threads = new Thread[found.length];
+		for(int t = 0; t < threads.length; t++){
+			final int thread = t;
+			threads[t] = new Thread(new Runnable(){
+				public void run(){
+					for(int i = 0; i < 1000; i++)
+						found[thread][i] = pool.intern("/p" + (i % 100));
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread t : threads)
+			t.join();
+		assertEquals("Wrong size", 100, pool.size());
+		for(int t = 0; t < found.length; t++){
+			for(int i = 0; i < 1000; i++)
+				assertSame("Different instances of the same value", found[0][i % 100], found[t][i]);
+		}
+		assertEquals("Wrong shared count", 3900, pool.getShared());
+	}
+
+}
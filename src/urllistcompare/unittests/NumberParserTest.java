@@ -0,0 +1,46 @@
+package urllistcompare.unittests;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import urllistcompare.util.NumberParser;
+
+public class NumberParserTest {
+
+	@Test
+	public void testParse() {
+		NumberParser parser = new NumberParser(',', '.');
+		String[] values = {"1,234,567", "1,234,567.1234", "1.4999", "1.5000", "0", "2,147,483,648", "9223372036854775807", "9223372036854775806.5"};
+		long[] expected = {1234567, 1234567, 1, 2, 0, 2147483648L, Long.MAX_VALUE, Long.MAX_VALUE};
+		for(int i = 0; i < values.length; i++){
+			assertEquals("Error parsing " + values[i], expected[i], parser.parse(values[i]));
+			assertNull("Error reported for " + values[i], parser.getError());
+			ByteBuffer buffer = ByteBuffer.wrap((";" + values[i] + ";").getBytes(StandardCharsets.US_ASCII));
+			assertEquals("Error parsing the bytes of " + values[i], expected[i], parser.parse(buffer, 1, values[i].length() + 1, StandardCharsets.US_ASCII));
+		}
+	}
+
+	@Test
+	public void testParseErrors() {
+		NumberParser parser = new NumberParser(',', '.');
+		String[] values = {"a123098.34", "12309c8.34", "1.234.567", "", ",", "12.", "9223372036854775808", "9223372036854775807.5", "-1"};
+		for(String value : values){
+			assertEquals(value + " parsed without errors", -1, parser.parse(value));
+			assertNotNull("No error reported for " + value, parser.getError());
+			ByteBuffer buffer = ByteBuffer.wrap(value.getBytes(StandardCharsets.US_ASCII));
+			assertEquals("The bytes of " + value + " parsed without errors", -1, parser.parse(buffer, 0, value.length(), StandardCharsets.US_ASCII));
+		}
+	}
+
+	@Test
+	public void testNoThousandSeparator() {
+		NumberParser parser = new NumberParser((char) 0, ',');
+		assertEquals("Error parsing with a comma as decimal separator", 1235, parser.parse("1234,5"));
+		assertEquals("Thousand separator accepted when none is used", -1, parser.parse("1.234"));
+	}
+
+}
@@ -0,0 +1,93 @@
+package urllistcompare.unittests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import urllistcompare.util.ParallelGzipInputStream;
+
+public class ParallelGzipInputStreamTest {
+
+	@Test
+	public void testMembers() throws IOException {
+		Random random = new Random(15);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream(), file = new ByteArrayOutputStream();
+		for(int i = 0; i < 12; i++){
+			byte[] data = new byte[random.nextInt(300000)];
+			for(int j = 0; j < data.length; j++){
+				data[j] = (byte) ('a' + random.nextInt(4));
+			}
+			if(i == 5){
+				// Stored without compression: the header inside the data must not be taken for a member
+				byte[] fake = gzip(new byte[] {1, 2, 3}, Deflater.DEFAULT_COMPRESSION);
+				System.arraycopy(fake, 0, data, 1000, fake.length);
+			}
+			expected.write(data);
+			file.write(gzip(data, i == 5 ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION));
+		}
+		assertArrayEquals("Wrong contents", expected.toByteArray(), readAll(file.toByteArray(), 4));
+		assertArrayEquals("Wrong contents with a single thread", expected.toByteArray(), readAll(file.toByteArray(), 1));
+		// Data after the last member is ignored, like in java.util.zip.GZIPInputStream
+		file.write(new byte[] {0, 0, 0, 0});
+		assertArrayEquals("Wrong contents with trailing data", expected.toByteArray(), readAll(file.toByteArray(), 4));
+	}
+
+	@Test
+	public void testCorruptMember() throws IOException {
+		byte[] data = new byte[100000];
+		Arrays.fill(data, (byte) 'x');
+		byte[] file = gzip(data, Deflater.DEFAULT_COMPRESSION);
+		file[file.length - 6] ^= 1; // Part of the CRC
+		try{
+			readAll(file, 2);
+			fail("A wrong CRC was not detected");
+		} catch (IOException e) {
+			assertTrue("Wrong error: " + e.getMessage(), e.getMessage().contains("CRC"));
+		}
+	}
+
+	private byte[] gzip(byte[] data, final int level) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(output){
+			{
+				def.setLevel(level);
+			}
+		};
+		out.write(data);
+		out.close();
+		return output.toByteArray();
+	}
+
+	private byte[] readAll(byte[] file, int parallelism) throws IOException {
+		File source = File.createTempFile("urllistcompare", ".gz");
+		source.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(source);
+		out.write(file);
+		out.close();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		InputStream in = new ParallelGzipInputStream(FileChannel.open(source.toPath(), StandardOpenOption.READ), parallelism);
+		try{
+			byte[] buffer = new byte[10000];
+			int n;
+			while((n = in.read(buffer)) >= 0){
+				output.write(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return output.toByteArray();
+	}
+
+}
@@ -53,4 +53,25 @@ public class ParserTest {
 		}
 	}
 
+	@Test
+	public void testParseLong() {
+		try{
+			assertEquals("Error parsing a value larger than an integer", 3000000000L, Parser.parseLong("3,000,000,000", ',', '.'));
+		} catch (Exception e) {
+			fail("Unexpected exception " + e.getMessage());
+		}
+		try{
+			Parser.parseInt("3,000,000,000", ',', '.');
+			fail("3,000,000,000 parsed as an integer");
+		} catch (Exception e) {
+			System.out.println(e.getMessage());
+		}
+		try{
+			Parser.parseLong("9,223,372,036,854,775,808", ',', '.');
+			fail("9,223,372,036,854,775,808 parsed as a long");
+		} catch (Exception e) {
+			System.out.println(e.getMessage());
+		}
+	}
+
 }
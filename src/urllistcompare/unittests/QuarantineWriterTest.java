@@ -0,0 +1,60 @@
+package urllistcompare.unittests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import urllistcompare.util.QuarantineWriter;
+
+public class QuarantineWriterTest {
+
+	@Test
+	public void testReject() throws IOException, InterruptedException {
+		File file = File.createTempFile("urllistcompare", ".rejected");
+		file.deleteOnExit();
+		final QuarantineWriter writer = new QuarantineWriter(file, false);
+		// Many threads at the same time, more rows than the queue can hold
+		Thread[] threads = new Thread[4];
+		for(int t = 0; t < threads.length; t++){
+			final int first = t * 1000;
+			threads[t] = new Thread(new Runnable(){
+				public void run(){
+					try{
+						for(int i = first; i < first + 1000; i++)
+							writer.reject(i, "row;" + i, "reason " + i);
+					} catch (IOException e) {
+						fail(e.getMessage());
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread t : threads)
+			t.join();
+		writer.close();
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		assertEquals("Wrong number of rows", 4000, lines.size());
+		HashSet<String> unique = new HashSet<String>(lines);
+		for(int i = 0; i < 4000; i++)
+			assertTrue("Missing row " + i, unique.contains(i + "\treason " + i + "\trow;" + i));
+		// Appending keeps the rows that were already there
+		QuarantineWriter more = new QuarantineWriter(file, true);
+		more.reject(4000, "last", "reason");
+		more.close();
+		assertEquals("The file was not appended to", 4001, Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size());
+		try{
+			more.reject(4001, "closed", "reason");
+			fail("A closed writer accepted a row");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+}
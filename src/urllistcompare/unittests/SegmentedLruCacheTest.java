@@ -0,0 +1,85 @@
+package urllistcompare.unittests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import urllistcompare.util.SegmentedLruCache;
+
+public class SegmentedLruCacheTest {
+
+	@Test
+	public void testGetPut() {
+		// A single stripe of 10 entries: 8 protected, 2 in probation
+		SegmentedLruCache<String, Integer> cache = new SegmentedLruCache<String, Integer>(10, 1, 0);
+		assertNull("Value found in an empty cache", cache.get("a"));
+		cache.put("a", 1);
+		assertEquals("Wrong value", Integer.valueOf(1), cache.get("a")); // Promoted
+		for(int i = 0; i < 100; i++)
+			cache.put("x" + i, i); // Only seen once: they can only flush probation
+		assertEquals("A protected entry was evicted by new ones", Integer.valueOf(1), cache.get("a"));
+		assertNull("An old entry of probation was not evicted", cache.get("x0"));
+		assertEquals("Wrong value of the newest entry", Integer.valueOf(99), cache.get("x99"));
+		assertEquals("Wrong size", 3, cache.size());
+		assertEquals("Wrong evictions", 98, cache.getEvictions());
+		assertEquals("Wrong hits", 3, cache.getHits());
+		assertEquals("Wrong misses", 2, cache.getMisses());
+		// Too many entries found again: the least recent protected ones go back to probation
+		for(int i = 0; i < 20; i++){
+			cache.put("y" + i, i);
+			cache.get("y" + i);
+		}
+		assertTrue("Too many entries", cache.size() <= 10);
+		assertNull("The least recent protected entry was not evicted", cache.get("a"));
+		assertEquals("The most recent protected entry was evicted", Integer.valueOf(19), cache.get("y19"));
+	}
+
+	@Test
+	public void testBypass() {
+		SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(1000, 4, 0.05);
+		// Keys that never repeat
+		for(int i = 0; i < SegmentedLruCache.SAMPLE; i++){
+			assertNull("Unique key found", cache.get("u" + i));
+			assertFalse("Bypassed before the end of the sample", cache.isBypassed() && i < SegmentedLruCache.SAMPLE - 1);
+			cache.put("u" + i, "v");
+		}
+		assertTrue("Not bypassed with no hits", cache.isBypassed());
+		cache.put("k", "v");
+		assertNull("Value found in a bypassed cache", cache.get("k"));
+		assertEquals("Wrong bypassed lookups", 1, cache.getBypassed());
+		// Keys that repeat: never bypassed
+		cache = new SegmentedLruCache<String, String>(1000, 4, 0.05);
+		for(int i = 0; i < SegmentedLruCache.SAMPLE * 2; i++){
+			if(cache.get("r" + (i % 100)) == null)
+				cache.put("r" + (i % 100), "v");
+		}
+		assertFalse("Bypassed with a high hit rate", cache.isBypassed());
+		assertEquals("Wrong hit rate", 1 - 100.0 / (SegmentedLruCache.SAMPLE * 2), cache.getHitRate(), 1e-9);
+	}
+
+	@Test
+	public void testConcurrent() throws InterruptedException {
+		final SegmentedLruCache<Integer, Integer> cache = new SegmentedLruCache<Integer, Integer>(500, 8, 0);
+		Thread[] threads = new Thread[4];
+		for(int t = 0; t < threads.length; t++){
+			threads[t] = new Thread(new Runnable(){
+				public void run(){
+					for(int i = 0; i < 50000; i++){
+						Integer key = i % 1000;
+						Integer value = cache.get(key);
+						if(value == null)
+							cache.put(key, key * 2);
+						else
+							assertEquals("Wrong value", key * 2, value.intValue());
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread t : threads)
+			t.join();
+		assertTrue("Too many entries", cache.size() <= 500);
+		assertEquals("Wrong number of lookups", 200000, cache.getHits() + cache.getMisses());
+	}
+
+}
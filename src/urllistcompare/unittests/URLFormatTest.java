@@ -2,9 +2,13 @@ package urllistcompare.unittests;
 
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 import org.junit.Test;
 
 import urllistcompare.URLFormat;
+import urllistcompare.util.ByteKey;
 
 public class URLFormatTest {
 
@@ -65,4 +69,42 @@ public class URLFormatTest {
 		assertTrue("The path normalised by WTKDEF is incorrect: " + url004, url004.equals("/path1/path2/file"));
 	}
 
+	@Test
+	public void testNormaliseEdgeCases() {
+		// The root, saved without a trailing slash
+		assertEquals("Wrong root for WTKDEF", "/", URLFormat.WTKDEF.normalisePath("www_domain_com"));
+		assertEquals("Wrong root for URLNORM", "/", URLFormat.URLNORM.normalisePath("http://www.domain.com"));
+		assertEquals("Wrong root for FULLURL", "/", URLFormat.FULLURL.normalisePath("http://www.domain.com?a=/b"));
+		assertEquals("Wrong root for NOPROTFULL", "/", URLFormat.NOPROTFULL.normalisePath("www.domain.com#/b", true));
+		// The extension is only searched in the path
+		assertEquals("Extension removed from the query", "/path1/file", URLFormat.GOOG.normalisePath("/Path1/File?a=b.c", true));
+		assertEquals("Extension removed from the domain", "/", URLFormat.URLNORM.normalisePath("http://www.domain.com/", true));
+		// Paths that are not plain ASCII
+		assertEquals("Wrong path with non ASCII characters", "/\u00e8/file", URLFormat.GOOG.normalisePath("/\u00c8/FILE.ext", true));
+		assertEquals("Wrong path with non ASCII characters", "/\u00e8/f.ext", URLFormat.WTKDEF.normalisePath("www_domain_com.\u00c8.F_EXT"));
+	}
+
+	@Test
+	public void testNormaliseBytes() {
+		String[] urls = {"www_domain_com.PATH1.path2.file_ext", "www_domain_com", "http://www.domain.com/Path1/path2/file.ext",
+				"http://www.domain.com", "http://www.domain.com?a=/b", "www.domain.com/PATH/file.ext?q=1#f", "www.domain.com#/b",
+				"/Path1/File?a=b.c", "/path.dir/file", "", "http://a.com/x://y/Z.HTML", "ftp://b.com:21/A_B.c.D?e#f"};
+		ByteKey key = new ByteKey(4);
+		for(URLFormat format : URLFormat.values()){
+			for(String url : urls){
+				for(int i = 0; i < 2; i++){
+					boolean noExtension = i == 1;
+					// The url in the middle of other bytes, like in a line of a file
+					ByteBuffer buffer = ByteBuffer.wrap(("x;" + url + ";1").getBytes(StandardCharsets.US_ASCII));
+					assertTrue("ASCII not normalised by " + format + ": " + url, format.normalise(buffer, 2, 2 + url.length(), noExtension, key));
+					assertEquals("Different normalisation by " + format + ": " + url, format.normalisePath(url, noExtension), key.toString());
+					assertEquals("Wrong hash code by " + format + ": " + url, key.toString().hashCode(), key.hashCode());
+				}
+			}
+		}
+		// Anything that is not plain ASCII is left to the String version
+		ByteBuffer buffer = ByteBuffer.wrap("/\u00c8/FILE.ext".getBytes(StandardCharsets.UTF_8));
+		assertFalse("Not ASCII normalised as bytes", URLFormat.GOOG.normalise(buffer, 0, buffer.capacity(), false, key));
+	}
+
 }
@@ -2,9 +2,18 @@ package urllistcompare.unittests;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
 import org.junit.Test;
 import urllistcompare.*;
 import urllistcompare.exceptions.InvalidURLListException;
+import urllistcompare.util.InternPool;
 
 public class URLListTest {
 
@@ -127,6 +136,17 @@ public class URLListTest {
 		assertTrue("Element not added when it should have been!", list001.add(element002, 1));
 	}
 
+	@Test
+	public void testAddNoExtension() {
+		URLList list001 = new URLList(URLFormat.URLNORM, URLFormat.URLNORM, true);
+		URLElement element001 = new URLElement("http://www.domain.com/path1/file.html", URLFormat.URLNORM, 1200);
+		URLElement element002 = new URLElement("http://www.domain.com/path1/file.php", URLFormat.URLNORM, 300);
+		assertTrue("Element not added when it should have been!", list001.add(element001, 0));
+		assertTrue("Element not added when it should have been!", list001.add(element002, 0));
+		assertTrue("Wrong number of keys: " + list001.keySet().size(), list001.keySet().size() == 1);
+		assertTrue("Wrong impressions", list001.getUrlNorm("/path1/file").getImpressions()[0] == 1500);
+	}
+
 	@Test
 	public void testGetMissingElementsInt() {
 		URLList list001 = new URLList();
@@ -327,5 +347,312 @@ public class URLListTest {
 		System.out.println("<<<< Output 002 checked!");
 		assertTrue("Wrong length for output002: " + output002.length, output002.length == 1);
 	}
-	
+
+	@Test
+	public void testCompactStorage() {
+		URLList list001 = new URLList(URLFormat.FULLURL, URLFormat.GOOG, false);
+		URLList list002 = new URLList(URLFormat.FULLURL, URLFormat.GOOG, false, URLList.Storage.COMPACT);
+		assertTrue("Wrong storage", list002.getStorage() == URLList.Storage.COMPACT);
+		Random random = new Random(8);
+		URLElement element = null;
+		int pos = 0;
+		for(int i = 0; i < 20000; i++){
+			String path = "/p" + random.nextInt(3000) + (random.nextInt(5) == 0 ? "/\u00e8" : "") + "/f.e" + random.nextInt(2);
+			if(i % 100 == 0 && element != null){
+				// The same instance twice: it must be rejected by both
+				assertEquals("Different result for a duplicated element", list001.add(element, pos), list002.add(element, pos));
+			}
+			pos = random.nextInt(2);
+			element = pos == 0 ? new URLElement("http://www.domain.com" + path + "?q=" + i, URLFormat.FULLURL, random.nextInt(1000))
+					: new URLElement(path + "#" + i, URLFormat.GOOG, random.nextInt(1000));
+			assertEquals("Different result for a new element", list001.add(element, pos), list002.add(element, pos));
+		}
+		assertEquals("Different number of keys", list001.keySet().size(), list002.keySet().size());
+		for(String key : list001.keySet()){
+			assertTrue("Missing key " + key, list002.keySet().contains(key));
+			URLNorm norm001 = list001.getUrlNorm(key), norm002 = list002.getUrlNorm(key);
+			for(int i = 0; i < 2; i++){
+				assertTrue("Different impressions for " + key, norm001.getImpressions()[i] == norm002.getImpressions()[i]);
+				assertEquals("Different elements for " + key, norm001.getUrlElements(i).length, norm002.getUrlElements(i).length);
+			}
+		}
+		assertNull("Found a key that was never added", list002.getUrlNorm("/nothing"));
+		for(int i = 0; i < 2; i++){
+			assertEquals("Different missing elements", list001.getMissingElements(i).length, list002.getMissingElements(i).length);
+			assertEquals("Different urls", list001.getDifferentURLs(i).length, list002.getDifferentURLs(i).length);
+		}
+		URLList list003 = list002.remExtension();
+		assertTrue("Storage lost by remExtension", list003.getStorage() == URLList.Storage.COMPACT);
+		assertEquals("Different number of keys without extension", list001.remExtension().keySet().size(), list003.keySet().size());
+	}
+
+	@Test
+	public void testAggregateStorage() {
+		URLList list001 = new URLList(URLFormat.GOOG, URLFormat.URLNORM, false, URLList.Storage.AGGREGATE);
+		assertTrue("Element not added", list001.add(new URLElement("/path1/file.html?a=1", URLFormat.GOOG, 1200), 0));
+		assertTrue("Element not added", list001.add(new URLElement("/path1/file.html?a=2", URLFormat.GOOG, 300), 0));
+		assertTrue("Element not added", list001.add(new URLElement("/path1/file.php", URLFormat.GOOG, 500), 0));
+		assertTrue("Element not added", list001.add(new URLElement("http://www.domain.com/path1/file.html", URLFormat.URLNORM, 100), 1));
+		assertEquals("Wrong number of keys", 2, list001.keySet().size());
+		URLNorm norm001 = list001.getUrlNorm("/path1/file.html");
+		assertTrue("Wrong impressions", norm001.getImpressions()[0] == 1500 && norm001.getImpressions()[1] == 100);
+		assertEquals("Elements kept by an aggregate list", 0, norm001.getUrlElements(0).length);
+		URLNorm[] different = list001.getDifferentURLs(0);
+		assertEquals("Wrong number of different urls", 2, different.length);
+		try{
+			list001.getMissingElements(0);
+			fail("Missing elements extracted from an aggregate list");
+		} catch (InvalidURLListException e) {
+			// Passed
+		}
+		URLList list002 = list001.remExtension();
+		assertEquals("Wrong number of keys without extension", 1, list002.keySet().size());
+		assertTrue("Wrong impressions without extension", list002.getUrlNorm("/path1/file").getImpressions()[0] == 2000);
+		try{
+			list002.addExtension();
+			fail("Extension restored in an aggregate list");
+		} catch (InvalidURLListException e) {
+			// Passed
+		}
+	}
+
+	@Test
+	public void testOffHeapRepeatedUrl() {
+		URLList list001 = new URLList(URLFormat.FULLURL, URLFormat.GOOG, false, URLList.Storage.OFFHEAP);
+		// Raw rows of the same url with 1 impression each: every one of them counts
+		for(int i = 0; i < 5000; i++){
+			assertTrue("Row not added", list001.add(new URLElement(new String("http://www.domain.com/p1/f.e"), URLFormat.FULLURL, 1), 0));
+		}
+		assertEquals("Wrong number of keys", 1, list001.keySet().size());
+		assertEquals("Wrong impressions", 5000, list001.getUrlNorm("/p1/f.e").getImpressions()[0]);
+		list001.close();
+	}
+
+	@Test
+	public void testOffHeapStorage() throws Exception {
+		URLList list001 = new URLList(URLFormat.FULLURL, URLFormat.GOOG, false);
+		URLList list002 = new URLList(URLFormat.FULLURL, URLFormat.GOOG, false, URLList.Storage.OFFHEAP);
+		Random random = new Random(10);
+		for(int i = 0; i < 20000; i++){
+			String path = "/p" + random.nextInt(3000) + (random.nextInt(5) == 0 ? "/\u00e8" : "") + "/f.e" + random.nextInt(2);
+			int pos = random.nextInt(2);
+			URLElement element = pos == 0 ? new URLElement("http://www.domain.com" + path + "?q=" + i, URLFormat.FULLURL, random.nextInt(1000))
+					: new URLElement(path + "#" + i, URLFormat.GOOG, random.nextInt(1000));
+			assertEquals("Different result for a new element", list001.add(element, pos), list002.add(element, pos));
+			if(i % 10 == 0){
+				// The same url and impressions in a new element are added
+				URLElement copy = new URLElement(new String(element.getUrl()), element.getFormat(), element.getImpressions());
+				assertEquals("Different result for an equal url", list001.add(copy, pos), list002.add(copy, pos));
+			}
+		}
+		// A copy through serialisation must have the same contents
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream output = new ObjectOutputStream(bytes);
+		output.writeObject(list002);
+		output.close();
+		URLList list003 = (URLList) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+		for(URLList list : new URLList[]{list002, list003}){
+			assertEquals("Different number of keys", list001.keySet().size(), list.keySet().size());
+			for(String key : list001.keySet()){
+				URLNorm norm001 = list001.getUrlNorm(key), norm002 = list.getUrlNorm(key);
+				assertNotNull("Missing key " + key, norm002);
+				for(int i = 0; i < 2; i++){
+					assertTrue("Different impressions for " + key, norm001.getImpressions()[i] == norm002.getImpressions()[i]);
+					assertEquals("Different elements for " + key, norm001.getUrlElements(i).length, norm002.getUrlElements(i).length);
+				}
+			}
+			for(int i = 0; i < 2; i++){
+				assertEquals("Different missing elements", list001.getMissingElements(i).length, list.getMissingElements(i).length);
+				assertEquals("Different urls", list001.getDifferentURLs(i).length, list.getDifferentURLs(i).length);
+			}
+			URLList list004 = list.remExtension();
+			assertEquals("Different number of keys without extension", list001.remExtension().keySet().size(), list004.keySet().size());
+			list004.close();
+			list.close();
+		}
+		try{
+			list002.getDifferentURLs(0);
+			fail("Closed list still usable");
+		} catch (IllegalStateException e) {
+			// Passed
+		}
+	}
+
+	@Test
+	public void testConcurrentStorage() throws Exception {
+		final URLList list001 = new URLList(URLFormat.FULLURL, URLFormat.GOOG, true);
+		final URLList list002 = new URLList(URLFormat.FULLURL, URLFormat.GOOG, true, URLList.Storage.CONCURRENT);
+		final URLElement[] elements = new URLElement[80000];
+		Random random = new Random(11);
+		for(int i = 0; i < elements.length; i++){
+			// Most rows go to a few hot urls
+			String path = random.nextInt(2) == 0 ? "/hot" + random.nextInt(4) + ".html" : "/p" + random.nextInt(5000) + "/f.e";
+			elements[i] = i % 2 == 0 ? new URLElement("http://www.domain.com" + path + "?q=" + i, URLFormat.FULLURL, random.nextInt(1000))
+					: new URLElement(path + "#" + i, URLFormat.GOOG, random.nextInt(1000));
+			list001.add(elements[i], i % 2);
+		}
+		Thread[] threads = new Thread[8];
+		for(int t = 0; t < threads.length; t++){
+			final int first = t;
+			threads[t] = new Thread(){
+				public void run(){
+					// Each element is added twice by different threads: only one of them must succeed
+					for(int i = first; i < elements.length; i += 4){
+						list002.add(elements[i], i % 2);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for(Thread thread : threads){
+			thread.join();
+		}
+		assertEquals("Different keys", list001.keySet(), list002.keySet());
+		for(String key : list001.keySet()){
+			URLNorm norm001 = list001.getUrlNorm(key), norm002 = list002.getUrlNorm(key);
+			for(int i = 0; i < 2; i++){
+				assertTrue("Different impressions for " + key, norm001.getImpressions()[i] == norm002.getImpressions()[i]);
+				assertEquals("Different elements for " + key, norm001.getUrlElements(i).length, norm002.getUrlElements(i).length);
+			}
+		}
+		for(int i = 0; i < 2; i++){
+			assertEquals("Different missing elements", list001.getMissingElements(i).length, list002.getMissingElements(i).length);
+			assertEquals("Different urls", list001.getDifferentURLs(i).length, list002.getDifferentURLs(i).length);
+		}
+	}
+
+	@Test
+	public void testAddAll() {
+		Random random = new Random(22);
+		for(URLList.Storage storage : URLList.Storage.values()){
+			for(boolean noExtension : new boolean[] {false, true}){
+				URLList list001 = new URLList(URLFormat.FULLURL, URLFormat.GOOG, noExtension, storage);
+				URLList list002 = new URLList(URLFormat.FULLURL, URLFormat.GOOG, noExtension, storage);
+				URLBatch batch = new URLBatch(URLFormat.FULLURL, 0, StandardCharsets.UTF_8, 4);
+				int added = 0;
+				for(int i = 0; i < 1000; i++){
+					String url = "http://www.domain.com/P" + random.nextInt(50) + "/file" + (i % 3 == 0 ? "" : ".html") + "?a=" + random.nextInt(4);
+					if(i % 10 == 0)
+						url = url.replace("/P", "/\u00c8");
+					long impressions = random.nextInt(1000);
+					if(list001.add(new URLElement(url, URLFormat.FULLURL, impressions), 0))
+						added++;
+					if(i % 2 == 0){
+						byte[] bytes = ("x" + url).getBytes(StandardCharsets.UTF_8);
+						batch.add(ByteBuffer.wrap(bytes), 1, bytes.length, impressions);
+					} else {
+						batch.add(url, impressions);
+					}
+				}
+				// A batch normalised to byte keys must be normalised again for a list that keeps the elements
+				batch.normalise(!noExtension, true);
+				assertEquals("Wrong number of rows added with " + storage, added, list002.addAll(batch));
+				assertEquals("Different keys with " + storage, list001.keySet(), list002.keySet());
+				for(String key : list001.keySet()){
+					URLNorm norm001 = list001.getUrlNorm(key), norm002 = list002.getUrlNorm(key);
+					assertEquals("Different impressions with " + storage, norm001.getImpressions()[0], norm002.getImpressions()[0]);
+					assertEquals("Different elements with " + storage, norm001.getUrlElements(0).length, norm002.getUrlElements(0).length);
+				}
+				// The same batch can be reused
+				batch.clear();
+				batch.add("http://www.domain.com/new/file.html", 5);
+				assertEquals("Reused batch not added with " + storage, 1, list002.addAll(batch));
+				URLBatch batch002 = new URLBatch(URLFormat.GOOG, 0, StandardCharsets.UTF_8, 1);
+				batch002.add("/p1/file.html", 5);
+				try{
+					list002.addAll(batch002);
+					fail("Batch in the wrong format added with " + storage);
+				} catch (RuntimeException e) {
+					// Passed
+				}
+				batch002 = new URLBatch(URLFormat.GOOG, 1, StandardCharsets.UTF_8, 1);
+				batch002.add("/P1/file.html?b=1", 5);
+				assertEquals("Row not added with " + storage, 1, list002.addAll(batch002));
+				assertEquals("Wrong url in the batch", "/P1/file.html?b=1", batch002.getUrl(0));
+				assertEquals("Wrong impressions in the batch", 5, batch002.getImpressions(0));
+				list001.close();
+				list002.close();
+			}
+		}
+	}
+
+	@Test
+	public void testIntern() {
+		for(URLList.Storage storage : URLList.Storage.values()){
+			for(boolean noExtension : new boolean[] {false, true}){
+				URLList plain = new URLList(URLFormat.URLNORM, URLFormat.GOOG, noExtension, storage);
+				URLList interned = new URLList(URLFormat.URLNORM, URLFormat.GOOG, noExtension, storage, true);
+				boolean heap = storage != URLList.Storage.AGGREGATE && storage != URLList.Storage.OFFHEAP;
+				assertEquals("Wrong pool with storage " + storage, heap, interned.getInternPool() != null);
+				URLElement[] elements = new URLElement[300];
+				for(int i = 0; i < elements.length; i++){
+					// Rows with the same url and impressions, but different instances of the url (e.g. two days)
+					String url = new String("http://www.domain.com/p" + (i % 10) + "/file.ext");
+					elements[i] = new URLElement(url, URLFormat.URLNORM, i % 2);
+					assertTrue("Element not added to the plain list", plain.add(new URLElement(url, URLFormat.URLNORM, i % 2), 0));
+					assertTrue("Element not added to the interned list", interned.add(elements[i], 0));
+				}
+				assertEquals("Different keys with storage " + storage, plain.keySet(), interned.keySet());
+				for(String key : plain.keySet()){
+					assertEquals("Different impressions with storage " + storage, plain.getUrlNorm(key).getImpressions()[0], interned.getUrlNorm(key).getImpressions()[0]);
+				}
+				if(heap){
+					// The elements are kept under their url with the extension, removed by a view
+					InternPool pool = interned.getInternPool();
+					// Plus the keys without the extension, if the view has been read
+					assertEquals("Wrong number of distinct keys with storage " + storage, noExtension ? 20 : 10, pool.size());
+					assertEquals("Wrong number of shared keys with storage " + storage, 290, pool.getShared());
+					assertTrue("No memory saved with storage " + storage, pool.getSavedBytes() > 0);
+					assertNotNull("Pool lost by addExtension with storage " + storage, interned.remExtension().addExtension().getInternPool());
+				}
+				interned.close();
+				plain.close();
+			}
+		}
+	}
+
+	@Test
+	public void testExtensionView() throws Exception {
+		String[] urls = {"/p/a.html", "/p/a.php", "/p/b", "/q/c.txt", "/p/a.html", "/r/d.js"};
+		long[] impressions = {100, 50, 30, 20, 10, 5};
+		int[] positions = {0, 0, 0, 0, 1, 1};
+		for(URLList.Storage storage : new URLList.Storage[] {URLList.Storage.HASHMAP, URLList.Storage.COMPACT, URLList.Storage.OFFHEAP, URLList.Storage.CONCURRENT}){
+			for(boolean noExtension : new boolean[] {false, true}){
+				URLList list = new URLList(URLFormat.URLNORM, URLFormat.URLNORM, noExtension, storage);
+				for(int i = 0; i < urls.length; i++)
+					list.add(new URLElement("http://www.domain.com" + urls[i], URLFormat.URLNORM, impressions[i]), positions[i]);
+				URLList soft = list.addExtension(), hard = list.remExtension();
+				assertFalse("Wrong normalisation of the soft view with storage " + storage, soft.isNoExtension());
+				assertTrue("Wrong normalisation of the hard view with storage " + storage, hard.isNoExtension());
+				assertEquals("Wrong soft keys with storage " + storage, 5, soft.keySet().size());
+				assertEquals("Wrong hard keys with storage " + storage, 4, hard.keySet().size());
+				assertTrue("Soft keys not restored with storage " + storage, soft.keySet().contains("/p/a.php"));
+				URLNorm merged = hard.getUrlNorm("/p/a");
+				assertEquals("Wrong merged impressions with storage " + storage, 150, merged.getImpressions()[0]);
+				assertEquals("Wrong merged impressions with storage " + storage, 10, merged.getImpressions()[1]);
+				assertEquals("Wrong merged elements with storage " + storage, 2, merged.getUrlElements(0).length);
+				assertEquals("Wrong merged url with storage " + storage, "/p/a", merged.getUrl());
+				assertEquals("Wrong missing elements with storage " + storage, 2, hard.getMissingElements(1).length);
+				assertEquals("Wrong missing elements with storage " + storage, 3, soft.getMissingElements(1).length);
+				assertEquals("Wrong different urls with storage " + storage, 3, hard.getDifferentURLs(0).length);
+				// The views share the storage: an element added to one of them is seen by all
+				soft.add(new URLElement("http://www.domain.com/p/b.gif", URLFormat.URLNORM, 7), 1);
+				assertEquals("View not updated with storage " + storage, 7, hard.getUrlNorm("/p/b").getImpressions()[1]);
+				assertEquals("View not updated with storage " + storage, 4, hard.keySet().size());
+				assertTrue("Same view not returned with storage " + storage, hard == hard.remExtension() && soft == soft.addExtension());
+				if(storage != URLList.Storage.OFFHEAP){
+					// A binary file keeps both normalisations
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					ObjectOutputStream out = new ObjectOutputStream(bytes);
+					out.writeObject(hard);
+					out.close();
+					URLList loaded = (URLList) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+					assertEquals("Wrong hard keys after loading with storage " + storage, hard.keySet(), loaded.keySet());
+					assertEquals("Wrong soft keys after loading with storage " + storage, soft.keySet(), loaded.addExtension().keySet());
+				}
+				list.close();
+			}
+		}
+	}
+
 }
@@ -39,7 +39,7 @@ public class URLNormTest extends TestCase {
 		// Soft normalisation
 		URLNorm url001 = new URLNorm(URLFormat.WTKDEF, URLFormat.URLNORM, false);
 		URLFormat formats[] = new URLFormat[2];
-		int[] impressions;
+		long[] impressions;
 		try{
 			url001.getUrl();
 			fail("Did not throw an exception when one was needed!");
@@ -92,7 +92,7 @@ public class URLNormTest extends TestCase {
 		url001.add(element001, 0);
 		URLFormat formats[] = new URLFormat[2];
 		String theUrl;
-		int[] impressions;
+		long[] impressions;
 		try{
 			theUrl = url001.getUrl();
 			assertTrue("The URL is not correct!", theUrl.equals("/path1/path2/file.ext"));
@@ -147,7 +147,7 @@ public class URLNormTest extends TestCase {
 		url001.add(element001, 0);
 		URLFormat formats[] = new URLFormat[2];
 		String theUrl;
-		int[] impressions;
+		long[] impressions;
 		try{
 			theUrl = url001.getUrl();
 			assertTrue("The URL is not correct!", theUrl.equals("/path1/path2/file.ext"));
@@ -485,4 +485,14 @@ public class URLNormTest extends TestCase {
 		assertTrue("The output does not include the right elements, rightly ordered. 2 = " + output[2], output[2].equals(element002));
 	}
 
+	public void testAddLarge() {
+		URLNorm url001 = new URLNorm(URLFormat.WTKDEF, URLFormat.URLNORM, false);
+		url001.add(new URLElement("www_domain_com.path1.path2.file_ext", URLFormat.WTKDEF, 2000000000L), 0);
+		url001.add(new URLElement("www_domain_com.path1.path2.file_ext", URLFormat.WTKDEF, 1500000000L), 0);
+		url001.add(new URLElement("http://www.domain.com/path1/path2/file.ext", URLFormat.URLNORM, 3000000000L), 1);
+		assertTrue("Wrong aggregated impressions: " + url001.getImpressions()[0], url001.getImpressions()[0] == 3500000000L);
+		assertTrue("Wrong difference: " + url001.getDifference(), url001.getDifference() == 500000000L);
+		assertTrue("Wrong difference: " + url001.getDifference(1), url001.getDifference(1) == -500000000L);
+	}
+
 }
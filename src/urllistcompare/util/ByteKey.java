@@ -0,0 +1,170 @@
+/**
+ *
+ */
+package urllistcompare.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ * A normalised url as UTF-8 bytes, so that it can be looked up without creating a String.
+ *
+ * The hash code is the same as the hash code of the String that the bytes decode to, so a key can be compared
+ * with the keys that were stored as Strings (for plain ASCII it's computed on the bytes directly). Two keys are
+ * equal if they hold the same bytes.
+ *
+ * A key is meant to be reused for every row by a single thread: its contents change with set() and append(), so
+ * it must never be stored in a collection. Use copy() to keep it.
+ *
+ */
+public final class ByteKey {
+
+	private byte[] bytes;
+	private int length;
+	private int hash;
+	private boolean hashed;
+
+	/**
+	 *
+	 * @param capacity the initial number of bytes that the key can hold
+	 */
+	public ByteKey(int capacity) {
+		bytes = new byte[Math.max(16, capacity)];
+		clear();
+	}
+
+	/**
+	 * Empties the key.
+	 */
+	public void clear() {
+		length = 0;
+		hashed = false;
+	}
+
+	/**
+	 * Appends a byte to the key.
+	 *
+	 * @param b the byte
+	 */
+	public void append(byte b) {
+		if (length == bytes.length)
+			bytes = Arrays.copyOf(bytes, length * 2);
+		bytes[length++] = b;
+		hashed = false;
+	}
+
+	/**
+	 * Replaces the contents of the key.
+	 *
+	 * @param source the bytes
+	 * @param offset the index of the first byte
+	 * @param length the number of bytes
+	 */
+	public void set(byte[] source, int offset, int length) {
+		if (length > bytes.length)
+			bytes = new byte[Math.max(length, bytes.length * 2)];
+		System.arraycopy(source, offset, bytes, 0, length);
+		this.length = length;
+		hashed = false;
+	}
+
+	/**
+	 * Removes the bytes after the first length ones.
+	 *
+	 * @param length the new length, not larger than the current one
+	 */
+	public void truncate(int length) {
+		if (length < this.length) {
+			this.length = length;
+			hashed = false;
+		}
+	}
+
+	/**
+	 *
+	 * @return the array that holds the bytes, from index 0 to length() (not a copy: it must not be changed)
+	 */
+	public byte[] array() {
+		return bytes;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	/**
+	 *
+	 * @param i the index of a byte, less than length()
+	 * @return the byte
+	 */
+	public byte get(int i) {
+		return bytes[i];
+	}
+
+	/**
+	 *
+	 * @return a new key with the same contents, which can be stored
+	 */
+	public ByteKey copy() {
+		ByteKey output = new ByteKey(length);
+		output.set(bytes, 0, length);
+		return output;
+	}
+
+	/**
+	 * Compares the key with bytes stored somewhere else.
+	 *
+	 * @param other the array that holds the other bytes
+	 * @param offset the index of the first byte
+	 * @param length the number of bytes
+	 * @return true if the bytes are the same as the key
+	 */
+	public boolean contentEquals(byte[] other, int offset, int length) {
+		if (length != this.length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (bytes[i] != other[offset + i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the same value as toString().hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		if (!hashed) {
+			int h = 0;
+			for (int i = 0; i < length; i++) {
+				if (bytes[i] < 0) {
+					h = toString().hashCode(); // Not ASCII: the chars differ from the bytes
+					break;
+				}
+				h = 31 * h + bytes[i];
+			}
+			hash = h;
+			hashed = true;
+		}
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof ByteKey))
+			return false;
+		ByteKey other = (ByteKey) obj;
+		return contentEquals(other.bytes, 0, other.length);
+	}
+
+	/**
+	 * @return the key decoded from UTF-8
+	 */
+	@Override
+	public String toString() {
+		return new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,94 @@
+/**
+ *
+ */
+package urllistcompare.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ * Finds bytes in a ByteBuffer 8 at a time: each long read from the buffer is compared with the byte that is
+ * searched in all of its 8 positions at once, using only arithmetic on the long (SWAR, SIMD within a register).
+ * Only the bytes after the end of the last whole long are checked one at a time.
+ *
+ * It works with any buffer, on any Java version and in both byte orders, so there is no need for a fallback.
+ *
+ */
+public final class ByteScanner {
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long LOW7 = 0x7f7f7f7f7f7f7f7fL;
+	private static final long NEWLINES = ONES * '\n';
+	private static final long RETURNS = ONES * '\r';
+
+	private ByteScanner() {
+		// Static methods only
+	}
+
+	/**
+	 * Finds the first occurrence of a byte.
+	 *
+	 * @param in the buffer to search
+	 * @param from the index of the first byte to check
+	 * @param to the index right after the last byte to check
+	 * @param b the value of the byte, between 0 and 255 (any other value is never found)
+	 * @return the index of the first byte between from and to that is equal to b, or to if there is none
+	 */
+	public static int indexOf(ByteBuffer in, int from, int to, int b) {
+		if (b < 0 || b > 0xff)
+			return to;
+		long pattern = ONES * b;
+		boolean bigEndian = in.order() == ByteOrder.BIG_ENDIAN;
+		int i = from;
+		for (; i + 8 <= to; i += 8) {
+			long found = zeros(in.getLong(i) ^ pattern);
+			if (found != 0)
+				return i + first(found, bigEndian);
+		}
+		for (; i < to; i++) {
+			if ((in.get(i) & 0xff) == b)
+				return i;
+		}
+		return to;
+	}
+
+	/**
+	 * Finds the first line terminator.
+	 *
+	 * @param in the buffer to search
+	 * @param from the index of the first byte to check
+	 * @param to the index right after the last byte to check
+	 * @return the index of the first \n or \r between from and to, or to if there is none
+	 */
+	public static int indexOfLineEnd(ByteBuffer in, int from, int to) {
+		boolean bigEndian = in.order() == ByteOrder.BIG_ENDIAN;
+		int i = from;
+		for (; i + 8 <= to; i += 8) {
+			long word = in.getLong(i);
+			long found = zeros(word ^ NEWLINES) | zeros(word ^ RETURNS);
+			if (found != 0)
+				return i + first(found, bigEndian);
+		}
+		for (; i < to; i++) {
+			byte b = in.get(i);
+			if (b == '\n' || b == '\r')
+				return i;
+		}
+		return to;
+	}
+
+	// Sets the highest bit of each byte of x that is zero and clears all the others: unlike the shorter
+	// (x - ONES) & ~x version, no carry crosses the bytes, so there are no false positives
+	private static long zeros(long x) {
+		long y = (x & LOW7) + LOW7;
+		return ~(y | x | LOW7);
+	}
+
+	// The position in memory of the first byte flagged by zeros()
+	private static int first(long found, boolean bigEndian) {
+		return (bigEndian ? Long.numberOfLeadingZeros(found) : Long.numberOfTrailingZeros(found)) >>> 3;
+	}
+
+}
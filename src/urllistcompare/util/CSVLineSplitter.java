@@ -0,0 +1,272 @@
+/**
+ *
+ */
+package urllistcompare.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ * Splits a line of a CSV file into its columns without copying them: the bounds of each column are
+ * recorded in reusable arrays and a column is only decoded when it is actually needed.
+ *
+ * The rules are the same applied by CSVReader to each line of a file:
+ * - a column can be enclosed in double quotes if it's the first one or if it starts right after a value separator;
+ * - inside a double quoted column, a double quote is escaped by another double quote;
+ * - a double quoted column is closed by a double quote followed by a value separator;
+ * - a value separator at the end of the line is followed by an empty column.
+ *
+ * A line can be split either as a CharSequence or as bytes, by the same rules that read the line through at() and
+ * indexOf(): the bytes are searched for the separators and the double quotes 8 at a time with a ByteScanner, which
+ * is safe for any charset in which the value separator and the double quote are encoded as single ASCII bytes that
+ * can't be part of other characters (e.g. UTF-8 or ISO-8859-1).
+ *
+ * An instance is not thread safe, but it can be reused for any number of lines.
+ *
+ */
+public final class CSVLineSplitter {
+
+	private final int vSep;
+	private int count;
+	private int[] starts, ends;
+	private boolean[] escaped; // True if the column contains escaped double quotes
+	private byte[] scratch;
+	// The line being split, either as chars or as bytes
+	private CharSequence chars;
+	private ByteBuffer bytes;
+
+	/**
+	 *
+	 * @param vSep the value separator
+	 */
+	public CSVLineSplitter(char vSep) {
+		this.vSep = vSep;
+		starts = new int[16];
+		ends = new int[16];
+		escaped = new boolean[16];
+		scratch = new byte[256];
+		count = 0;
+	}
+
+	// Records the bounds of a new column
+	private void addColumn(int start, int end, boolean esc) {
+		if (count == starts.length) {
+			int[] newStarts = new int[count * 2], newEnds = new int[count * 2];
+			boolean[] newEscaped = new boolean[count * 2];
+			System.arraycopy(starts, 0, newStarts, 0, count);
+			System.arraycopy(ends, 0, newEnds, 0, count);
+			System.arraycopy(escaped, 0, newEscaped, 0, count);
+			starts = newStarts;
+			ends = newEnds;
+			escaped = newEscaped;
+		}
+		starts[count] = start;
+		ends[count] = end;
+		escaped[count] = esc;
+		count++;
+	}
+
+	/**
+	 * Splits a line into columns.
+	 *
+	 * @param line the line (without its terminator)
+	 * @return the number of columns
+	 * @throws Exception if a double quoted column is not closed or includes an unescaped double quote
+	 */
+	public int split(CharSequence line) throws Exception {
+		chars = line;
+		try {
+			return split(0, line.length());
+		} finally {
+			chars = null;
+		}
+	}
+
+	/**
+	 * Splits the bytes between from (inclusive) and to (exclusive) into columns.
+	 *
+	 * @param in the buffer that contains the line
+	 * @param from the index of the first byte of the line
+	 * @param to the index right after the last byte of the line
+	 * @return the number of columns
+	 * @throws Exception if a double quoted column is not closed or includes an unescaped double quote
+	 */
+	public int split(ByteBuffer in, int from, int to) throws Exception {
+		bytes = in;
+		try {
+			return split(from, to);
+		} finally {
+			bytes = null;
+		}
+	}
+
+	// The character (or unsigned byte) at an index of the line being split
+	private int at(int i) {
+		return bytes != null ? bytes.get(i) & 0xff : chars.charAt(i);
+	}
+
+	// The index of the next c in the line being split from i, or to if there is none
+	private int indexOf(int i, int to, int c) {
+		if (bytes != null)
+			return ByteScanner.indexOf(bytes, i, to, c);
+		while (i < to && chars.charAt(i) != c)
+			i++;
+		return i;
+	}
+
+	// The rules of the split, on the line set by the public methods
+	private int split(int from, int to) throws Exception {
+		boolean dQuote = false; // Flag: a doublequote has been opened.
+		boolean esc = false;
+		int colStart = from;
+		count = 0;
+		for (int i = from; i < to; i++) {
+			// Only a doublequote can change the state of a doublequoted column and only a separator the state
+			// of any other one (a doublequote matters only at the start of the column): jump to the next one
+			if (dQuote) {
+				i = indexOf(i, to, '"');
+				if (i == to)
+					throw new Exception("Double quoted sequence not closed at the end of the line!");
+			} else if (i > from) {
+				i = indexOf(i, to, vSep);
+				if (i == to) {
+					addColumn(colStart, to, false);
+					break;
+				}
+			}
+			int c = at(i);
+			if (dQuote) {
+				if (c == '"') {
+					if (i + 1 == to)
+						throw new Exception("Double quoted sequence closed at the end of the line without a separator!");
+					int next = at(i + 1);
+					if (next == vSep) {
+						// Close the column and jump over the separator
+						dQuote = false;
+						addColumn(colStart, i, esc);
+						esc = false;
+						i++;
+						colStart = i + 1;
+					} else if (next == '"') {
+						// Escaped doublequote
+						esc = true;
+						i++;
+					} else {
+						throw new Exception("Unescaped doublequote at character " + (i - from) + " of a doublequoted sequence!");
+					}
+				} else if (i + 1 == to) {
+					throw new Exception("Double quoted sequence not closed at the end of the line!");
+				}
+			} else {
+				if (c == vSep) {
+					addColumn(colStart, i, false);
+					if (i + 1 == to) {
+						// Separator at the end of the line: empty column
+						addColumn(to, to, false);
+					} else if (at(i + 1) == '"') {
+						// The new column starts with a doublequote
+						dQuote = true;
+						i++;
+					}
+					colStart = i + 1;
+				} else if (i == from && c == '"') {
+					dQuote = true;
+					colStart = i + 1;
+				} else if (i + 1 == to) {
+					addColumn(colStart, to, false);
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 *
+	 * @return the number of columns found by the last split
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 *
+	 * @param index the index of a column found by the last split
+	 * @return the index of the first character (or byte) of the column, after any opening double quote
+	 */
+	public int start(int index) {
+		if (index < 0 || index >= count)
+			throw new IndexOutOfBoundsException("Column " + index + " of " + count + "!");
+		return starts[index];
+	}
+
+	/**
+	 *
+	 * @param index the index of a column found by the last split
+	 * @return the index right after the last character (or byte) of the column, before any closing double quote
+	 */
+	public int end(int index) {
+		if (index < 0 || index >= count)
+			throw new IndexOutOfBoundsException("Column " + index + " of " + count + "!");
+		return ends[index];
+	}
+
+	/**
+	 *
+	 * @param index the index of a column found by the last split
+	 * @return true if the column contains escaped double quotes, which must be resolved by column()
+	 */
+	public boolean isEscaped(int index) {
+		if (index < 0 || index >= count)
+			throw new IndexOutOfBoundsException("Column " + index + " of " + count + "!");
+		return escaped[index];
+	}
+
+	/**
+	 * Extracts a column found by the last split of a CharSequence.
+	 *
+	 * @param line the line that was split
+	 * @param index the index of the column
+	 * @return the contents of the column, without enclosing double quotes and with escaped double quotes resolved
+	 */
+	public String column(CharSequence line, int index) {
+		if (index < 0 || index >= count)
+			throw new IndexOutOfBoundsException("Column " + index + " of " + count + "!");
+		int start = starts[index], end = ends[index];
+		if (!escaped[index])
+			return line.subSequence(start, end).toString();
+		StringBuilder output = new StringBuilder(end - start);
+		for (int i = start; i < end; i++) {
+			char c = line.charAt(i);
+			output.append(c);
+			if (c == '"')
+				i++; // Skip the second doublequote
+		}
+		return output.toString();
+	}
+
+	/**
+	 * Decodes a column found by the last split of a buffer.
+	 *
+	 * @param in the buffer that was split
+	 * @param index the index of the column
+	 * @param charset the charset of the line
+	 * @return the contents of the column, without enclosing double quotes and with escaped double quotes resolved
+	 */
+	public String column(ByteBuffer in, int index, Charset charset) {
+		if (index < 0 || index >= count)
+			throw new IndexOutOfBoundsException("Column " + index + " of " + count + "!");
+		int start = starts[index], end = ends[index], n = 0;
+		if (scratch.length < end - start)
+			scratch = new byte[Math.max(end - start, scratch.length * 2)];
+		for (int i = start; i < end; i++) {
+			byte b = in.get(i);
+			scratch[n++] = b;
+			if (b == '"' && escaped[index])
+				i++; // Skip the second doublequote
+		}
+		return new String(scratch, 0, n, charset);
+	}
+
+}
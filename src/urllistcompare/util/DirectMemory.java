@@ -0,0 +1,86 @@
+/**
+ *
+ */
+package urllistcompare.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ * Allocates direct ByteBuffers and releases their memory as soon as they are not needed anymore,
+ * instead of waiting for the garbage collector to find them.
+ *
+ * The memory is released through the cleaner of the buffer: Unsafe.invokeCleaner() from Java 9 on,
+ * DirectBuffer.cleaner() on Java 8. If neither can be reached, free() does nothing and the memory is
+ * released by the garbage collector as usual.
+ *
+ */
+public final class DirectMemory {
+
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			unsafe = theUnsafe.get(null);
+		} catch (Exception e) {
+			// Java 8 or a runtime without sun.misc.Unsafe: use the cleaner of each buffer
+			unsafe = null;
+			invokeCleaner = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	private DirectMemory() {
+		// Static methods only
+	}
+
+	/**
+	 *
+	 * @param capacity the size of the buffer in bytes
+	 * @return a new direct buffer in the native byte order, filled with zeros
+	 */
+	public static ByteBuffer allocate(int capacity) {
+		return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Releases the memory of a buffer returned by allocate(). The buffer must not be used afterwards.
+	 *
+	 * @param buffer the buffer to release
+	 * @return true if the memory was released, false if it's left to the garbage collector
+	 */
+	public static boolean free(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect())
+			return false;
+		try {
+			if (INVOKE_CLEANER != null) {
+				INVOKE_CLEANER.invoke(UNSAFE, buffer);
+			} else {
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner == null)
+					return false;
+				Method clean = cleaner.getClass().getMethod("clean");
+				clean.setAccessible(true);
+				clean.invoke(cleaner);
+			}
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,92 @@
+/**
+ *
+ */
+package urllistcompare.util;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ * Expands the name of a comparison source into the files it refers to: a single file, a comma separated list
+ * of files, or glob patterns (e.g. exports/2024-05-*.csv) that match the names of files in a directory.
+ *
+ * A pattern can only match the last element of a path: the directory must be written as it is. The files
+ * that match a pattern are sorted by name, which keeps daily exports in chronological order.
+ *
+ * A single "-" stands for the standard input and is returned as it is. A file named explicitly can also be a
+ * named pipe, but the patterns only match regular files.
+ *
+ */
+public final class FileGlob {
+
+	private static final String WILDCARDS = "*?[{";
+	private static final String STDIN = "-";
+
+	private FileGlob() {
+		// Static methods only
+	}
+
+	/**
+	 *
+	 * @param spec a file name, a comma separated list of file names or glob patterns
+	 * @return the files that exist, can be read and match spec, without repetitions (empty if there is none)
+	 */
+	public static List<File> expand(String spec) {
+		LinkedHashSet<File> output = new LinkedHashSet<File>();
+		File whole = new File(spec);
+		if (STDIN.equals(spec)) {
+			output.add(whole);
+			return new ArrayList<File>(output);
+		}
+		if (whole.exists() && !whole.isDirectory()) {
+			// A name that contains a comma or a wildcard, but that exists as it is
+			if (whole.canRead())
+				output.add(whole);
+			return new ArrayList<File>(output);
+		}
+		for (String part : spec.split(",")) {
+			part = part.trim();
+			if (part.isEmpty())
+				continue;
+			File file = new File(part);
+			if (!isPattern(file.getName())) {
+				if (file.exists() && !file.isDirectory() && file.canRead())
+					output.add(file);
+				continue;
+			}
+			File directory = file.getParentFile() == null ? new File(".") : file.getParentFile();
+			File[] found = directory.listFiles();
+			if (isPattern(directory.getPath()) || found == null)
+				continue; // The directory can't be a pattern
+			PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + file.getName());
+			Arrays.sort(found);
+			for (File f : found) {
+				if (f.isFile() && f.canRead() && matcher.matches(Paths.get(f.getName())))
+					output.add(file.getParentFile() == null ? new File(f.getName()) : f);
+			}
+		}
+		return new ArrayList<File>(output);
+	}
+
+	/**
+	 *
+	 * @param name a file name
+	 * @return true if the name contains any glob wildcard
+	 */
+	public static boolean isPattern(String name) {
+		for (int i = 0; i < name.length(); i++) {
+			if (WILDCARDS.indexOf(name.charAt(i)) >= 0)
+				return true;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,99 @@
+/**
+ *
+ */
+package urllistcompare.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ * A pool of Strings that keeps a single instance of each value, which any number of threads can use at the same time.
+ *
+ * Unlike String.intern() the pool belongs to its owner (e.g. a URLList) and is released with it: the values are
+ * held strongly until clear() is called or the pool can't be reached anymore.
+ *
+ * The pool counts the instances that were replaced by the shared one and estimates the memory that they took, with
+ * the layout of a String in a 64-bit JVM with compressed references.
+ *
+ */
+public final class InternPool {
+
+	private final ConcurrentHashMap<String, String> values;
+	private final LongAdder shared, savedBytes;
+
+	public InternPool() {
+		values = new ConcurrentHashMap<String, String>(1500, 0.95f);
+		shared = new LongAdder();
+		savedBytes = new LongAdder();
+	}
+
+	/**
+	 *
+	 * @param value a String (not null)
+	 * @return the instance in the pool that is equal to the value, which is added if there is none
+	 */
+	public String intern(String value) {
+		String output = values.get(value);
+		if (output == null) {
+			output = values.putIfAbsent(value, value);
+			if (output == null)
+				return value;
+		}
+		if (output != value) {
+			shared.increment();
+			savedBytes.add(footprint(value));
+		}
+		return output;
+	}
+
+	/**
+	 *
+	 * @param value a String
+	 * @return the estimated bytes taken by the String and its chars
+	 */
+	public static long footprint(String value) {
+		return 24 + ((16 + 2L * value.length() + 7) & ~7L);
+	}
+
+	/**
+	 *
+	 * @return the number of distinct values in the pool
+	 */
+	public int size() {
+		return values.size();
+	}
+
+	/**
+	 *
+	 * @return the number of instances that were replaced by the one in the pool
+	 */
+	public long getShared() {
+		return shared.sum();
+	}
+
+	/**
+	 *
+	 * @return the estimated bytes of the instances that were replaced by the one in the pool
+	 */
+	public long getSavedBytes() {
+		return savedBytes.sum();
+	}
+
+	/**
+	 * Empties the pool, the statistics are kept.
+	 */
+	public void clear() {
+		values.clear();
+	}
+
+	/**
+	 * @return a summary of the statistics of the pool
+	 */
+	@Override
+	public String toString() {
+		return String.format("%d distinct, %d shared, %.1f MB saved", size(), getShared(), getSavedBytes() / 1048576.0);
+	}
+
+}
@@ -0,0 +1,143 @@
+/**
+ *
+ */
+package urllistcompare.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ * Reads the lines of a file (or of a byte range within a file) by mapping it in memory and scanning
+ * its bytes directly, without decoding them.
+ *
+ * Each call to nextLine() moves the reader to the following line, whose bytes can then be accessed
+ * through buffer(), lineStart() and lineEnd() (the line terminator is never included). Lines are
+ * terminated by \n, \r\n or a single \r, like in java.util.Scanner.nextLine(). A terminator at the
+ * end of the range does not produce an additional empty line.
+ *
+ * Files larger than a single mapping are read through consecutive windows: a line can't be longer than
+ * the size of a window.
+ *
+ */
+public final class MappedLineReader {
+
+	// Maximum size of a single mapping
+	private static final long WINDOW = 1L << 30;
+
+	private final FileChannel channel;
+	private final long end; // Absolute offset where the range ends (exclusive)
+	private final long window;
+	private MappedByteBuffer buffer;
+	private long bufferStart; // Absolute offset of the first byte in the buffer
+	private int position; // Next byte to read, relative to the buffer
+	private int lineStart, lineEnd; // Bounds of the current line, relative to the buffer
+
+	/**
+	 *
+	 * @param channel the channel to read from: it is not closed by the reader
+	 * @param from the absolute offset of the first line that should be read
+	 * @param to the absolute offset where the reading should stop (exclusive)
+	 * @throws IOException if the file can't be mapped
+	 */
+	public MappedLineReader(FileChannel channel, long from, long to) throws IOException {
+		this(channel, from, to, WINDOW);
+	}
+
+	// Allows smaller windows, so that the remapping logic can be exercised on small files
+	MappedLineReader(FileChannel channel, long from, long to, long window) throws IOException {
+		this.channel = channel;
+		this.end = to;
+		this.window = window;
+		map(from);
+	}
+
+	// Maps a new window starting at the absolute offset start
+	private void map(long start) throws IOException {
+		bufferStart = start;
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(window, end - start));
+		position = 0;
+	}
+
+	/**
+	 * Moves the reader to the next line.
+	 *
+	 * @return true if a new line was read, false if the end of the range was reached
+	 * @throws IOException if a line is longer than a mapping window or the file can't be mapped
+	 */
+	public boolean nextLine() throws IOException {
+		if (bufferStart + position >= end)
+			return false;
+		while (true) {
+			int limit = buffer.limit();
+			boolean lastWindow = bufferStart + limit >= end;
+			int i = ByteScanner.indexOfLineEnd(buffer, position, limit);
+			if (i < limit) {
+				if (buffer.get(i) == '\r' && i + 1 == limit && !lastWindow) {
+					// \r at the end of the window: it could be followed by \n in the next one
+				} else {
+					lineStart = position;
+					lineEnd = i;
+					position = i + 1;
+					if (buffer.get(i) == '\r' && position < limit && buffer.get(position) == '\n')
+						position++;
+					return true;
+				}
+			} else if (lastWindow) {
+				// Last line, without a terminator
+				lineStart = position;
+				lineEnd = limit;
+				position = limit;
+				return true;
+			}
+			// The line crosses the end of the window: map a new one starting at the line
+			if (position == 0)
+				throw new IOException("Line longer than " + window + " bytes at offset " + bufferStart + "!");
+			map(bufferStart + position);
+		}
+	}
+
+	/**
+	 *
+	 * @return the buffer that contains the current line
+	 */
+	public ByteBuffer buffer() {
+		return buffer;
+	}
+
+	/**
+	 *
+	 * @return the index of the first byte of the current line within buffer()
+	 */
+	public int lineStart() {
+		return lineStart;
+	}
+
+	/**
+	 *
+	 * @return the index right after the last byte of the current line within buffer(), terminator excluded
+	 */
+	public int lineEnd() {
+		return lineEnd;
+	}
+
+	/**
+	 *
+	 * @return the absolute offset in the file of the first byte of the current line
+	 */
+	public long lineOffset() {
+		return bufferStart + lineStart;
+	}
+
+	/**
+	 *
+	 * @return the absolute offset in the file of the byte that follows the current line and its terminator
+	 */
+	public long offset() {
+		return bufferStart + position;
+	}
+
+}
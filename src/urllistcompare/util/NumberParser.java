@@ -0,0 +1,177 @@
+/**
+ *
+ */
+package urllistcompare.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ * Parses non-negative integers written with a thousand and a decimal separator, reading each character
+ * only once and without creating any intermediate objects. Values can be as large as Long.MAX_VALUE.
+ *
+ * The rules are the same as Parser.parseLong: the thousand separator is ignored, there can be at most one
+ * decimal separator and the decimals are rounded to the nearest unit (half up, based on the first decimal).
+ * Any other character that is not a digit is an error.
+ *
+ * Errors are not reported with exceptions: the parse methods return -1 and the reason can be read with
+ * getError(). An instance holds the separators of a single reader and is not thread safe.
+ *
+ */
+public final class NumberParser {
+
+	private static final String ERR_EMPTY = "No digits in the integer part!";
+	private static final String ERR_DIGIT = "At least one digit is not a number";
+	private static final String ERR_DSEP = "More than one decimal separator!";
+	private static final String ERR_DECIMALS = "No digits after the decimal separator!";
+	private static final String ERR_OVERFLOW = "The value is too large!";
+
+	private final char tSep, dSep;
+	private String error;
+
+	/**
+	 *
+	 * @param tSep the thousand separator, or 0 if none is used
+	 * @param dSep the decimal separator, or 0 if none is used
+	 */
+	public NumberParser(char tSep, char dSep) {
+		this.tSep = tSep;
+		this.dSep = dSep;
+		error = null;
+	}
+
+	/**
+	 *
+	 * @return the reason why the last parse failed, or null if it was successful
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * Parses the characters between from (inclusive) and to (exclusive).
+	 *
+	 * @param input the sequence that contains the value
+	 * @param from the index of the first character
+	 * @param to the index right after the last character
+	 * @return the parsed value, or -1 if it's not valid
+	 */
+	public long parse(CharSequence input, int from, int to) {
+		long output = 0;
+		int digits = 0, decimals = -1; // decimals is -1 until the decimal separator is found
+		int round = 0, d;
+		char c;
+		error = null;
+		for (int i = from; i < to; i++) {
+			c = input.charAt(i);
+			if (c == tSep && tSep > 0)
+				continue;
+			if (c == dSep && dSep > 0) {
+				if (decimals > -1)
+					return fail(ERR_DSEP);
+				decimals = 0;
+				continue;
+			}
+			if (c >= '0' && c <= '9') {
+				d = c - '0';
+			} else if (c > 127 && Character.isDigit(c)) {
+				d = Character.digit(c, 10);
+			} else {
+				return fail(ERR_DIGIT);
+			}
+			if (decimals > -1) {
+				if (decimals++ == 0 && d > 4)
+					round = 1;
+			} else {
+				if (output > (Long.MAX_VALUE - d) / 10)
+					return fail(ERR_OVERFLOW);
+				output = output * 10 + d;
+				digits++;
+			}
+		}
+		return result(output, digits, decimals, round);
+	}
+
+	/**
+	 * Parses the characters in the String.
+	 *
+	 * @param input the value
+	 * @return the parsed value, or -1 if it's not valid
+	 */
+	public long parse(String input) {
+		return parse(input, 0, input.length());
+	}
+
+	/**
+	 * Parses the bytes between from (inclusive) and to (exclusive). The bytes are read as ASCII characters:
+	 * if any of them is not ASCII, the value is decoded with the charset and parsed as characters.
+	 *
+	 * @param input the buffer that contains the value
+	 * @param from the index of the first byte
+	 * @param to the index right after the last byte
+	 * @param charset the charset of the value
+	 * @return the parsed value, or -1 if it's not valid
+	 */
+	public long parse(ByteBuffer input, int from, int to, Charset charset) {
+		long output = 0;
+		int digits = 0, decimals = -1; // decimals is -1 until the decimal separator is found
+		int round = 0, d;
+		byte c;
+		error = null;
+		for (int i = from; i < to; i++) {
+			c = input.get(i);
+			if (c < 0)
+				return parse(decode(input, from, to, charset));
+			if (c == tSep && tSep > 0)
+				continue;
+			if (c == dSep && dSep > 0) {
+				if (decimals > -1)
+					return fail(ERR_DSEP);
+				decimals = 0;
+				continue;
+			}
+			if (c < '0' || c > '9')
+				return fail(ERR_DIGIT);
+			d = c - '0';
+			if (decimals > -1) {
+				if (decimals++ == 0 && d > 4)
+					round = 1;
+			} else {
+				if (output > (Long.MAX_VALUE - d) / 10)
+					return fail(ERR_OVERFLOW);
+				output = output * 10 + d;
+				digits++;
+			}
+		}
+		return result(output, digits, decimals, round);
+	}
+
+	// Checks the parsed parts and adds the rounding bit
+	private long result(long output, int digits, int decimals, int round) {
+		if (digits == 0)
+			return fail(ERR_EMPTY);
+		if (decimals == 0)
+			return fail(ERR_DECIMALS);
+		if (output > Long.MAX_VALUE - round)
+			return fail(ERR_OVERFLOW);
+		return output + round;
+	}
+
+	// Records the error
+	private long fail(String error) {
+		this.error = error;
+		return -1;
+	}
+
+	// Only used for values that are not ASCII
+	private static String decode(ByteBuffer input, int from, int to, Charset charset) {
+		byte[] bytes = new byte[to - from];
+		for (int i = from; i < to; i++) {
+			bytes[i - from] = input.get(i);
+		}
+		return new String(bytes, charset);
+	}
+
+}
@@ -0,0 +1,351 @@
+/**
+ *
+ */
+package urllistcompare.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ * Decompresses a gzip file made of one or more members (e.g. the concatenation of several gzip files, or the
+ * output of a tool that compresses in blocks), decompressing several members at the same time.
+ *
+ * The bytes that look like the header of a member are found before decompressing anything: each of them is
+ * decompressed by its own thread into a small queue, and the stream returns their contents in order. Since a
+ * member can only be told apart from compressed data that happens to look like a header once the previous
+ * member is over, a candidate that doesn't start where the previous member ended is discarded, and a member
+ * that starts where no candidate was found is decompressed anyway. The CRC and the size of each member are
+ * checked against its trailer.
+ *
+ * With a single member the decompression still runs on a separate thread, which reads ahead of the caller.
+ * Like java.util.zip.GZIPInputStream, any data after the last member that is not a gzip header is ignored.
+ *
+ * The stream is not thread safe: it must be read by a single thread.
+ *
+ */
+public final class ParallelGzipInputStream extends InputStream {
+
+	private static final int CHUNK = 1 << 18; // Size of the decompressed chunks
+	private static final int QUEUE = 16; // Chunks that each member can decompress ahead of the reader
+	private static final int INPUT = 1 << 16; // Size of the compressed reads
+	private static final long WINDOW = 1L << 26; // Size of the mappings used to find the candidates
+	private static final byte[] END = new byte[0];
+
+	private final FileChannel channel;
+	private final long size;
+	private final long[] candidates;
+	private final int parallelism;
+	private final ExecutorService pool;
+	private final ArrayDeque<Member> inFlight;
+	private int nextCandidate; // The first candidate that has not been submitted yet
+	private long expected; // The offset where the next member must start
+	private Member current;
+	private byte[] chunk;
+	private int chunkPosition;
+	private boolean closed;
+
+	/**
+	 *
+	 * @param channel the gzip file: it is closed with the stream
+	 * @param parallelism the largest number of members that are decompressed at the same time
+	 * @throws IOException if the file can't be read
+	 */
+	public ParallelGzipInputStream(FileChannel channel, int parallelism) throws IOException {
+		this.channel = channel;
+		this.parallelism = Math.max(1, parallelism);
+		size = channel.size();
+		candidates = findCandidates(channel, size);
+		// Not a fixed pool: a member that must be read next can't wait for a thread behind the ones that follow it
+		pool = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "gzip-member");
+				t.setDaemon(true); // Never keeps the JVM alive if the stream is not closed
+				return t;
+			}
+		});
+		inFlight = new ArrayDeque<Member>();
+		nextCandidate = 0;
+		expected = 0;
+		current = null;
+		chunk = END;
+		chunkPosition = 0;
+		closed = false;
+	}
+
+	/**
+	 * Checks the magic bytes of gzip.
+	 *
+	 * @param header the first bytes of a file
+	 * @param length the number of bytes in header
+	 * @return true if the bytes are the start of a gzip member
+	 */
+	public static boolean isGzip(byte[] header, int length) {
+		return length >= 3 && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b && header[2] == 8;
+	}
+
+	/*
+	 * Finds the offsets of all the bytes that look like the header of a member: the magic bytes, the deflate
+	 * method, no reserved flag, a known value for the extra flags and for the operating system.
+	 */
+	private static long[] findCandidates(FileChannel channel, long size) throws IOException {
+		long[] output = new long[16];
+		int count = 0;
+		for (long start = 0; start < size; start += WINDOW) {
+			// The windows overlap, so that a header is always whole in the window where it starts
+			int length = (int) Math.min(WINDOW + 9, size - start);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+			int end = (int) Math.min(WINDOW, length);
+			for (int i = ByteScanner.indexOf(buffer, 0, end, 0x1f); i < end; i = ByteScanner.indexOf(buffer, i + 1, end, 0x1f)) {
+				if (i + 10 > length)
+					break;
+				int flags = buffer.get(i + 3) & 0xff, xfl = buffer.get(i + 8) & 0xff, os = buffer.get(i + 9) & 0xff;
+				if ((buffer.get(i + 1) & 0xff) == 0x8b && buffer.get(i + 2) == 8 && (flags & 0xe0) == 0
+						&& (xfl == 0 || xfl == 2 || xfl == 4) && (os <= 13 || os == 255)) {
+					if (count == output.length)
+						output = Arrays.copyOf(output, count * 2);
+					output[count++] = start + i;
+				}
+			}
+		}
+		return Arrays.copyOf(output, count);
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] one = new byte[1];
+		return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (closed)
+			throw new IOException("Stream closed");
+		if (len == 0)
+			return 0;
+		while (chunkPosition == chunk.length) {
+			if (!nextChunk())
+				return -1;
+		}
+		int n = Math.min(len, chunk.length - chunkPosition);
+		System.arraycopy(chunk, chunkPosition, b, off, n);
+		chunkPosition += n;
+		return n;
+	}
+
+	// Moves to the next decompressed chunk, returns false at the end of the last member
+	private boolean nextChunk() throws IOException {
+		while (true) {
+			if (current == null) {
+				current = nextMember();
+				if (current == null)
+					return false;
+			}
+			byte[] next;
+			try {
+				next = current.chunks.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for a gzip member");
+			}
+			if (next != END) {
+				chunk = next;
+				chunkPosition = 0;
+				return true;
+			}
+			if (current.error != null) {
+				if (current.notGzip && current.offset > 0)
+					return false; // Trailing data after the last member
+				throw current.error;
+			}
+			expected = current.end;
+			current = null;
+		}
+	}
+
+	// Returns the member that starts at the expected offset, or null at the end of the file
+	private Member nextMember() {
+		if (expected >= size)
+			return null;
+		// The candidates inside the previous member were not members
+		while (!inFlight.isEmpty() && inFlight.peek().offset < expected)
+			inFlight.poll().cancelled = true;
+		while (nextCandidate < candidates.length && candidates[nextCandidate] < expected)
+			nextCandidate++;
+		Member output;
+		if (!inFlight.isEmpty() && inFlight.peek().offset == expected) {
+			output = inFlight.poll();
+		} else {
+			// A member that wasn't found as a candidate: decompress it now
+			if (nextCandidate < candidates.length && candidates[nextCandidate] == expected)
+				nextCandidate++;
+			output = new Member(expected);
+			pool.execute(output);
+		}
+		// Keep the pool busy with the candidates that follow
+		while (inFlight.size() < parallelism - 1 && nextCandidate < candidates.length) {
+			Member m = new Member(candidates[nextCandidate++]);
+			pool.execute(m);
+			inFlight.add(m);
+		}
+		return output;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		pool.shutdownNow();
+		channel.close();
+	}
+
+	/*
+	 * Decompresses the member that starts at offset into its queue of chunks, followed by END.
+	 * A discarded member is stopped through a flag instead of an interrupt, which would close the channel.
+	 */
+	private final class Member implements Runnable {
+		private final long offset;
+		private final BlockingQueue<byte[]> chunks;
+		private volatile boolean cancelled;
+		private volatile long end; // The offset right after the trailer
+		private volatile IOException error;
+		private volatile boolean notGzip; // The header is not valid
+
+		private Member(long offset) {
+			this.offset = offset;
+			chunks = new ArrayBlockingQueue<byte[]>(QUEUE);
+		}
+
+		public void run() {
+			Inflater inflater = new Inflater(true);
+			try {
+				try {
+					inflate(inflater);
+				} catch (DataFormatException e) {
+					error = new ZipException("Corrupt gzip member at offset " + offset + ": " + e.getMessage());
+				} catch (IOException e) {
+					error = e;
+				}
+				put(END);
+			} catch (InterruptedException e) {
+				// Discarded by the reader
+			} finally {
+				inflater.end();
+			}
+		}
+
+		private void inflate(Inflater inflater) throws IOException, DataFormatException, InterruptedException {
+			CRC32 crc = new CRC32();
+			byte[] input = new byte[INPUT], output = new byte[CHUNK];
+			ByteBuffer in = ByteBuffer.wrap(input);
+			long start = skipHeader(), position = start, total = 0;
+			int length = 0, n;
+			while (!inflater.finished()) {
+				if (cancelled)
+					throw new InterruptedException();
+				if (inflater.needsInput()) {
+					in.clear();
+					n = channel.read(in, position);
+					if (n <= 0)
+						throw new EOFException("Unexpected end of the gzip member at offset " + offset);
+					position += n;
+					inflater.setInput(input, 0, n);
+				}
+				n = inflater.inflate(output, length, output.length - length);
+				if (n == 0 && inflater.needsDictionary())
+					throw new ZipException("Unsupported preset dictionary in the gzip member at offset " + offset);
+				crc.update(output, length, n);
+				length += n;
+				total += n;
+				if (length == output.length) {
+					put(output);
+					output = new byte[CHUNK];
+					length = 0;
+				}
+			}
+			if (length > 0)
+				put(Arrays.copyOf(output, length));
+			// Check the trailer: CRC32 and size modulo 2^32, both little endian
+			long trailer = start + inflater.getBytesRead();
+			ByteBuffer bytes = read(trailer, 8);
+			if (bytes.getInt(0) != (int) crc.getValue() || bytes.getInt(4) != (int) total)
+				throw new ZipException("Corrupt gzip member at offset " + offset + ": wrong CRC or size");
+			end = trailer + 8;
+		}
+
+		// Waits for room in the queue, unless the member is discarded
+		private void put(byte[] chunk) throws InterruptedException {
+			while (!chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+				if (cancelled)
+					throw new InterruptedException();
+			}
+		}
+
+		// Returns the offset of the compressed data
+		private long skipHeader() throws IOException {
+			ByteBuffer header;
+			try {
+				header = read(offset, 10);
+			} catch (EOFException e) {
+				notGzip = true;
+				throw e;
+			}
+			int flags = header.get(3) & 0xff;
+			if ((header.get(0) & 0xff) != 0x1f || (header.get(1) & 0xff) != 0x8b || header.get(2) != 8 || (flags & 0xe0) != 0) {
+				notGzip = true;
+				throw new ZipException("Not a gzip member at offset " + offset);
+			}
+			long position = offset + 10;
+			if ((flags & 4) != 0) // FEXTRA
+				position += 2 + (read(position, 2).getShort(0) & 0xffff);
+			if ((flags & 8) != 0) // FNAME
+				position = skipString(position);
+			if ((flags & 16) != 0) // FCOMMENT
+				position = skipString(position);
+			if ((flags & 2) != 0) // FHCRC
+				position += 2;
+			return position;
+		}
+
+		// Skips a zero terminated string
+		private long skipString(long position) throws IOException {
+			while (true) {
+				ByteBuffer bytes = read(position, 1);
+				position++;
+				if (bytes.get(0) == 0)
+					return position;
+			}
+		}
+
+		// Reads exactly length bytes, in little endian order
+		private ByteBuffer read(long position, int length) throws IOException {
+			ByteBuffer output = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+			while (output.hasRemaining()) {
+				if (channel.read(output, position + output.position()) <= 0)
+					throw new EOFException("Unexpected end of the gzip member at offset " + offset);
+			}
+			return output;
+		}
+	}
+
+}
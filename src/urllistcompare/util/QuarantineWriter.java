@@ -0,0 +1,127 @@
+/**
+ *
+ */
+package urllistcompare.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ * Writes the rows that could not be read to a quarantine file, from a background thread, so that the threads that
+ * read the source only pay for putting each row in a queue. Each rejected row becomes a line of the file with its
+ * line number, the reason and the row as it was, separated by tabs (the row itself can contain anything but a line
+ * terminator).
+ *
+ * Any number of threads can reject rows at the same time. The queue is bounded: if the rows are rejected faster
+ * than they can be written, the threads that reject them wait.
+ *
+ */
+public final class QuarantineWriter implements Closeable {
+
+	private static final int QUEUE = 1024;
+	private static final Object[] END = new Object[0];
+
+	private final File file;
+	private final BlockingQueue<Object[]> rows;
+	private final Thread writer;
+	private volatile IOException error;
+	private volatile boolean closed;
+
+	/**
+	 *
+	 * @param file the quarantine file
+	 * @param append true to add the rows at the end of the file, false to replace it
+	 * @throws IOException if the file can't be opened
+	 */
+	public QuarantineWriter(File file, boolean append) throws IOException {
+		this.file = file;
+		final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), StandardCharsets.UTF_8), 1 << 16);
+		rows = new ArrayBlockingQueue<Object[]>(QUEUE);
+		writer = new Thread(new Runnable() {
+			public void run() {
+				Object[] row;
+				try {
+					try {
+						while ((row = rows.take()) != END) {
+							if (error == null) { // After an error the rows are only drained
+								out.write(row[0] + "\t" + row[1] + "\t" + row[2] + "\n");
+								if (rows.isEmpty())
+									out.flush(); // Keep the file up to date while the reading goes on
+							}
+						}
+					} finally {
+						out.close();
+					}
+				} catch (IOException e) {
+					error = e;
+				} catch (InterruptedException e) {
+					error = new InterruptedIOException("Quarantine writer interrupted");
+				}
+			}
+		}, "quarantine-writer");
+		writer.setDaemon(true);
+		writer.start();
+		closed = false;
+	}
+
+	/**
+	 * Adds a row to the quarantine file.
+	 *
+	 * @param line the number of the line in the source
+	 * @param row the row as it was read
+	 * @param reason the reason why it was rejected
+	 * @throws IOException if the file can't be written or the thread is interrupted while waiting
+	 */
+	public void reject(long line, String row, String reason) throws IOException {
+		if (error != null)
+			throw error;
+		if (closed)
+			throw new IOException("The quarantine file " + file + " is closed");
+		try {
+			rows.put(new Object[] { line, reason, row });
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while quarantining line " + line);
+		}
+	}
+
+	/**
+	 *
+	 * @return the quarantine file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Waits until all the rows are written and closes the file.
+	 *
+	 * @throws IOException if any row could not be written
+	 */
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			rows.put(END);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while closing the quarantine file " + file);
+		}
+		if (error != null)
+			throw error;
+	}
+
+}
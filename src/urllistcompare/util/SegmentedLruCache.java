@@ -0,0 +1,209 @@
+/**
+ *
+ */
+package urllistcompare.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ * A bounded cache with a segmented LRU eviction policy, which any number of threads can use at the same time.
+ *
+ * A new entry goes to the probation segment; an entry that is found again moves to the protected segment, which
+ * takes most of the capacity. The least recently used entries of the protected segment go back to probation, and
+ * the least recently used entries of probation are evicted. A long run of values that are only seen once (e.g. the
+ * urls of a single day) can only flush probation, not the entries that are seen over and over.
+ *
+ * The cache is split into stripes by the hash of the key, each with its own lock and its own share of the capacity.
+ *
+ * A cache is only worth its cost if the keys repeat: once SAMPLE keys have been looked up, if less than
+ * minHitRate of them were found the cache bypasses itself, i.e. get() always returns null and put() does nothing.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public final class SegmentedLruCache<K, V> {
+
+	/**
+	 * The number of lookups after which the hit rate is checked.
+	 */
+	public static final int SAMPLE = 1 << 16;
+	private static final int PROTECTED = 80; // Percent of the capacity of a stripe
+
+	private final Stripe<K, V>[] stripes;
+	private final double minHitRate;
+	private final AtomicLong lookups, hits, bypassed;
+	private volatile boolean bypass;
+
+	/**
+	 *
+	 * @param capacity the largest number of entries
+	 * @param stripes the number of stripes, rounded up to a power of 2 (e.g. the number of threads that use the cache)
+	 * @param minHitRate the hit rate under which the cache bypasses itself, 0 to never bypass it
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public SegmentedLruCache(int capacity, int stripes, double minHitRate) {
+		int n = stripes <= 1 ? 1 : Integer.highestOneBit((stripes - 1) * 2);
+		this.stripes = new Stripe[n];
+		for (int i = 0; i < n; i++)
+			this.stripes[i] = new Stripe<K, V>(Math.max(2, capacity / n));
+		this.minHitRate = minHitRate;
+		lookups = new AtomicLong();
+		hits = new AtomicLong();
+		bypassed = new AtomicLong();
+		bypass = false;
+	}
+
+	/**
+	 *
+	 * @param key the key
+	 * @return the value of the key, or null if it's not in the cache
+	 */
+	public V get(K key) {
+		if (bypass) {
+			bypassed.incrementAndGet();
+			return null;
+		}
+		long n = lookups.incrementAndGet();
+		V output = stripe(key).get(key);
+		if (output != null)
+			hits.incrementAndGet();
+		if (minHitRate > 0 && n % SAMPLE == 0 && hits.get() < minHitRate * n)
+			bypass = true;
+		return output;
+	}
+
+	/**
+	 * Adds a key to the cache, which might evict another one.
+	 *
+	 * @param key the key
+	 * @param value its value (not null)
+	 */
+	public void put(K key, V value) {
+		if (!bypass)
+			stripe(key).put(key, value);
+	}
+
+	private Stripe<K, V> stripe(K key) {
+		int hash = key.hashCode() * 0x9E3779B9;
+		return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+	}
+
+	/**
+	 *
+	 * @return true if the cache bypasses itself because the keys don't repeat enough
+	 */
+	public boolean isBypassed() {
+		return bypass;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return lookups.get() - hits.get();
+	}
+
+	public long getEvictions() {
+		long output = 0;
+		for (Stripe<K, V> s : stripes)
+			output += s.evictions();
+		return output;
+	}
+
+	/**
+	 *
+	 * @return the lookups that skipped the cache because it was bypassed
+	 */
+	public long getBypassed() {
+		return bypassed.get();
+	}
+
+	/**
+	 *
+	 * @return the fraction of the lookups (not bypassed) that found their key, 0 if there was none
+	 */
+	public double getHitRate() {
+		long total = lookups.get();
+		return total == 0 ? 0 : (double) hits.get() / total;
+	}
+
+	/**
+	 *
+	 * @return the number of entries in the cache
+	 */
+	public int size() {
+		int output = 0;
+		for (Stripe<K, V> s : stripes)
+			output += s.size();
+		return output;
+	}
+
+	/*
+	 * A stripe of the cache: two LinkedHashMaps in access order, the least recently used entry first.
+	 */
+	private static final class Stripe<K, V> {
+		private final int protectedCapacity, probationCapacity;
+		private final LinkedHashMap<K, V> probation, protectedSegment;
+		private long evictions;
+
+		private Stripe(int capacity) {
+			protectedCapacity = Math.max(1, capacity * PROTECTED / 100);
+			probationCapacity = Math.max(1, capacity - protectedCapacity);
+			probation = new LinkedHashMap<K, V>(16, 0.75f, true);
+			protectedSegment = new LinkedHashMap<K, V>(16, 0.75f, true);
+		}
+
+		private synchronized V get(K key) {
+			V output = protectedSegment.get(key);
+			if (output != null)
+				return output;
+			output = probation.remove(key);
+			if (output != null) {
+				// Found again: promoted, the least recently used protected entry goes back to probation
+				protectedSegment.put(key, output);
+				if (protectedSegment.size() > protectedCapacity) {
+					Iterator<Map.Entry<K, V>> eldest = protectedSegment.entrySet().iterator();
+					Map.Entry<K, V> demoted = eldest.next();
+					eldest.remove();
+					probation.put(demoted.getKey(), demoted.getValue());
+					trim();
+				}
+			}
+			return output;
+		}
+
+		private synchronized void put(K key, V value) {
+			if (protectedSegment.containsKey(key)) {
+				protectedSegment.put(key, value);
+			} else {
+				probation.put(key, value);
+				trim();
+			}
+		}
+
+		// Evicts the least recently used entries of probation
+		private void trim() {
+			Iterator<K> eldest = probation.keySet().iterator();
+			while (probation.size() > probationCapacity) {
+				eldest.next();
+				eldest.remove();
+				evictions++;
+			}
+		}
+
+		private synchronized long evictions() {
+			return evictions;
+		}
+
+		private synchronized int size() {
+			return probation.size() + protectedSegment.size();
+		}
+	}
+
+}
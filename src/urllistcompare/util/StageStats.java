@@ -0,0 +1,154 @@
+/**
+ *
+ */
+package urllistcompare.util;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Rocco Barbini (roccobarbi@gmail.com)
+ *
+ * Keeps the statistics of a stage of a pipeline: how much it processed, how long its workers were busy,
+ * how long they waited for input and for room in the following queue, and how full its input queue got.
+ *
+ * The workers of the stage update it at the end of each item and can be many at the same time.
+ * The stage with the highest busy time per worker is the bottleneck: the stages before it wait for room
+ * in the queues, the stages after it wait for input.
+ *
+ */
+public final class StageStats {
+
+	private final String name;
+	private final String unit;
+	private final int workers;
+	private final BlockingQueue<?> input; // null for the first stage
+	private final LongAdder items = new LongAdder();
+	private final LongAdder busy = new LongAdder(); // Nanoseconds
+	private final LongAdder starved = new LongAdder(); // Nanoseconds waiting for input
+	private final LongAdder blocked = new LongAdder(); // Nanoseconds waiting for the following queue
+	private volatile int maxDepth;
+
+	/**
+	 *
+	 * @param name the name of the stage
+	 * @param unit what the stage counts (e.g. "lines")
+	 * @param workers the number of threads of the stage
+	 * @param input the queue the stage takes its input from, or null if it has none
+	 */
+	public StageStats(String name, String unit, int workers, BlockingQueue<?> input) {
+		this.name = name;
+		this.unit = unit;
+		this.workers = workers;
+		this.input = input;
+		maxDepth = 0;
+	}
+
+	/**
+	 * Records that a worker processed some items.
+	 *
+	 * @param count the number of items
+	 * @param nanos the time spent processing them
+	 */
+	public void processed(long count, long nanos) {
+		items.add(count);
+		busy.add(nanos);
+		sample();
+	}
+
+	/**
+	 *
+	 * @param nanos the time a worker spent waiting for input
+	 */
+	public void starved(long nanos) {
+		starved.add(nanos);
+	}
+
+	/**
+	 *
+	 * @param nanos the time a worker spent waiting for room in the following queue
+	 */
+	public void blocked(long nanos) {
+		blocked.add(nanos);
+	}
+
+	// Keeps track of the largest depth of the input queue (a lost update only loses a sample)
+	private void sample() {
+		if (input != null) {
+			int depth = input.size();
+			if (depth > maxDepth)
+				maxDepth = depth;
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getWorkers() {
+		return workers;
+	}
+
+	public long getItems() {
+		return items.sum();
+	}
+
+	/**
+	 *
+	 * @return the time spent processing by all the workers, in milliseconds
+	 */
+	public long getBusyMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(busy.sum());
+	}
+
+	/**
+	 *
+	 * @return the time spent waiting for input by all the workers, in milliseconds
+	 */
+	public long getStarvedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(starved.sum());
+	}
+
+	/**
+	 *
+	 * @return the time spent waiting for room in the following queue by all the workers, in milliseconds
+	 */
+	public long getBlockedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(blocked.sum());
+	}
+
+	/**
+	 *
+	 * @return the items processed per second by each worker while busy, 0 if the stage did nothing
+	 */
+	public double getThroughput() {
+		long nanos = busy.sum();
+		return nanos == 0 ? 0 : items.sum() * 1e9 / nanos;
+	}
+
+	/**
+	 *
+	 * @return the current depth of the input queue, 0 if the stage has none
+	 */
+	public int getQueueDepth() {
+		return input == null ? 0 : input.size();
+	}
+
+	/**
+	 *
+	 * @return the largest depth of the input queue that was seen, 0 if the stage has none
+	 */
+	public int getMaxQueueDepth() {
+		return maxDepth;
+	}
+
+	@Override
+	public String toString() {
+		return name + " (" + workers + (workers == 1 ? " thread): " : " threads): ") + getItems() + " " + unit
+				+ ", " + (long) getThroughput() + " " + unit + "/s per thread, busy " + getBusyMillis()
+				+ " ms, waiting for input " + getStarvedMillis() + " ms, waiting for output " + getBlockedMillis()
+				+ " ms" + (input == null ? "" : ", queue depth " + getQueueDepth() + " (max " + maxDepth + ")");
+	}
+
+}